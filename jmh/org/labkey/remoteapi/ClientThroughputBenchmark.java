@@ -0,0 +1,103 @@
+package org.labkey.remoteapi;
+
+import org.labkey.remoteapi.query.Row;
+import org.labkey.remoteapi.query.SelectRowsCommand;
+import org.labkey.remoteapi.query.SelectRowsResponse;
+import org.labkey.remoteapi.query.StreamingRowset;
+import org.labkey.remoteapi.test.MockLabKeyServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes select-rows requests end to end against a {@link MockLabKeyServer}, from several threads sharing one
+ * Connection, so that connection pooling, response reading, and concurrency changes can be measured. Results are
+ * requests per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ClientThroughputBenchmark
+{
+    private static final int ASYNC_BATCH = 20;
+
+    @Param({"100", "10000"})
+    public int rowCount;
+
+    @Param({"0", "5"})
+    public long latency;
+
+    @Param({"false", "true"})
+    public boolean compress;
+
+    private MockLabKeyServer _server;
+    private Connection _connection;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        _server = new MockLabKeyServer();
+        _server.setRowCount(rowCount);
+        _server.setLatency(latency);
+        _server.setCompressResponses(compress);
+        _server.start();
+        _connection = _server.createConnection();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        _server.close();
+    }
+
+    @Benchmark
+    public SelectRowsResponse execute() throws IOException, CommandException
+    {
+        return new SelectRowsCommand("lists", "Synthetic").execute(_connection, "Home");
+    }
+
+    @Benchmark
+    public int stream() throws IOException, CommandException
+    {
+        int count = 0;
+        try (StreamingRowset rowset = new SelectRowsCommand("lists", "Synthetic").stream(_connection, "Home"))
+        {
+            for (Row ignored : rowset)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Issues a batch of asynchronous requests and waits for all of them; the score is batches per second
+     */
+    @Benchmark
+    public int executeAsync()
+    {
+        List<CompletableFuture<SelectRowsResponse>> futures = new ArrayList<>(ASYNC_BATCH);
+        for (int i = 0; i < ASYNC_BATCH; i++)
+            futures.add(new SelectRowsCommand("lists", "Synthetic").executeAsync(_connection, "Home"));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        return futures.size();
+    }
+}
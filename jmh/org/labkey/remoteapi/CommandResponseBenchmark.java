@@ -0,0 +1,47 @@
+package org.labkey.remoteapi;
+
+import org.json.JSONObject;
+import org.labkey.remoteapi.query.SyntheticResults;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up properties of a parsed response by path with {@link CommandResponse#getProperty(String)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandResponseBenchmark
+{
+    @Param({"rowCount", "metaData.fields[3].name", "rows[500].Name"})
+    public String path;
+
+    private CommandResponse _response;
+
+    @Setup
+    public void setup()
+    {
+        String text = SyntheticResults.responseText(1000, false);
+        _response = new CommandResponse(text, 200, Command.CONTENT_TYPE_JSON, new JSONObject(text));
+    }
+
+    @Benchmark
+    public Object getProperty()
+    {
+        return _response.getProperty(path);
+    }
+}
@@ -0,0 +1,67 @@
+package org.labkey.remoteapi;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.labkey.remoteapi.query.Filter;
+import org.labkey.remoteapi.query.SelectRowsCommand;
+import org.labkey.remoteapi.query.Sort;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes the filters and sorts of a select-rows command, both alone and as part of building the complete request
+ * (URL plus posted JSON). Column names and values include characters that must be escaped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryRequestBenchmark
+{
+    @Param({"1", "10", "100"})
+    public int filterCount;
+
+    private Connection _connection;
+    private SelectRowsCommand _command;
+
+    @Setup
+    public void setup()
+    {
+        _connection = new Connection("https://labkey.example.com/labkey", new GuestCredentialsProvider());
+        _command = new SelectRowsCommand("lists", "Samples");
+        Filter.Operator[] operators = {Filter.Operator.EQUAL, Filter.Operator.CONTAINS, Filter.Operator.IN, Filter.Operator.GT};
+        for (int i = 0; i < filterCount; i++)
+        {
+            _command.addFilter("Column " + i, "value & more " + i + ";x/y?z=%", operators[i % operators.length]);
+            _command.addSort("Column " + i, i % 2 == 0 ? Sort.Direction.ASCENDING : Sort.Direction.DESCENDING);
+        }
+    }
+
+    @Benchmark
+    public int filterParameters()
+    {
+        int length = Sort.getSortQueryStringParam(_command.getSorts()).length();
+        for (Filter filter : _command.getFilters())
+            length += filter.getQueryStringParamName().length() + filter.getQueryStringParamValue().length();
+        return length;
+    }
+
+    @Benchmark
+    public HttpPost request() throws URISyntaxException
+    {
+        return _command.getHttpRequest(_connection, "My Project/Sub Folder");
+    }
+}
@@ -0,0 +1,111 @@
+package org.labkey.remoteapi.collections;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets and puts row values by column name in {@link CaseInsensitiveHashMap} and {@link IndexedRowMap}, using both the
+ * columns' own casing and a different casing. Times are per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMapBenchmark
+{
+    private static final int COLUMNS = 20;
+
+    private final String[] _exactCase = new String[COLUMNS];
+    private final String[] _otherCase = new String[COLUMNS];
+    private CaseInsensitiveHashMap<Object> _hashMap;
+    private IndexedRowMap _indexedMap;
+
+    @Setup
+    public void setup()
+    {
+        for (int i = 0; i < COLUMNS; i++)
+        {
+            _exactCase[i] = "ColumnName" + i;
+            _otherCase[i] = _exactCase[i].toUpperCase(Locale.ROOT);
+        }
+
+        _hashMap = new CaseInsensitiveHashMap<>();
+        _indexedMap = new IndexedRowMap(new ColumnIndex(Arrays.asList(_exactCase)));
+        for (int i = 0; i < COLUMNS; i++)
+        {
+            _hashMap.put(_exactCase[i], i);
+            _indexedMap.put(_exactCase[i], i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLUMNS)
+    public void hashMapGet(Blackhole bh)
+    {
+        get(_hashMap, _exactCase, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLUMNS)
+    public void hashMapGetOtherCase(Blackhole bh)
+    {
+        get(_hashMap, _otherCase, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLUMNS)
+    public void hashMapPut(Blackhole bh)
+    {
+        put(_hashMap, _otherCase, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLUMNS)
+    public void indexedMapGet(Blackhole bh)
+    {
+        get(_indexedMap, _exactCase, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLUMNS)
+    public void indexedMapGetOtherCase(Blackhole bh)
+    {
+        get(_indexedMap, _otherCase, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLUMNS)
+    public void indexedMapPut(Blackhole bh)
+    {
+        put(_indexedMap, _otherCase, bh);
+    }
+
+    private static void get(Map<String, Object> map, String[] keys, Blackhole bh)
+    {
+        for (String key : keys)
+            bh.consume(map.get(key));
+    }
+
+    private static void put(Map<String, Object> map, String[] keys, Blackhole bh)
+    {
+        for (int i = 0; i < keys.length; i++)
+            bh.consume(map.put(keys[i], i));
+    }
+}
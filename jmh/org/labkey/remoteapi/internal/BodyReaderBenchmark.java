@@ -0,0 +1,65 @@
+package org.labkey.remoteapi.internal;
+
+import org.labkey.remoteapi.query.SyntheticResults;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a response body into memory as text, comparing the former Scanner-based conversion with {@link BodyReader},
+ * with and without a Content-Length to size the buffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BodyReaderBenchmark
+{
+    @Param({"10", "10000"})
+    public int rowCount;
+
+    private byte[] _body;
+
+    @Setup
+    public void setup()
+    {
+        _body = SyntheticResults.responseText(rowCount, false).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String scanner()
+    {
+        try (Scanner s = new Scanner(new ByteArrayInputStream(_body), StandardCharsets.UTF_8).useDelimiter("\\A"))
+        {
+            return s.hasNext() ? s.next() : "";
+        }
+    }
+
+    @Benchmark
+    public String readString() throws IOException
+    {
+        return BodyReader.readString(new ByteArrayInputStream(_body), null);
+    }
+
+    @Benchmark
+    public String readStringWithLength() throws IOException
+    {
+        return BodyReader.readString(new ByteArrayInputStream(_body), (long)_body.length);
+    }
+}
@@ -0,0 +1,51 @@
+package org.labkey.remoteapi.query;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a single date string in each of the formats the server sends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateParserBenchmark
+{
+    @Param({"2024/03/15 14:30:05", "2024-03-15 14:30:05.123", "15 Mar 2024 14:30:05", "2024/03/15"})
+    public String value;
+
+    @Benchmark
+    public Date parse() throws ParseException
+    {
+        return DateParser.INSTANCE.parse(value);
+    }
+
+    @Benchmark
+    public Instant parseInstant()
+    {
+        return DateParser.INSTANCE.parseInstant(value);
+    }
+
+    @Benchmark
+    public LocalDateTime parseLocalDateTime()
+    {
+        return DateParser.INSTANCE.parseLocalDateTime(value);
+    }
+}
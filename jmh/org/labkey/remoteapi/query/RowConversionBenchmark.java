@@ -0,0 +1,78 @@
+package org.labkey.remoteapi.query;
+
+import org.labkey.remoteapi.collections.ColumnIndex;
+import org.labkey.remoteapi.collections.IndexedRowMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the two steps {@link RowsResponse} applies to parsed rows: converting date and numeric values (see
+ * {@link RowTypeFixup}) and copying each row into a case-insensitive {@link IndexedRowMap}. Conversion modifies the
+ * rows, so a fresh copy is made before each invocation; that copy isn't measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class RowConversionBenchmark
+{
+    @Param({"1000", "100000", "1000000"})
+    public int rowCount;
+
+    private List<Map<String, Object>> _template;
+    private List<Map<String, Object>> _fields;
+    private RowTypeFixup _fixup;
+    private List<Map<String, Object>> _rows;
+
+    @Setup(Level.Trial)
+    public void setupTrial()
+    {
+        _template = SyntheticResults.parsedRows(rowCount);
+        _fields = SyntheticResults.fields();
+        _fixup = new RowTypeFixup(_fields, 8.3, DateParser.ResultType.DATE);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyRows()
+    {
+        _rows = new ArrayList<>(_template.size());
+        for (Map<String, Object> row : _template)
+            _rows.add(new HashMap<>(row));
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> fixup()
+    {
+        for (Map<String, Object> row : _rows)
+            _fixup.fixup(row);
+        return _rows;
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> caseInsensitize()
+    {
+        List<Map<String, Object>> ciRows = new ArrayList<>(_rows.size());
+        ColumnIndex index = RowsResponse.createColumnIndex(_fields, _rows.get(0));
+        for (Map<String, Object> row : _rows)
+            ciRows.add(new IndexedRowMap(index, row));
+        return ciRows;
+    }
+}
@@ -0,0 +1,54 @@
+package org.labkey.remoteapi.query;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes the rows of a save-rows request: as a single JSONObject via {@link SaveRowsCommand#getJsonObject()}, and
+ * streamed as the request body is actually sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SaveRowsBenchmark
+{
+    @Param({"1000", "100000", "1000000"})
+    public int rowCount;
+
+    private SaveRowsCommand _command;
+
+    @Setup
+    public void setup()
+    {
+        _command = new InsertRowsCommand("lists", "Samples");
+        _command.setRows(SyntheticResults.rowsToSave(rowCount));
+    }
+
+    @Benchmark
+    public String getJsonObject()
+    {
+        return _command.getJsonObject().toString();
+    }
+
+    @Benchmark
+    public void streamRequestBody() throws IOException
+    {
+        new SaveRowsEntity(_command.getEnvelopeJsonObject(), _command.getRowSource(), _command).writeTo(OutputStream.nullOutputStream());
+    }
+}
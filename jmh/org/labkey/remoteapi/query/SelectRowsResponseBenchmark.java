@@ -0,0 +1,89 @@
+package org.labkey.remoteapi.query;
+
+import org.json.JSONObject;
+import org.labkey.remoteapi.Command;
+import org.labkey.remoteapi.CommandResponse;
+import org.labkey.remoteapi.internal.JsonStreamReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates select-rows responses from response text already in memory, so only parsing and row conversion are
+ * measured. Compares the JSONObject path, which every command used before response parsers, with the single-pass
+ * parser that the select commands now use. Run with "-prof gc" to compare allocation as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SelectRowsResponseBenchmark
+{
+    @Param({"1000", "100000", "1000000"})
+    public int rowCount;
+
+    @Param({"false", "true"})
+    public boolean extended;
+
+    private String _text;
+    private SelectRowsCommand _command;
+    private SelectRowsCommand _lazyCommand;
+
+    @Setup
+    public void setup()
+    {
+        _text = SyntheticResults.responseText(rowCount, extended);
+        _command = new SelectRowsCommand("lists", "Samples");
+        _command.setExtendedFormat(extended);
+        _lazyCommand = new SelectRowsCommand("lists", "Samples");
+        _lazyCommand.setExtendedFormat(extended);
+        _lazyCommand.setLazyConversion(true);
+    }
+
+    @Benchmark
+    public Map<String, Object> commandResponse()
+    {
+        return new CommandResponse(_text, 200, Command.CONTENT_TYPE_JSON, new JSONObject(_text)).getParsedData();
+    }
+
+    @Benchmark
+    public SelectRowsResponse jsonObject()
+    {
+        return new SelectRowsResponse(_text, 200, Command.CONTENT_TYPE_JSON, new JSONObject(_text), _command);
+    }
+
+    @Benchmark
+    public SelectRowsResponse responseParser() throws IOException
+    {
+        return parse(_command);
+    }
+
+    @Benchmark
+    public SelectRowsResponse responseParserLazy() throws IOException
+    {
+        return parse(_lazyCommand);
+    }
+
+    private SelectRowsResponse parse(SelectRowsCommand command) throws IOException
+    {
+        try (JsonStreamReader reader = new JsonStreamReader(new StringReader(_text)))
+        {
+            return SelectRowsResponse.createParser(command).parse(_text, 200, Command.CONTENT_TYPE_JSON, reader);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.labkey.remoteapi.query;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic select-rows responses and row lists for the benchmarks. The results have one column of each
+ * type the client converts (int, float, date), plus string and boolean columns, and mimic the server's output: the
+ * meta-data precedes the rows, and the extended (9.1) format wraps each value in a map. A fixed seed keeps runs
+ * comparable.
+ */
+public class SyntheticResults
+{
+    public static final String[] COLUMNS = {"RowId", "Name", "Weight", "Created", "Active", "ParticipantId"};
+    private static final String[] TYPES = {"int", "string", "float", "date", "boolean", "string"};
+
+    private SyntheticResults()
+    {
+    }
+
+    /**
+     * @param rowCount The number of rows.
+     * @param extended Whether to use the extended (9.1) response format.
+     * @return The response body, as the server would send it.
+     */
+    public static String responseText(int rowCount, boolean extended)
+    {
+        Random random = new Random(rowCount);
+        StringBuilder sb = new StringBuilder(rowCount * (extended ? 220 : 120));
+        sb.append("{\"schemaName\":\"lists\",\"queryName\":\"Samples\",\"formatVersion\":").append(extended ? "9.1" : "8.3");
+        sb.append(",\"metaData\":").append(metaData());
+        sb.append(",\"rows\":[");
+        for (int i = 0; i < rowCount; i++)
+        {
+            if (i > 0)
+                sb.append(',');
+            JSONObject row = new JSONObject();
+            Object[] values = rowValues(i, random, true);
+            for (int c = 0; c < COLUMNS.length; c++)
+                row.put(COLUMNS[c], extended ? new JSONObject().put("value", values[c]) : values[c]);
+            sb.append(row);
+        }
+        sb.append("],\"rowCount\":").append(rowCount).append('}');
+        return sb.toString();
+    }
+
+    /**
+     * @return The "metaData" property of a response.
+     */
+    public static JSONObject metaData()
+    {
+        JSONArray fields = new JSONArray();
+        for (int c = 0; c < COLUMNS.length; c++)
+            fields.put(new JSONObject().put("name", COLUMNS[c]).put("type", TYPES[c]));
+        return new JSONObject().put("id", "RowId").put("root", "rows").put("fields", fields);
+    }
+
+    /**
+     * @return The "metaData.fields" list of a response, as parsed.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Map<String, Object>> fields()
+    {
+        return (List<Map<String, Object>>)metaData().toMap().get("fields");
+    }
+
+    /**
+     * Creates rows as they appear before type conversion: dates are strings and numbers are as parsed.
+     * @param rowCount The number of rows.
+     * @return Mutable rows, keyed by the column names.
+     */
+    public static List<Map<String, Object>> parsedRows(int rowCount)
+    {
+        return rows(rowCount, true);
+    }
+
+    /**
+     * Creates rows as a caller would supply them to a save-rows command, with Date values.
+     * @param rowCount The number of rows.
+     * @return Mutable rows, keyed by the column names.
+     */
+    public static List<Map<String, Object>> rowsToSave(int rowCount)
+    {
+        return rows(rowCount, false);
+    }
+
+    private static List<Map<String, Object>> rows(int rowCount, boolean dateStrings)
+    {
+        Random random = new Random(rowCount);
+        List<Map<String, Object>> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++)
+        {
+            Object[] values = rowValues(i, random, dateStrings);
+            Map<String, Object> row = new HashMap<>();
+            for (int c = 0; c < COLUMNS.length; c++)
+                row.put(COLUMNS[c], JSONObject.NULL == values[c] ? null : values[c]);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static Object[] rowValues(int i, Random random, boolean dateStrings)
+    {
+        int day = 1 + random.nextInt(28);
+        int second = random.nextInt(60);
+        Object created = dateStrings
+            ? String.format("2024/03/%02d 14:%02d:%02d", day, i % 60, second)
+            : new Date(1709251200000L + day * 86_400_000L + second * 1000L);
+        return new Object[]{
+            i,
+            "Sample " + i,
+            i % 7 == 0 ? JSONObject.NULL : Math.round(random.nextDouble() * 10_000) / 100.0,
+            created,
+            random.nextBoolean(),
+            "PT-" + (i % 500)
+        };
+    }
+}
@@ -0,0 +1,648 @@
+package org.labkey.remoteapi.test;
+
+import org.apache.hc.client5.http.entity.GzipCompressingEntity;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.impl.bootstrap.HttpServer;
+import org.apache.hc.core5.http.impl.bootstrap.ServerBootstrap;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.labkey.remoteapi.Connection;
+import org.labkey.remoteapi.GuestCredentialsProvider;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-process stand-in for a LabKey Server, for load, latency, and end-to-end tests of the client without a real
+ * server. It runs on an ephemeral port on the loopback interface and answers these actions in any folder:
+ * <ul>
+ *     <li>login-whoami.api and security-ensureLogin.api, which start a session and issue a CSRF token (as cookies)</li>
+ *     <li>query-selectRows.api and query-executeSql.api, which return synthetic rows in the standard or extended
+ *     (9.1) format, honoring "query.offset" and "query.maxRows"</li>
+ *     <li>query-insertRows.api, query-updateRows.api, and query-deleteRows.api, which echo the posted rows</li>
+ *     <li>sql-execute.api, which returns synthetic rows in the compact text format</li>
+ *     <li>assay-importRun.api, which consumes the posted run and returns new run ids</li>
+ *     <li>query-import.api, which counts the data rows in an uncompressed uploaded file (see {@link #getImportedRowCount})</li>
+ * </ul>
+ * Any action's response can be replaced with canned content using {@link #setResponse}. Responses can be delayed
+ * ({@link #setLatency}), made to fail, either at random ({@link #setErrorRate}) or for the next few requests
+ * ({@link #failNextRequests}), and gzip-compressed ({@link #setCompressResponses}). Like the real server, POSTs without
+ * the session's CSRF token are rejected; call {@link #setRequireCsrf(boolean)} to turn this off, or
+ * {@link #rotateSessionOnNextResponse()} to replace the token.
+ * <p>
+ * Synthetic results are generated while they're written, so very large responses don't need to fit in memory.
+ * Settings may be changed while the server is running and are thread-safe. Typical usage:
+ * <pre><code>
+ * try (MockLabKeyServer server = new MockLabKeyServer())
+ * {
+ *     server.setRowCount(100_000);
+ *     server.start();
+ *     Connection cn = server.createConnection();
+ *     SelectRowsResponse response = new SelectRowsCommand("lists", "People").execute(cn, "Home");
+ * }
+ * </code></pre>
+ */
+public class MockLabKeyServer implements Closeable
+{
+    public static final String CSRF_HEADER = Connection.X_LABKEY_CSRF;
+
+    private static final String[] COLUMNS = {"RowId", "Name", "Value", "Created", "Flag"};
+    private static final String[] TYPES = {"int", "string", "float", "date", "boolean"};
+    private static final char UNIT_SEPARATOR = '\u001f';
+    private static final Pattern FORM_FIELD = Pattern.compile("name=\"([^\"]+)\"\\r\\n(?:[^\\r\\n]+\\r\\n)*\\r\\n([^\\r\\n]*)");
+    private static final Pattern FILE_PART = Pattern.compile("filename=\"[^\"]*\"\\r\\n(?:[^\\r\\n]+\\r\\n)*\\r\\n(.*?)\\r\\n--", Pattern.DOTALL);
+
+    private final Map<String, CannedResponse> _cannedResponses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> _actionCounts = new ConcurrentHashMap<>();
+    private final AtomicLong _requestCount = new AtomicLong();
+    private final AtomicInteger _failNext = new AtomicInteger();
+    private final AtomicBoolean _rotateSession = new AtomicBoolean();
+    private final Set<String> _revokedCsrf = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger _nextRunId = new AtomicInteger(1);
+    private final AtomicLong _importedRows = new AtomicLong();
+    private final Random _random = new Random(42);
+
+    private volatile int _rowCount = 100;
+    private volatile int _stringLength = 10;
+    private volatile long _latency = 0;
+    private volatile double _errorRate = 0;
+    private volatile int _errorStatus = HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    private volatile String _retryAfter = null;
+    private volatile boolean _requireCsrf = true;
+    private volatile boolean _compressResponses = false;
+
+    private HttpServer _server;
+
+    /**
+     * Starts listening on an ephemeral port.
+     * @throws IOException Thrown if the server can't be started.
+     */
+    public void start() throws IOException
+    {
+        if (null != _server)
+            throw new IllegalStateException("The server has already been started");
+
+        _server = ServerBootstrap.bootstrap()
+            .setLocalAddress(InetAddress.getLoopbackAddress())
+            .setListenerPort(0)
+            .setCanonicalHostName(InetAddress.getLoopbackAddress().getHostAddress())
+            .setSocketConfig(SocketConfig.custom().setSoTimeout(Timeout.ofMinutes(1)).setTcpNoDelay(true).build())
+            .register("*", this::handle)
+            .create();
+        _server.start();
+    }
+
+    /**
+     * @return The base URL of the server, e.g., "http://127.0.0.1:54321/labkey"
+     */
+    public String getBaseUrl()
+    {
+        if (null == _server)
+            throw new IllegalStateException("The server has not been started");
+        return "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + _server.getLocalPort() + "/labkey";
+    }
+
+    /**
+     * @return A new guest Connection to this server.
+     */
+    public Connection createConnection()
+    {
+        return new Connection(getBaseUrl(), new GuestCredentialsProvider());
+    }
+
+    @Override
+    public void close()
+    {
+        if (null != _server)
+        {
+            // Clients keep idle connections open, which a graceful close would wait on until the timeout
+            _server.close(CloseMode.IMMEDIATE);
+            try
+            {
+                _server.awaitTermination(TimeValue.ofSeconds(5));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            _server = null;
+        }
+    }
+
+    /**
+     * @param rowCount The number of rows in synthetic query results (before offset and maxRows are applied).
+     */
+    public void setRowCount(int rowCount)
+    {
+        _rowCount = rowCount;
+    }
+
+    /**
+     * @param stringLength The length of the string values in synthetic query results, which controls the payload
+     * size along with the row count.
+     */
+    public void setStringLength(int stringLength)
+    {
+        _stringLength = stringLength;
+    }
+
+    /**
+     * @param latency The delay before each response, in milliseconds.
+     */
+    public void setLatency(long latency)
+    {
+        _latency = latency;
+    }
+
+    /**
+     * @param errorRate The fraction of requests (0 to 1), chosen at random, that fail with the error status.
+     */
+    public void setErrorRate(double errorRate)
+    {
+        _errorRate = errorRate;
+    }
+
+    /**
+     * @param errorStatus The HTTP status code of injected errors. Defaults to 500.
+     */
+    public void setErrorStatus(int errorStatus)
+    {
+        _errorStatus = errorStatus;
+    }
+
+    /**
+     * @param retryAfter The Retry-After header value sent with injected errors, or null (the default) for none.
+     */
+    public void setRetryAfter(String retryAfter)
+    {
+        _retryAfter = retryAfter;
+    }
+
+    /**
+     * Makes the next requests fail with the error status, e.g., to exercise retries.
+     * @param count The number of requests to fail.
+     */
+    public void failNextRequests(int count)
+    {
+        _failNext.set(count);
+    }
+
+    /**
+     * @param requireCsrf Whether POSTs must include the CSRF token issued at login. Defaults to true.
+     */
+    public void setRequireCsrf(boolean requireCsrf)
+    {
+        _requireCsrf = requireCsrf;
+    }
+
+    /**
+     * Makes the next successful response start a new session, as the real server does after a login or session
+     * timeout: it sets new session and CSRF cookies, and the CSRF token sent with that request is no longer accepted.
+     */
+    public void rotateSessionOnNextResponse()
+    {
+        _rotateSession.set(true);
+    }
+
+    /**
+     * @param compressResponses Whether responses are gzip-compressed for clients that accept it. Defaults to false.
+     */
+    public void setCompressResponses(boolean compressResponses)
+    {
+        _compressResponses = compressResponses;
+    }
+
+    /**
+     * Replaces the response to an action with canned content.
+     * @param action The controller and action, e.g., "query-getQueries.api".
+     * @param contentType The response content type.
+     * @param body The response body, or null to restore the default response.
+     */
+    public void setResponse(String action, String contentType, String body)
+    {
+        if (null == body)
+            _cannedResponses.remove(action);
+        else
+            _cannedResponses.put(action, new CannedResponse(contentType, body));
+    }
+
+    /**
+     * @return The total number of requests received.
+     */
+    public long getRequestCount()
+    {
+        return _requestCount.get();
+    }
+
+    /**
+     * @param action The controller and action, e.g., "query-selectRows.api".
+     * @return The number of requests received for that action.
+     */
+    public long getRequestCount(String action)
+    {
+        AtomicLong count = _actionCounts.get(action);
+        return null == count ? 0 : count.get();
+    }
+
+    /**
+     * @return The total number of data rows (excluding header rows) received by query-import.api.
+     */
+    public long getImportedRowCount()
+    {
+        return _importedRows.get();
+    }
+
+    private void handle(ClassicHttpRequest request, ClassicHttpResponse response, HttpContext context) throws HttpException, IOException
+    {
+        respond(request, response);
+
+        Header acceptEncoding = request.getFirstHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (_compressResponses && null != response.getEntity() && null != acceptEncoding && acceptEncoding.getValue().contains("gzip"))
+            response.setEntity(new GzipCompressingEntity(response.getEntity()));
+    }
+
+    private void respond(ClassicHttpRequest request, ClassicHttpResponse response) throws HttpException, IOException
+    {
+        String action = getAction(request.getPath());
+        String body = null == request.getEntity() ? "" : EntityUtils.toString(request.getEntity(), StandardCharsets.UTF_8);
+        _requestCount.incrementAndGet();
+        _actionCounts.computeIfAbsent(action, a -> new AtomicLong()).incrementAndGet();
+
+        if (_latency > 0)
+        {
+            try
+            {
+                TimeUnit.MILLISECONDS.sleep(_latency);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (shouldFail())
+        {
+            if (null != _retryAfter)
+                response.setHeader(HttpHeaders.RETRY_AFTER, _retryAfter);
+            sendError(response, _errorStatus, "Injected error");
+            return;
+        }
+
+        if (action.equals("login-whoami.api") || action.equals("security-ensureLogin.api"))
+        {
+            login(response);
+            return;
+        }
+
+        if (_requireCsrf && "POST".equals(request.getMethod()) && !hasValidCsrf(request))
+        {
+            sendError(response, HttpStatus.SC_UNAUTHORIZED, "This request has an invalid security context. You may have signed in or signed out of this session. Try again.");
+            return;
+        }
+
+        if (_rotateSession.compareAndSet(true, false))
+        {
+            String csrf = null == request.getFirstHeader(CSRF_HEADER) ? null : request.getFirstHeader(CSRF_HEADER).getValue();
+            if (null != csrf)
+                _revokedCsrf.add(csrf);
+            setSessionCookies(response, "mock-" + UUID.randomUUID());
+        }
+
+        CannedResponse canned = _cannedResponses.get(action);
+        if (null != canned)
+        {
+            response.setCode(HttpStatus.SC_OK);
+            response.setEntity(new StringEntity(canned.body, ContentType.parse(canned.contentType)));
+            return;
+        }
+
+        switch (action)
+        {
+            case "query-selectRows.api", "query-executeSql.api" -> selectRows(response, new JSONObject(body.isEmpty() ? "{}" : body));
+            case "query-insertRows.api", "query-updateRows.api", "query-deleteRows.api" -> saveRows(response, action, new JSONObject(body));
+            case "sql-execute.api" -> sqlExecute(response);
+            case "assay-importRun.api" -> importRun(response, body);
+            case "query-import.api" -> importData(response, body);
+            default -> sendError(response, HttpStatus.SC_NOT_FOUND, "No LabKeyAction found for '" + action + "'");
+        }
+    }
+
+    // The last path segment: "/labkey/home/query-selectRows.api?x=1" -> "query-selectRows.api"
+    private static String getAction(String path)
+    {
+        int query = path.indexOf('?');
+        if (query >= 0)
+            path = path.substring(0, query);
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private boolean shouldFail()
+    {
+        if (_failNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0)
+            return true;
+        if (_errorRate <= 0)
+            return false;
+        synchronized (_random)
+        {
+            return _random.nextDouble() < _errorRate;
+        }
+    }
+
+    private boolean hasValidCsrf(ClassicHttpRequest request)
+    {
+        // Any token we issued and haven't replaced is accepted; tokens aren't tied to sessions
+        String csrf = null == request.getFirstHeader(CSRF_HEADER) ? null : request.getFirstHeader(CSRF_HEADER).getValue();
+        return null != csrf && csrf.startsWith("mock-") && !_revokedCsrf.contains(csrf);
+    }
+
+    private void login(ClassicHttpResponse response)
+    {
+        String csrf = "mock-" + UUID.randomUUID();
+        setSessionCookies(response, csrf);
+        JSONObject json = new JSONObject()
+            .put("id", 0)
+            .put("displayName", "guest")
+            .put("email", "guest")
+            .put("impersonated", false)
+            .put("CSRF", csrf)
+            .put("success", true);
+        sendJson(response, json);
+    }
+
+    private static void setSessionCookies(ClassicHttpResponse response, String csrf)
+    {
+        response.addHeader(HttpHeaders.SET_COOKIE, CSRF_HEADER + "=" + csrf + "; Path=/");
+        response.addHeader(HttpHeaders.SET_COOKIE, "JSESSIONID=" + UUID.randomUUID() + "; Path=/; HttpOnly");
+    }
+
+    private void selectRows(ClassicHttpResponse response, JSONObject params)
+    {
+        boolean extended = params.optDouble("apiVersion", 0) == 9.1;
+        int offset = Math.max(0, params.optInt("query.offset", 0));
+        int maxRows = params.has("query.maxRows") ? params.optInt("query.maxRows", -1) : -1;
+        int rowCount = Math.max(0, _rowCount - offset);
+        if (maxRows >= 0)
+            rowCount = Math.min(rowCount, maxRows);
+        int first = offset;
+        int count = rowCount;
+        int total = _rowCount;
+        int stringLength = _stringLength;
+
+        response.setCode(HttpStatus.SC_OK);
+        response.setEntity(new WriterEntity(ContentType.APPLICATION_JSON, writer -> {
+            JSONArray fields = new JSONArray();
+            for (int c = 0; c < COLUMNS.length; c++)
+                fields.put(new JSONObject().put("name", COLUMNS[c]).put("type", TYPES[c]).put("jsonType", TYPES[c]));
+            writer.write("{\"schemaName\":\"lists\",\"queryName\":\"Synthetic\",\"formatVersion\":");
+            writer.write(extended ? "9.1" : "8.3");
+            writer.write(",\"metaData\":");
+            writer.write(new JSONObject().put("id", "RowId").put("root", "rows").put("totalProperty", "rowCount").put("fields", fields).toString());
+            writer.write(",\"rows\":[");
+            for (int i = 0; i < count; i++)
+            {
+                if (i > 0)
+                    writer.write(',');
+                writeRow(writer, first + i, stringLength, extended);
+            }
+            writer.write("],\"rowCount\":");
+            writer.write(String.valueOf(total));
+            writer.write('}');
+        }));
+    }
+
+    private static void writeRow(Writer writer, int rowId, int stringLength, boolean extended) throws IOException
+    {
+        Object[] values = rowValues(rowId, stringLength);
+        writer.write('{');
+        for (int c = 0; c < COLUMNS.length; c++)
+        {
+            if (c > 0)
+                writer.write(',');
+            writer.write('"');
+            writer.write(COLUMNS[c]);
+            writer.write("\":");
+            if (extended)
+                writer.write("{\"value\":");
+            writer.write(JSONObject.valueToString(values[c]));
+            if (extended)
+                writer.write('}');
+        }
+        writer.write('}');
+    }
+
+    private static Object[] rowValues(int rowId, int stringLength)
+    {
+        StringBuilder name = new StringBuilder(stringLength).append("Row").append(rowId);
+        while (name.length() < stringLength)
+            name.append((char)('a' + name.length() % 26));
+        name.setLength(stringLength);
+        return new Object[]{
+            rowId,
+            name.toString(),
+            rowId % 10 == 0 ? null : rowId * 0.25,
+            String.format("2024/%02d/%02d %02d:%02d:00", 1 + rowId % 12, 1 + rowId % 28, rowId % 24, rowId % 60),
+            rowId % 2 == 0
+        };
+    }
+
+    private void saveRows(ClassicHttpResponse response, String action, JSONObject params)
+    {
+        JSONArray rows = params.optJSONArray("rows");
+        String command = action.substring("query-".length(), action.indexOf("Rows"));
+        JSONObject json = new JSONObject()
+            .put("schemaName", params.opt("schemaName"))
+            .put("queryName", params.opt("queryName"))
+            .put("command", command)
+            .put("rowsAffected", null == rows ? 0 : rows.length())
+            .put("rows", null == rows ? new JSONArray() : rows);
+        sendJson(response, json);
+    }
+
+    private void sqlExecute(ClassicHttpResponse response)
+    {
+        int count = _rowCount;
+        int stringLength = _stringLength;
+
+        response.setCode(HttpStatus.SC_OK);
+        response.setEntity(new WriterEntity(ContentType.TEXT_PLAIN.withCharset(StandardCharsets.UTF_8), writer -> {
+            writeLine(writer, COLUMNS);
+            writeLine(writer, TYPES);
+            for (int i = 0; i < count; i++)
+            {
+                Object[] values = rowValues(i, stringLength);
+                String[] fields = new String[values.length];
+                for (int c = 0; c < values.length; c++)
+                    fields[c] = null == values[c] ? "\u0000" : String.valueOf(values[c]);
+                writeLine(writer, fields);
+            }
+        }));
+    }
+
+    private static void writeLine(Writer writer, String[] fields) throws IOException
+    {
+        for (int i = 0; i < fields.length; i++)
+        {
+            writer.write(fields[i]);
+            writer.write(UNIT_SEPARATOR);
+            writer.write(i < fields.length - 1 ? '\t' : '\n');
+        }
+    }
+
+    private void importRun(ClassicHttpResponse response, String body)
+    {
+        int assayId = 1;
+        int batchId = 1;
+        Matcher matcher = FORM_FIELD.matcher(body);
+        while (matcher.find())
+        {
+            if ("assayId".equals(matcher.group(1)))
+                assayId = Integer.parseInt(matcher.group(2).trim());
+            else if ("batchId".equals(matcher.group(1)))
+                batchId = Integer.parseInt(matcher.group(2).trim());
+        }
+
+        int runId = _nextRunId.getAndIncrement();
+        JSONObject json = new JSONObject()
+            .put("successurl", "/labkey/home/assay-assayResults.view?rowId=" + assayId + "&Data.Run/RowId~eq=" + runId)
+            .put("assayId", assayId)
+            .put("batchId", batchId)
+            .put("runId", runId)
+            .put("success", true);
+        sendJson(response, json);
+    }
+
+    private void importData(ClassicHttpResponse response, String body)
+    {
+        Matcher matcher = FILE_PART.matcher(body);
+        if (!matcher.find())
+        {
+            sendError(response, HttpStatus.SC_BAD_REQUEST, "No data file was posted");
+            return;
+        }
+
+        // Every line after the header is a row; the data isn't parsed, so quoted line breaks aren't supported
+        long rowCount = Math.max(0, matcher.group(1).lines().count() - 1);
+        _importedRows.addAndGet(rowCount);
+        JSONObject json = new JSONObject()
+            .put("rowCount", rowCount)
+            .put("success", true);
+        sendJson(response, json);
+    }
+
+    private static void sendJson(ClassicHttpResponse response, JSONObject json)
+    {
+        response.setCode(HttpStatus.SC_OK);
+        response.setEntity(new StringEntity(json.toString(), ContentType.APPLICATION_JSON));
+    }
+
+    private static void sendError(ClassicHttpResponse response, int status, String message)
+    {
+        JSONObject json = new JSONObject()
+            .put("exception", message)
+            .put("exceptionClass", "org.labkey.api.action.ApiUsageException")
+            .put("success", false);
+        response.setCode(status);
+        response.setEntity(new StringEntity(json.toString(), ContentType.APPLICATION_JSON));
+    }
+
+    private static class CannedResponse
+    {
+        private final String contentType;
+        private final String body;
+
+        private CannedResponse(String contentType, String body)
+        {
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    @FunctionalInterface
+    private interface BodyWriter
+    {
+        void write(Writer writer) throws IOException;
+    }
+
+    /**
+     * A chunked response body that is generated as it's sent
+     */
+    private static class WriterEntity extends AbstractHttpEntity
+    {
+        private final BodyWriter _bodyWriter;
+
+        private WriterEntity(ContentType contentType, BodyWriter bodyWriter)
+        {
+            super(contentType, null, true);
+            _bodyWriter = bodyWriter;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException
+        {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+            _bodyWriter.write(writer);
+            writer.flush();
+        }
+
+        @Override
+        public InputStream getContent()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isRepeatable()
+        {
+            return true;
+        }
+
+        @Override
+        public long getContentLength()
+        {
+            return -1;
+        }
+
+        @Override
+        public boolean isStreaming()
+        {
+            return false;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -20,6 +20,7 @@
 import org.apache.hc.client5.http.auth.StandardAuthScheme;
 import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
 import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
 import org.apache.hc.client5.http.impl.auth.BasicScheme;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
@@ -43,11 +44,7 @@ public BasicAuthCredentialsProvider(String email, String password)
     @Override
     public void configureClientBuilder(URI baseURI, HttpClientBuilder builder)
     {
-        BasicCredentialsProvider provider = new BasicCredentialsProvider();
-        AuthScope scope = new AuthScope(baseURI.getHost(), baseURI.getPort());
-        Credentials credentials = new UsernamePasswordCredentials(_email, _password.toCharArray());
-        provider.setCredentials(scope, credentials);
-        builder.setDefaultCredentialsProvider(provider);
+        builder.setDefaultCredentialsProvider(createCredentialsProvider(baseURI));
 
         // HttpClient doesn't provide a simple way to dictate connection-based Basic authentication, so jump through
         // some hoops: set a custom AuthSchemeRegistry that returns a customized version of BasicScheme.
@@ -61,6 +58,21 @@ public boolean isConnectionBased()
         });
     }
 
+    @Override
+    public void configureAsyncClientBuilder(URI baseURI, HttpAsyncClientBuilder builder)
+    {
+        builder.setDefaultCredentialsProvider(createCredentialsProvider(baseURI));
+    }
+
+    private BasicCredentialsProvider createCredentialsProvider(URI baseURI)
+    {
+        BasicCredentialsProvider provider = new BasicCredentialsProvider();
+        AuthScope scope = new AuthScope(baseURI.getHost(), baseURI.getPort());
+        Credentials credentials = new UsernamePasswordCredentials(_email, _password.toCharArray());
+        provider.setCredentials(scope, credentials);
+        return provider;
+    }
+
     @Override
     public void configureRequest(URI baseURI, HttpUriRequest request, HttpClientContext httpClientContext)
     {
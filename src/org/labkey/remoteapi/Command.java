@@ -15,16 +15,23 @@
  */
 package org.labkey.remoteapi;
 
+import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hc.client5.http.auth.AuthenticationException;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.ProtocolException;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.net.URIBuilder;
 import org.json.JSONObject;
 import org.json.JSONTokener;
+import org.labkey.remoteapi.internal.BodyReader;
+import org.labkey.remoteapi.internal.JsonErrorSniffer;
+import org.labkey.remoteapi.internal.JsonStreamReader;
 import org.labkey.remoteapi.query.SelectRowsCommand;
 
 import java.io.BufferedReader;
@@ -33,7 +40,9 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
+import java.io.SequenceInputStream;
 import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -42,7 +51,9 @@
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Abstract base class for all API commands. Developers interact with concrete classes that
@@ -60,11 +71,16 @@
  */
 public abstract class Command<ResponseType extends CommandResponse, RequestType extends HttpUriRequest> implements HasRequiredVersion
 {
+    private final static Log LOG = LogFactory.getLog(Command.class);
+
     /**
      * A constant for the official JSON content type ("application/json")
      */
     public final static String CONTENT_TYPE_JSON = "application/json";
 
+    // The start of a 200 JSON response that is read up front to check for an "exception" property
+    private static final int ERROR_CHECK_SIZE = 4096;
+
     /**
      * An enum of common parameter names used in API URLs.
      */
@@ -76,6 +92,7 @@
     private final String _controllerName;
     private final String _actionName;
     private Integer _timeout = null;
+    private RetryPolicy _retryPolicy = null;
     private double _requiredVersion = 8.3;
 
     /**
@@ -151,6 +168,47 @@ public void setTimeout(Integer timeout)
         _timeout = timeout;
     }
 
+    /**
+     * Returns the retry policy for this Command.
+     * @return The retry policy. Null means defer to the Connection's retry policy.
+     */
+    public RetryPolicy getRetryPolicy()
+    {
+        return _retryPolicy;
+    }
+
+    /**
+     * Sets the policy for retrying this Command after transient failures, overriding the Connection's policy (see
+     * {@link Connection#setRetryPolicy(RetryPolicy)}). HttpClient's built-in retries still apply unless the Connection
+     * also has a retry policy.
+     * @param retryPolicy The retry policy, with null meaning defer to the Connection.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy)
+    {
+        _retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Returns true if executing this command more than once has the same effect as executing it once, so a
+     * {@link RetryPolicy} may safely retry it. Commands that only read data override this to return true. Defaults
+     * to {@link #isCacheable()}.
+     * @return true if the command is idempotent
+     */
+    protected boolean isIdempotent()
+    {
+        return isCacheable();
+    }
+
+    /**
+     * Returns false if this command's request body could only be sent once (e.g., it's read from a stream) and has
+     * been, so the request can't be created again to retry it. Defaults to true.
+     * @return true if the command can create its request again
+     */
+    protected boolean isResendable()
+    {
+        return true;
+    }
+
     /**
      * Executes the command in the given folder on the specified connection, and returns
      * information about the response.
@@ -167,7 +225,10 @@ public void setTimeout(Integer timeout)
      * <p>
      * Note that the command is executed synchronously, so the calling code will block until the
      * entire response has been read from the server. To execute a command asynchronously, use
-     * a separate thread.
+     * {@link #executeAsync(Connection, String)}.
+     * <p>
+     * If the connection has a {@link ResponseCache} and this command is {@link #isCacheable() cacheable},
+     * the response may be served from the cache.
      * <p>
      * If the server returns an error HTTP status code (&gt;= 400), this method will throw
      * an instance of {@link CommandException}. Use its methods to determine the cause
@@ -181,55 +242,352 @@ public void setTimeout(Integer timeout)
      */
     public ResponseType execute(Connection connection, String folderPath) throws IOException, CommandException
     {
+        ResponseCache cache = connection.getResponseCache();
+        if (null != cache && isCacheable())
+            return executeCached(connection, folderPath, cache);
+
         // Execute the command. Throws CommandException for error responses.
         try (Response response = _execute(connection, folderPath))
         {
-            // For non-streaming Commands, read the entire response body into memory as JSON or a String.
-            // The json and responseText will already be parsed when checking for an exception message on small 200 responses.
-            JSONObject json = response._json;
-            String responseText = response._responseText;
-            String contentType = response.getContentType();
+            return readResponse(response);
+        }
+    }
+
+    /**
+     * Returns true if responses to this command may be served from the connection's {@link ResponseCache}. Commands
+     * that retrieve metadata that rarely changes override this to return true. Defaults to false.
+     * @return true if the command's responses may be cached
+     */
+    protected boolean isCacheable()
+    {
+        return false;
+    }
 
-            if (json == null)
+    private ResponseType executeCached(Connection connection, String folderPath, ResponseCache cache) throws IOException, CommandException
+    {
+        assert null != getControllerName() : "You must set the controller name before executing the command!";
+        assert null != getActionName() : "You must set the action name before executing the command!";
+
+        try
+        {
+            final HttpUriRequest request = getHttpRequest(connection, folderPath);
+            String key = getCacheKey(connection, request);
+            ResponseCache.Entry entry = cache.get(key);
+
+            if (null != entry && entry.isFresh())
+            {
+                cache.recordHit();
+                return createResponse(entry);
+            }
+
+            // Ask the server to confirm that a stale entry is still current
+            setConditionalHeaders(request, entry);
+            RequestFactory requestFactory = () -> setConditionalHeaders(getHttpRequest(connection, folderPath), entry);
+
+            try (Response response = executeWithRetry(connection, request, requestFactory))
             {
-                if (null != contentType && contentType.contains(Command.CONTENT_TYPE_JSON))
+                if (null != entry && response.getStatusCode() == HttpStatus.SC_NOT_MODIFIED)
                 {
-                    // Read entire response body and parse into JSON object
-                    try (Reader reader = response.getReader())
-                    {
-                        json = new JSONObject(new JSONTokener(reader));
-                    }
+                    cache.recordRevalidation(entry);
+                    return createResponse(entry);
+                }
+
+                cache.recordMiss();
+
+                // Read the text (rather than parsing straight from the stream) so it can be cached
+                String responseText = response.getText();
+                String contentType = response.getContentType();
+                response.checkError();
+
+                String cacheControl = response.getHeaderValue(HttpHeaders.CACHE_CONTROL);
+                if (response.getStatusCode() == HttpStatus.SC_OK && (null == cacheControl || !cacheControl.contains("no-store")))
+                {
+                    cache.put(key, responseText, response.getStatusCode(), contentType,
+                        response.getHeaderValue(HttpHeaders.ETAG), response.getHeaderValue(HttpHeaders.LAST_MODIFIED));
+                }
+
+                return createResponseFromText(responseText, response.getStatusCode(), contentType, response._json);
+            }
+        }
+        catch (URISyntaxException | AuthenticationException e)
+        {
+            throw new CommandException(e.getMessage());
+        }
+    }
+
+    private static HttpUriRequest setConditionalHeaders(HttpUriRequest request, ResponseCache.Entry entry)
+    {
+        if (null != entry)
+        {
+            if (null != entry.getEtag())
+                request.setHeader(HttpHeaders.IF_NONE_MATCH, entry.getEtag());
+            if (null != entry.getLastModified())
+                request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.getLastModified());
+        }
+        return request;
+    }
+
+    // The connection's identity (credentials and impersonated user) and the full request URI, plus the request body
+    // (e.g., posted JSON) if there is one
+    private static String getCacheKey(Connection connection, HttpUriRequest request) throws URISyntaxException, IOException
+    {
+        String key = connection.getCacheIdentity() + "\n" + request.getUri();
+        HttpEntity entity = request.getEntity();
+        if (null != entity && entity.isRepeatable())
+            key += "\n" + new String(EntityUtils.toByteArray(entity), StandardCharsets.UTF_8);
+        return key;
+    }
+
+    private ResponseType createResponse(ResponseCache.Entry entry) throws IOException
+    {
+        return createResponseFromText(entry.getText(), entry.getStatusCode(), entry.getContentType(), null);
+    }
+
+    /**
+     * Creates the response object from response text that has already been read, parsing it first if it's JSON.
+     */
+    private ResponseType createResponseFromText(String text, int status, String contentType, JSONObject json) throws IOException
+    {
+        if (null != contentType && contentType.contains(CONTENT_TYPE_JSON))
+        {
+            ResponseParser<ResponseType> parser = getResponseParser();
+            if (null != parser)
+            {
+                try (JsonStreamReader reader = new JsonStreamReader(new StringReader(text)))
+                {
+                    return parser.parse(text, status, contentType, reader);
+                }
+            }
+            if (null == json)
+                json = new JSONObject(text);
+        }
+        return createResponse(text, status, contentType, json);
+    }
+
+    /**
+     * Executes the command asynchronously on the Connection's non-blocking HTTP client (see
+     * {@link Connection#getAsyncHttpClient()}) and returns a future that completes with the response. The request is
+     * built with the same {@link #createRequest(URI)} hook as {@link #execute(Connection, String)} and the response
+     * with the same {@link #createResponse(String, int, String, JSONObject)} hook, so any command can be executed
+     * this way. Many asynchronous commands may be in flight at once without a thread per request, which suits
+     * fanning out large numbers of small requests.
+     * <p>
+     * The request and response bodies are buffered in memory, so use {@link #execute(Connection, String)} or a
+     * streaming API for very large requests or responses. The first request on a Connection initializes it on the
+     * calling thread. The returned future completes on one of the client's I/O threads, so use the future's
+     * <code>*Async</code> methods for any long-running processing of the response. Failures complete the future
+     * exceptionally with a {@link CommandException} or IOException.
+     * <p>
+     * As with {@link #execute(Connection, String)}, don't modify or reuse this command until the future completes.
+     * @param connection The connection on which this command should be executed.
+     * @param folderPath The folder path in which to execute the command (e.g. "My Project/My Folder/My sub-folder").
+     * @return A future that completes with the response.
+     */
+    public CompletableFuture<ResponseType> executeAsync(Connection connection, String folderPath)
+    {
+        assert null != getControllerName() : "You must set the controller name before executing the command!";
+        assert null != getActionName() : "You must set the action name before executing the command!";
+
+        CompletableFuture<ResponseType> result = new CompletableFuture<>();
+        try
+        {
+            //construct and initialize the HttpUriRequest
+            final HttpUriRequest request = getHttpRequest(connection, folderPath);
+            executeRequestAsync(connection, request, () -> getHttpRequest(connection, folderPath), 1, false, result);
+        }
+        catch (URISyntaxException | AuthenticationException e)
+        {
+            result.completeExceptionally(new CommandException(e.getMessage()));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    private void executeRequestAsync(Connection connection, HttpUriRequest request, RequestFactory requestFactory, int attempt,
+                                     boolean authRetried, CompletableFuture<ResponseType> result) throws IOException, AuthenticationException
+    {
+        if (LOG.isInfoEnabled())
+            LOG.info("Requesting URL: " + request.getRequestUri());
+
+        CommandEvent event = CommandEvent.create(connection, this, request, attempt, true);
+        CompletableFuture<CloseableHttpResponse> httpFuture;
+        try
+        {
+            httpFuture = executeInstrumented(request, event, () -> connection.executeRequestAsync(request, getTimeout(), event));
+        }
+        catch (IOException | AuthenticationException | RuntimeException e)
+        {
+            if (null != event)
+                event.failed(e);
+            throw e;
+        }
+
+        httpFuture.whenComplete((httpResponse, failure) -> {
+            if (null != failure)
+            {
+                if (null != event)
+                    event.failed(failure instanceof Exception e ? e : new RuntimeException(failure));
+                long delay = failure instanceof IOException e ? getRetryDelay(connection, attempt, e) : -1;
+                if (delay >= 0)
+                    retryAsync(connection, request, requestFactory, attempt, authRetried, delay, (IOException)failure, null, result);
+                else
+                    result.completeExceptionally(failure);
+                return;
+            }
+
+            // Close the response (completing the event) before completing the future
+            ResponseType commandResponse;
+            try (Response response = toResponse(httpResponse, event))
+            {
+                commandResponse = readResponse(response);
+            }
+            catch (CommandException e)
+            {
+                if (null != event)
+                    event.failed(e);
+                if (!authRetried && connection.getCredentialsProvider().shouldRetryRequest(e, request))
+                {
+                    retryAsync(connection, request, requestFactory, attempt, true, 0, e, e, result);
                 }
                 else
                 {
-                    // Otherwise, read entire response body as text.
-                    responseText = response.getText();
+                    long delay = getRetryDelay(connection, attempt, e);
+                    if (delay >= 0)
+                        retryAsync(connection, request, requestFactory, attempt, authRetried, delay, e, null, result);
+                    else
+                        result.completeExceptionally(e);
                 }
+                return;
             }
+            catch (IOException | RuntimeException e)
+            {
+                if (null != event)
+                    event.failed(e);
+                result.completeExceptionally(e);
+                return;
+            }
+            result.complete(commandResponse);
+        });
+
+        // Propagate cancellation by the caller to the request
+        result.whenComplete((response, t) -> {
+            if (result.isCancelled())
+                httpFuture.cancel(false);
+        });
+    }
 
-            return createResponse(responseText, response.getStatusCode(), contentType, json);
+    /**
+     * Sends the next attempt after the delay, re-creating the request first if the request body can't be replayed.
+     * If the request can't be sent again, the future completes with the failure instead. authFailure is the failure
+     * when the CredentialsProvider has asked for the retry.
+     */
+    private void retryAsync(Connection connection, HttpUriRequest request, RequestFactory requestFactory, int attempt, boolean authRetried,
+                            long delay, Exception failure, CommandException authFailure, CompletableFuture<ResponseType> result)
+    {
+        Executor executor = delay > 0 ? CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS) : Runnable::run;
+        executor.execute(() -> {
+            // The caller may have cancelled while we waited
+            if (result.isDone())
+                return;
+
+            try
+            {
+                HttpUriRequest nextRequest = prepareRetry(connection, request, requestFactory, authFailure);
+                if (null == nextRequest)
+                {
+                    result.completeExceptionally(failure);
+                    return;
+                }
+                executeRequestAsync(connection, nextRequest, requestFactory, attempt + 1, authRetried, result);
+            }
+            catch (URISyntaxException | AuthenticationException e)
+            {
+                result.completeExceptionally(new CommandException(e.getMessage()));
+            }
+            catch (IOException | RuntimeException e)
+            {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Reads the entire response body (as JSON or text) and creates the response object.
+     */
+    private ResponseType readResponse(Response response) throws IOException, CommandException
+    {
+        // For non-streaming Commands, read the entire response body into memory as JSON or a String.
+        // The json and responseText will already be parsed when checking for an exception message on small 200 responses.
+        JSONObject json = response._json;
+        String responseText = response._responseText;
+        String contentType = response.getContentType();
+
+        ResponseParser<ResponseType> parser = getResponseParser();
+        if (null != parser && null != contentType && contentType.contains(Command.CONTENT_TYPE_JSON))
+        {
+            // Build the response straight from the JSON tokens, re-reading the stashed text if there is one
+            ResponseType parsed;
+            try (JsonStreamReader reader = new JsonStreamReader(response.getReader()))
+            {
+                parsed = parser.parse(responseText, response.getStatusCode(), contentType, reader);
+            }
+            response.checkError();
+            return parsed;
+        }
+
+        if (json == null)
+        {
+            if (null != contentType && contentType.contains(Command.CONTENT_TYPE_JSON))
+            {
+                // Read entire response body and parse into JSON object
+                try (Reader reader = response.getReader())
+                {
+                    json = new JSONObject(new JSONTokener(reader));
+                }
+                response.checkError();
+            }
+            else
+            {
+                // Otherwise, read entire response body as text.
+                responseText = response.getText();
+            }
         }
+
+        return createResponse(responseText, response.getStatusCode(), contentType, json);
     }
 
     /**
      * Response class allows clients to get an InputStream, consume lazily, and close the connection when complete.
+     * Streaming APIs (e.g., {@link SelectRowsCommand#stream(Connection, String)}) hold on to an instance of this class
+     * until the caller has finished reading.
      */
-    protected static class Response implements Closeable
+    public static class Response implements Closeable
     {
         private final CloseableHttpResponse _httpResponse;
         private final String _contentType;
         private final Long _contentLength;
+        private final CommandEvent _event;
 
         // The json and responseText will already be parsed when checking for an exception message on small 200 responses.
         // The parsed json should not be available to the client library user since exposing the fields would make streaming responses impossible.
         private String _responseText;
         private JSONObject _json;
 
-        private Response(CloseableHttpResponse httpResponse, String contentType, Long contentLength)
+        // For larger 200 JSON responses: the body, with the start that was checked for an exception put back, and
+        // the sniffer that watches the rest for an exception
+        private InputStream _content;
+        private JsonErrorSniffer _sniffer;
+
+        private Response(CloseableHttpResponse httpResponse, String contentType, Long contentLength, CommandEvent event)
         {
             _httpResponse = httpResponse;
             _contentType = contentType;
             _contentLength = contentLength;
+            _event = event;
         }
 
         public String getStatusText()
@@ -260,7 +618,17 @@ public InputStream getInputStream() throws IOException
                 // to the stream
                 return new ByteArrayInputStream(_responseText.getBytes(StandardCharsets.UTF_8));
             }
-            return _httpResponse.getEntity().getContent();
+            return getContent();
+        }
+
+        // The response body, counted for the CommandListeners if there are any
+        private InputStream getContent() throws IOException
+        {
+            if (null != _content)
+                return _content;
+
+            InputStream in = _httpResponse.getEntity().getContent();
+            return null == _event ? in : _event.countResponseBytes(in);
         }
 
         public Reader getReader() throws IOException
@@ -274,18 +642,48 @@ public Reader getReader() throws IOException
             return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
         }
 
+        /**
+         * Reads the entire response body as a String.
+         * @return The response text
+         */
         public String getText() throws IOException
         {
             if (_responseText != null)
                 return _responseText;
 
-            try (Scanner s = new Scanner(_httpResponse.getEntity().getContent(), StandardCharsets.UTF_8).useDelimiter("\\A"))
+            try (InputStream in = getContent())
             {
-                // Simple InputStream -> String conversion
-                return s.hasNext() ? s.next() : "";
+                return BodyReader.readString(in, _contentLength);
             }
         }
 
+        /**
+         * Throws if the server reported an error with an "exception" property in a JSON response that was sent with a
+         * 200 status. An exception property near the start of the response is detected before the response is
+         * returned; callers that stream a large response call this after reading it, to catch an exception reported
+         * further on (e.g., after the server had started sending rows). Reading stops being checked once the end of
+         * the top-level JSON object has been read, so this reflects everything read up to that point.
+         * @throws CommandException if the response contained an "exception" property
+         */
+        public void checkError() throws CommandException
+        {
+            if (null == _sniffer || !_sniffer.isExceptionFound())
+                return;
+
+            String message = null != _sniffer.getException() ? _sniffer.getException() : getStatusText();
+            JSONObject json = new JSONObject();
+            json.put("exception", message);
+            if (null != _sniffer.getExceptionClass())
+                json.put("exceptionClass", _sniffer.getExceptionClass());
+
+            CommandException e = "org.labkey.api.action.ApiVersionException".equals(_sniffer.getExceptionClass())
+                ? new ApiVersionException(message, getStatusCode(), json, null, _contentType, null)
+                : new CommandException(message, getStatusCode(), json, null, _contentType, null);
+            if (null != _event)
+                _event.failed(e);
+            throw e;
+        }
+
         public String getHeaderValue(String name)
         {
             Header header = null;
@@ -304,6 +702,8 @@ public String getHeaderValue(String name)
         public void close() throws IOException
         {
             _httpResponse.close();
+            if (null != _event)
+                _event.completed();
         }
     }
 
@@ -316,31 +716,168 @@ protected Response _execute(Connection connection, String folderPath) throws Com
         {
             //construct and initialize the HttpUriRequest
             final HttpUriRequest request = getHttpRequest(connection, folderPath);
+            return executeWithRetry(connection, request, () -> getHttpRequest(connection, folderPath));
+        }
+        catch (URISyntaxException | AuthenticationException e)
+        {
+            throw new CommandException(e.getMessage());
+        }
+    }
+
+    // Creates a new request for the command, for retries whose request body can't be replayed
+    private interface RequestFactory
+    {
+        HttpUriRequest create() throws URISyntaxException;
+    }
+
+    /**
+     * Executes the request, retrying it once if the CredentialsProvider asks to (e.g., to answer an authentication
+     * challenge) and as the retry policy allows after transient failures.
+     */
+    private Response executeWithRetry(Connection connection, HttpUriRequest request, RequestFactory requestFactory) throws AuthenticationException, IOException, CommandException, URISyntaxException
+    {
+        boolean authRetried = false;
+        for (int attempt = 1; ; attempt++)
+        {
             try
             {
-                return executeRequest(connection, request);
+                return executeRequest(connection, request, attempt);
             }
             catch (CommandException e)
             {
-                if (connection.getCredentialsProvider().shouldRetryRequest(e, request))
-                    return executeRequest(connection, request);
-                else
+                if (!authRetried && connection.getCredentialsProvider().shouldRetryRequest(e, request))
+                {
+                    // The CredentialsProvider has updated this request, so send it again
+                    authRetried = true;
+                    request = prepareRetry(connection, request, requestFactory, e);
+                    if (null == request)
+                        throw e;
+                    continue;
+                }
+                if (!canRetry(request) || !awaitRetry(connection, attempt, e))
                     throw e;
+                request = prepareRetry(connection, request, requestFactory, null);
+            }
+            catch (IOException e)
+            {
+                if (!canRetry(request) || !awaitRetry(connection, attempt, e))
+                    throw e;
+                request = prepareRetry(connection, request, requestFactory, null);
             }
         }
-        catch (URISyntaxException | AuthenticationException e)
+    }
+
+    /**
+     * Returns the delay before retrying after a failed attempt, in milliseconds, or -1 if the command's (or the
+     * connection's) retry policy says not to retry.
+     */
+    private long getRetryDelay(Connection connection, int attempt, Exception failure)
+    {
+        RetryPolicy retryPolicy = null != _retryPolicy ? _retryPolicy : connection.getRetryPolicy();
+        if (null == retryPolicy)
+            return -1;
+
+        long delay = retryPolicy.getRetryDelay(attempt, failure, isIdempotent());
+        if (delay >= 0)
+            LOG.warn("Attempt " + attempt + " of " + getControllerName() + "-" + getActionName() + " failed (" + failure.getMessage() + "); retrying in " + delay + "ms");
+        return delay;
+    }
+
+    // Waits before the next attempt, returning false if there shouldn't be one
+    private boolean awaitRetry(Connection connection, int attempt, Exception failure) throws InterruptedIOException
+    {
+        long delay = getRetryDelay(connection, attempt, failure);
+        if (delay < 0)
+            return false;
+
+        try
         {
-            throw new CommandException(e.getMessage());
+            Thread.sleep(delay);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry " + getControllerName() + "-" + getActionName());
+        }
+        return true;
+    }
+
+    // False if the request body was streamed and the command can't create it again
+    private boolean canRetry(HttpUriRequest request)
+    {
+        HttpEntity entity = request.getEntity();
+        return null == entity || entity.isRepeatable() || isResendable();
+    }
+
+    /**
+     * Returns the request for the next attempt: the same request if its body can be replayed, a new one if the command
+     * can create it again, or else null. If the CredentialsProvider asked for the retry (authFailure isn't null), it
+     * has updated the failed request and is asked to update a new one the same way.
+     */
+    private HttpUriRequest prepareRetry(Connection connection, HttpUriRequest request, RequestFactory requestFactory,
+                                        CommandException authFailure) throws URISyntaxException
+    {
+        HttpEntity entity = request.getEntity();
+        if (null == entity || entity.isRepeatable())
+            return request;
+        if (!isResendable())
+            return null;
+
+        HttpUriRequest nextRequest = requestFactory.create();
+        if (null != authFailure)
+            connection.getCredentialsProvider().shouldRetryRequest(authFailure, nextRequest);
+        return nextRequest;
+    }
+
+    private Response executeRequest(Connection connection, HttpUriRequest request, int attempt) throws AuthenticationException, IOException, CommandException
+    {
+        if (LOG.isInfoEnabled())
+            LOG.info("Requesting URL: " + request.getRequestUri());
+
+        CommandEvent event = CommandEvent.create(connection, this, request, attempt, false);
+        try
+        {
+            //execute the request
+            CloseableHttpResponse httpResponse = executeInstrumented(request, event, () -> connection.executeRequest(request, getTimeout(), event));
+
+            return toResponse(httpResponse, event);
+        }
+        catch (AuthenticationException | IOException | CommandException | RuntimeException e)
+        {
+            if (null != event)
+                event.failed(e);
+            throw e;
         }
     }
 
-    private Response executeRequest(Connection connection, HttpUriRequest request) throws AuthenticationException, IOException, CommandException
+    private interface RequestExecutor<T>
     {
-        LogFactory.getLog(Command.class).info("Requesting URL: " + request.getRequestUri());
+        T execute() throws IOException, AuthenticationException;
+    }
+
+    /**
+     * Runs the executor with the request's body, if its length isn't known in advance, wrapped to count the bytes sent.
+     * The original body is restored afterward so a retry wraps it afresh.
+     */
+    private static <T> T executeInstrumented(HttpUriRequest request, CommandEvent event, RequestExecutor<T> executor) throws IOException, AuthenticationException
+    {
+        HttpEntity entity = request.getEntity();
+        if (null == event || null == entity || entity.getContentLength() >= 0)
+            return executor.execute();
 
-        //execute the request
-        CloseableHttpResponse httpResponse = connection.executeRequest(request, getTimeout());
+        request.setEntity(event.countRequestBytes(entity));
+        try
+        {
+            return executor.execute();
+        }
+        finally
+        {
+            request.setEntity(entity);
+        }
+    }
 
+    private Response toResponse(CloseableHttpResponse httpResponse, CommandEvent event) throws IOException, CommandException
+    {
         //get the content-type header
         Header contentTypeHeader = httpResponse.getFirstHeader("Content-Type");
         String contentType = (null == contentTypeHeader ? null : contentTypeHeader.getValue());
@@ -348,7 +885,7 @@ private Response executeRequest(Connection connection, HttpUriRequest request) t
         Header contentLengthHeader = httpResponse.getFirstHeader("Content-Length");
         Long contentLength = (null == contentLengthHeader ? null : Long.parseLong(contentLengthHeader.getValue()));
 
-        Response response = new Response(httpResponse, contentType, contentLength);
+        Response response = new Response(httpResponse, contentType, contentLength, event);
         checkThrowError(response);
 
         return response;
@@ -366,22 +903,46 @@ private void checkThrowError(Response response) throws IOException, CommandExcep
             throwError(response, true);
         }
 
-        // Check for a 200 status but with an exception in the json response body.
-        // To support streaming large responses, only check for an exception if the response size is less than 4K
+        // Check for a 200 status but with an exception in the json response body
         if (status == 200 &&
-                response.getContentType() != null && response.getContentType().contains(CONTENT_TYPE_JSON) &&
-                response.getContentLength() != null && response.getContentLength() < 4096)
+                response.getContentType() != null && response.getContentType().contains(CONTENT_TYPE_JSON))
         {
-            throwError(response, false);
+            sniffError(response);
         }
     }
 
+    /**
+     * Checks a 200 JSON response for an "exception" property without buffering more than the start of it. The first
+     * 4K of the body is read and scanned: if that's the whole body, it's kept for reading the response. If the start
+     * of the body has a top-level "exception" property, the body is read and thrown as an error. Otherwise, the start
+     * is put back and the rest of the body is watched as the caller reads it (see {@link Response#checkError()}).
+     */
+    private void sniffError(Response response) throws IOException, CommandException
+    {
+        JsonErrorSniffer sniffer = new JsonErrorSniffer(response.getContent());
+        byte[] start = sniffer.readNBytes(ERROR_CHECK_SIZE);
+        if (start.length < ERROR_CHECK_SIZE)
+        {
+            // Keep the whole body for reading the response
+            response._responseText = new String(start, StandardCharsets.UTF_8);
+            if (sniffer.isExceptionFound())
+                throwError(response, false);
+            return;
+        }
+
+        response._content = new SequenceInputStream(new ByteArrayInputStream(start), sniffer);
+        response._sniffer = sniffer;
+        if (sniffer.isExceptionFound())
+            throwError(response, false);
+    }
+
     private void throwError(Response r, boolean throwByDefault) throws IOException, CommandException
     {
         //use the status text as the message by default
         String message = null != r.getStatusText() ? r.getStatusText() : "(no status text)";
 
         String authHeaderValue = r.getHeaderValue(HttpHeaders.WWW_AUTHENTICATE);
+        String retryAfter = r.getHeaderValue(HttpHeaders.RETRY_AFTER);
 
         // This buffers the entire response in memory, which seems OK for API error responses.
         String responseText = r.getText();
@@ -400,16 +961,21 @@ private void throwError(Response r, boolean throwByDefault) throws IOException,
                 {
                     message = json.getString("exception");
 
-                    if ("org.labkey.api.action.ApiVersionException".equals(json.opt("exceptionClass")))
-                        throw new ApiVersionException(message, r.getStatusCode(), json, responseText, contentType, authHeaderValue);
-
-                    throw new CommandException(message, r.getStatusCode(), json, responseText, contentType, authHeaderValue);
+                    CommandException e = "org.labkey.api.action.ApiVersionException".equals(json.opt("exceptionClass"))
+                        ? new ApiVersionException(message, r.getStatusCode(), json, responseText, contentType, authHeaderValue)
+                        : new CommandException(message, r.getStatusCode(), json, responseText, contentType, authHeaderValue);
+                    e.setRetryAfter(retryAfter);
+                    throw e;
                 }
             }
         }
 
         if (throwByDefault)
-            throw new CommandException(message, r.getStatusCode(), json, responseText, contentType, authHeaderValue);
+        {
+            CommandException e = new CommandException(message, r.getStatusCode(), json, responseText, contentType, authHeaderValue);
+            e.setRetryAfter(retryAfter);
+            throw e;
+        }
 
         // If we didn't encounter an exception property on the json object, save the fully consumed text and parsed json on the Response object
         r._json = json;
@@ -433,6 +999,20 @@ protected ResponseType createResponse(String text, int status, String contentTyp
         return (ResponseType)new CommandResponse(text, status, contentType, json);
     }
 
+    /**
+     * Returns a parser that builds the response object directly from the JSON response body, skipping the
+     * intermediate JSONObject. When this returns a parser, it is used instead of
+     * {@link #createResponse(String, int, String, JSONObject)} for JSON responses. Commands that return large
+     * responses override this; the default returns null. A subclass that overrides
+     * {@link #createResponse(String, int, String, JSONObject)} of a command that supplies a parser should also
+     * override this method to return null.
+     * @return The response parser, or null to use {@link #createResponse(String, int, String, JSONObject)}.
+     */
+    protected ResponseParser<ResponseType> getResponseParser()
+    {
+        return null;
+    }
+
     /**
      * Returns the appropriate, initialized HttpUriRequest implementation.
      * Extended classes may override this to change the way the HTTP method is initialized
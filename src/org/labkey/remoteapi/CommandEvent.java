@@ -0,0 +1,361 @@
+package org.labkey.remoteapi;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Describes one attempt to execute a command, as reported to {@link CommandListener}s. The event is filled in as the
+ * attempt progresses: the status code, time to first byte, and connection wait time are set when the response headers
+ * arrive; the latency and response byte count are final once the response is complete.
+ * <p>
+ * All times are in nanoseconds; a time or byte count that isn't known (yet) is -1. Response byte counts are available
+ * both as decoded (the body the command reads) and as received over the network, which differ when the server
+ * compressed the response (see {@link Connection#setAcceptEncodings(String...)}).
+ */
+public class CommandEvent
+{
+    private final static Log LOG = LogFactory.getLog(CommandEvent.class);
+
+    private final List<CommandListener> _listeners;
+    private final String _controllerName;
+    private final String _actionName;
+    private final HttpUriRequest _request;
+    private final int _attempt;
+    private final boolean _async;
+    private final AtomicBoolean _finished = new AtomicBoolean();
+
+    private volatile long _startTime;
+    private volatile long _connectionWaitTime = -1;
+    private volatile long _timeToFirstByte = -1;
+    private volatile long _latency = -1;
+    private volatile int _statusCode = 0;
+    private volatile long _requestBytes;
+    private volatile long _responseBytes = 0;
+    private volatile long _responseWireBytes = -1;
+    private volatile String _contentEncoding;
+
+    private CommandEvent(List<CommandListener> listeners, Command<?, ?> command, HttpUriRequest request, int attempt, boolean async)
+    {
+        _listeners = listeners;
+        _controllerName = command.getControllerName();
+        _actionName = command.getActionName();
+        _request = request;
+        _attempt = attempt;
+        _async = async;
+
+        // Streamed request bodies are counted as they're written (see countRequestBytes())
+        HttpEntity entity = request.getEntity();
+        _requestBytes = null == entity ? 0 : Math.max(entity.getContentLength(), 0);
+    }
+
+    /**
+     * Creates the event for an attempt, or returns null if there are no listeners to notify.
+     */
+    static CommandEvent create(Connection connection, Command<?, ?> command, HttpUriRequest request, int attempt, boolean async)
+    {
+        List<CommandListener> listeners = connection.getCommandListeners();
+        return listeners.isEmpty() ? null : new CommandEvent(listeners, command, request, attempt, async);
+    }
+
+    public String getControllerName()
+    {
+        return _controllerName;
+    }
+
+    public String getActionName()
+    {
+        return _actionName;
+    }
+
+    /**
+     * @return The key used to group metrics for this command: the controller and action names, joined with a hyphen
+     * (e.g., "query-selectRows").
+     */
+    public String getKey()
+    {
+        return _controllerName + "-" + _actionName;
+    }
+
+    /**
+     * @return The request being sent. Listeners should not modify it.
+     */
+    public HttpUriRequest getRequest()
+    {
+        return _request;
+    }
+
+    /**
+     * @return 1 for the first attempt at a request, 2 for a retry, and so on.
+     */
+    public int getAttempt()
+    {
+        return _attempt;
+    }
+
+    /**
+     * @return true if the command was executed with {@link Command#executeAsync(Connection, String)}.
+     */
+    public boolean isAsync()
+    {
+        return _async;
+    }
+
+    /**
+     * @return The HTTP status code of the response, or 0 if no response has been received.
+     */
+    public int getStatusCode()
+    {
+        return _statusCode;
+    }
+
+    /**
+     * @return The time spent leasing a connection from the pool, including establishing a new connection if one was
+     * needed. This is only known for synchronous requests.
+     */
+    public long getConnectionWaitTime()
+    {
+        return _connectionWaitTime;
+    }
+
+    /**
+     * @return The time from sending the request to receiving the response headers. For asynchronous requests the
+     * response body is buffered before the response is handed back, so this is the time to receive the full response.
+     */
+    public long getTimeToFirstByte()
+    {
+        return _timeToFirstByte;
+    }
+
+    /**
+     * @return The time from sending the request until the response was closed, after its body was consumed.
+     */
+    public long getLatency()
+    {
+        return _latency;
+    }
+
+    /**
+     * @return The number of request body bytes sent.
+     */
+    public long getRequestBytes()
+    {
+        return _requestBytes;
+    }
+
+    /**
+     * @return The number of response body bytes read so far.
+     */
+    public long getResponseBytes()
+    {
+        return _responseBytes;
+    }
+
+    /**
+     * @return The number of response body bytes received over the network so far. For a compressed response this is
+     * the compressed size; otherwise it's the same as {@link #getResponseBytes()}.
+     */
+    public long getResponseWireBytes()
+    {
+        long wireBytes = _responseWireBytes;
+        return wireBytes < 0 ? _responseBytes : wireBytes;
+    }
+
+    /**
+     * @return The content coding with which the server compressed the response (e.g., "gzip", or "gzip, br" if it
+     * applied more than one), or null if the response wasn't compressed.
+     */
+    public String getContentEncoding()
+    {
+        return _contentEncoding;
+    }
+
+    void sending()
+    {
+        _startTime = System.nanoTime();
+        for (CommandListener listener : _listeners)
+        {
+            try
+            {
+                listener.beforeSend(this);
+            }
+            catch (RuntimeException e)
+            {
+                LOG.warn("CommandListener failed", e);
+            }
+        }
+    }
+
+    /**
+     * @param statusCode The response status code
+     * @param connectedTime The System.nanoTime() at which the request had a connection, or null if not known
+     */
+    void responseReceived(int statusCode, Long connectedTime)
+    {
+        _timeToFirstByte = System.nanoTime() - _startTime;
+        _statusCode = statusCode;
+        if (null != connectedTime)
+            _connectionWaitTime = Math.max(connectedTime - _startTime, 0);
+
+        for (CommandListener listener : _listeners)
+        {
+            try
+            {
+                listener.onResponseHeaders(this);
+            }
+            catch (RuntimeException e)
+            {
+                LOG.warn("CommandListener failed", e);
+            }
+        }
+    }
+
+    void completed()
+    {
+        if (!_finished.compareAndSet(false, true))
+            return;
+
+        _latency = System.nanoTime() - _startTime;
+        for (CommandListener listener : _listeners)
+        {
+            try
+            {
+                listener.onResponseComplete(this);
+            }
+            catch (RuntimeException e)
+            {
+                LOG.warn("CommandListener failed", e);
+            }
+        }
+    }
+
+    void failed(Exception failure)
+    {
+        if (!_finished.compareAndSet(false, true))
+            return;
+
+        if (0 != _startTime)
+            _latency = System.nanoTime() - _startTime;
+        for (CommandListener listener : _listeners)
+        {
+            try
+            {
+                listener.onError(this, failure);
+            }
+            catch (RuntimeException e)
+            {
+                LOG.warn("CommandListener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Wraps a request body whose length isn't known in advance so the bytes are counted as they're written.
+     */
+    HttpEntity countRequestBytes(HttpEntity entity)
+    {
+        return new HttpEntityWrapper(entity)
+        {
+            @Override
+            public void writeTo(OutputStream outStream) throws IOException
+            {
+                super.writeTo(new FilterOutputStream(outStream)
+                {
+                    @Override
+                    public void write(int b) throws IOException
+                    {
+                        out.write(b);
+                        _requestBytes++;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException
+                    {
+                        out.write(b, off, len);
+                        _requestBytes += len;
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Counts the decoded response body as the command reads it.
+     */
+    InputStream countResponseBytes(InputStream in)
+    {
+        return new CountingInputStream(in, false);
+    }
+
+    /**
+     * Wraps a compressed response body, before it's decompressed, so the bytes received over the network are counted.
+     */
+    HttpEntity countResponseWireBytes(HttpEntity entity, String contentEncoding)
+    {
+        _contentEncoding = contentEncoding;
+        _responseWireBytes = 0;
+        return new HttpEntityWrapper(entity)
+        {
+            @Override
+            public InputStream getContent() throws IOException
+            {
+                return new CountingInputStream(super.getContent(), true);
+            }
+        };
+    }
+
+    private class CountingInputStream extends FilterInputStream
+    {
+        private final boolean _wire;
+
+        private CountingInputStream(InputStream in, boolean wire)
+        {
+            super(in);
+            _wire = wire;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0)
+                count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int count = super.read(b, off, len);
+            if (count > 0)
+                count(count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long count = super.skip(n);
+            count(count);
+            return count;
+        }
+
+        private void count(long count)
+        {
+            if (_wire)
+                _responseWireBytes += count;
+            else
+                _responseBytes += count;
+        }
+    }
+}
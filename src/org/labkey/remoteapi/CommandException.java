@@ -42,6 +42,7 @@ public class CommandException extends Exception
     private final int _statusCode;
     private final JSONObject _jsonProperties;
     private final String _responseText;
+    private String _retryAfter;
 
     /**
      * Constructs a new CommandException given a message only.
@@ -126,6 +127,22 @@ public String getAuthHeaderValue()
         return _authHeaderValue;
     }
 
+    /**
+     * Returns the value of the Retry-After header, which the server may send with 503 (Service Unavailable) and 429
+     * (Too Many Requests) responses.
+     * @return The value or null
+     * @see RetryPolicy
+     */
+    public String getRetryAfter()
+    {
+        return _retryAfter;
+    }
+
+    void setRetryAfter(String retryAfter)
+    {
+        _retryAfter = retryAfter;
+    }
+
     /**
      * Returns the exception property map, or null if no map was set.
      * @return The exception property map or null.
@@ -0,0 +1,248 @@
+package org.labkey.remoteapi;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Executes the same command against many folders concurrently, for example a {@code SelectRowsCommand} in every
+ * study folder or a {@code GetContainersCommand} for each project. Because commands can't be copied or shared between
+ * threads, the fan-out takes a factory that creates a configured command for each folder path; the factory may
+ * tailor the command to the folder (e.g., per-study filters).
+ * <p>
+ * Commands run on virtual threads when the JVM supports them (Java 21 and later) and otherwise on a pool of platform
+ * threads. At most {@link #setMaxConcurrency(int) maxConcurrency} commands are in flight at once; the default is the
+ * Connection's per-route connection limit, so the fan-out never queues on the connection pool. Results are handed back
+ * as each folder completes, and a failure in one folder is captured in its {@link Result} rather than stopping the run.
+ * <p>
+ * Example:
+ * <pre><code>
+ * CommandFanOut&lt;SelectRowsResponse&gt; fanOut = new CommandFanOut&lt;&gt;(cn, folderPath -&gt; new SelectRowsCommand("study", "Demographics"));
+ * fanOut.execute(studyFolderPaths, result -&gt; {
+ *     if (result.isSuccess())
+ *         process(result.getFolderPath(), result.getResponse().getRows());
+ *     else
+ *         log(result.getFolderPath(), result.getException());
+ * });
+ * </code></pre>
+ * The Connection is shared by all threads (see {@link Connection} for details).
+ *
+ * @param <ResponseType> The response type of the commands
+ */
+public class CommandFanOut<ResponseType extends CommandResponse>
+{
+    private final Connection _connection;
+    private final Function<String, ? extends Command<ResponseType, ?>> _commandFactory;
+
+    private int _maxConcurrency = 0; // Zero for the Connection's per-route limit, which is looked up when executing
+    private ExecutorService _executorService = null;
+
+    /**
+     * @param connection The connection on which the commands will be executed.
+     * @param commandFactory Creates a new, configured command for the given folder path.
+     */
+    public CommandFanOut(Connection connection, Function<String, ? extends Command<ResponseType, ?>> commandFactory)
+    {
+        _connection = Objects.requireNonNull(connection);
+        _commandFactory = Objects.requireNonNull(commandFactory);
+    }
+
+    /**
+     * @return The maximum set by {@link #setMaxConcurrency(int)}, or zero if the Connection's per-route connection
+     * limit is used.
+     */
+    public int getMaxConcurrency()
+    {
+        return _maxConcurrency;
+    }
+
+    /**
+     * Sets the maximum number of commands executing at once. Defaults to the Connection's maximum connections per
+     * route (see {@link ConnectionPoolConfig#setMaxPerRoute(int)}) at the time of each run; raising it beyond that
+     * just queues requests on the connection pool.
+     * @param maxConcurrency The maximum number of concurrent commands, or zero for the default.
+     */
+    public void setMaxConcurrency(int maxConcurrency)
+    {
+        if (maxConcurrency < 0)
+            throw new IllegalArgumentException("Maximum concurrency must not be negative");
+        _maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Sets the executor used to run commands. By default, a virtual thread per command executor (or, before Java 21,
+     * a fixed pool sized to the maximum concurrency) is created for each run and shut down afterward. A supplied
+     * executor is not shut down. The concurrency limit applies either way.
+     * @param executorService The executor to use, or null for the default.
+     */
+    public void setExecutorService(ExecutorService executorService)
+    {
+        _executorService = executorService;
+    }
+
+    /**
+     * Executes a command in each folder and collects the results.
+     * @param folderPaths The folder paths in which to execute the command.
+     * @return One result per folder, in the order the folders completed.
+     * @throws InterruptedException if interrupted while waiting for commands to complete. Outstanding commands are
+     * cancelled.
+     */
+    public List<Result<ResponseType>> execute(Collection<String> folderPaths) throws InterruptedException
+    {
+        List<Result<ResponseType>> results = new ArrayList<>(folderPaths.size());
+        execute(folderPaths, results::add);
+        return results;
+    }
+
+    /**
+     * Executes a command in each folder, passing each result to the consumer as soon as its folder completes. The
+     * consumer is called on the calling thread, one result at a time.
+     * @param folderPaths The folder paths in which to execute the command.
+     * @param consumer Receives one result per folder, in the order the folders complete.
+     * @throws InterruptedException if interrupted while waiting for commands to complete. Outstanding commands are
+     * cancelled.
+     */
+    public void execute(Collection<String> folderPaths, Consumer<Result<ResponseType>> consumer) throws InterruptedException
+    {
+        int maxConcurrency = _maxConcurrency > 0 ? _maxConcurrency : _connection.getRouteStats().getMax();
+        ExecutorService executor = null != _executorService ? _executorService : createExecutor(maxConcurrency);
+        CompletionService<Result<ResponseType>> completionService = new ExecutorCompletionService<>(executor);
+        Semaphore permits = new Semaphore(maxConcurrency);
+        List<Future<Result<ResponseType>>> futures = new ArrayList<>(folderPaths.size());
+        int delivered = 0;
+
+        try
+        {
+            for (String folderPath : folderPaths)
+            {
+                // Hand back whatever has finished while waiting for a free slot
+                while (!permits.tryAcquire())
+                {
+                    consumer.accept(take(completionService));
+                    delivered++;
+                }
+
+                futures.add(completionService.submit(() -> {
+                    try
+                    {
+                        return executeOne(folderPath);
+                    }
+                    finally
+                    {
+                        permits.release();
+                    }
+                }));
+            }
+
+            for (; delivered < futures.size(); delivered++)
+                consumer.accept(take(completionService));
+        }
+        finally
+        {
+            if (delivered < futures.size())
+            {
+                for (Future<Result<ResponseType>> future : futures)
+                    future.cancel(true);
+            }
+            if (executor != _executorService)
+                executor.shutdownNow();
+        }
+    }
+
+    private Result<ResponseType> executeOne(String folderPath)
+    {
+        try
+        {
+            Command<ResponseType, ?> command = _commandFactory.apply(folderPath);
+            return new Result<>(folderPath, command.execute(_connection, folderPath), null);
+        }
+        catch (IOException | CommandException | RuntimeException e)
+        {
+            return new Result<>(folderPath, null, e);
+        }
+    }
+
+    private static <T> T take(CompletionService<T> completionService) throws InterruptedException
+    {
+        try
+        {
+            return completionService.take().get();
+        }
+        catch (ExecutionException e)
+        {
+            // Can't happen; executeOne() captures failures in the result
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Virtual threads need Java 21 but this library targets Java 17, so look up the factory method reflectively
+    private static ExecutorService createExecutor(int maxConcurrency)
+    {
+        try
+        {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newFixedThreadPool(maxConcurrency);
+        }
+    }
+
+    /**
+     * The outcome of executing the command in one folder
+     * @param <ResponseType> The response type of the command
+     */
+    public static class Result<ResponseType extends CommandResponse>
+    {
+        private final String _folderPath;
+        private final ResponseType _response;
+        private final Exception _exception;
+
+        private Result(String folderPath, ResponseType response, Exception exception)
+        {
+            _folderPath = folderPath;
+            _response = response;
+            _exception = exception;
+        }
+
+        public String getFolderPath()
+        {
+            return _folderPath;
+        }
+
+        public boolean isSuccess()
+        {
+            return null == _exception;
+        }
+
+        /**
+         * @return The server's response, or null if the command failed.
+         */
+        public ResponseType getResponse()
+        {
+            return _response;
+        }
+
+        /**
+         * @return The IOException, CommandException, or RuntimeException that caused the command to fail, or null if
+         * the command succeeded.
+         */
+        public Exception getException()
+        {
+            return _exception;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.labkey.remoteapi;
+
+/**
+ * Receives notifications as commands are executed on a {@link Connection}, for example to record latency, byte, and
+ * status metrics per controller and action. Register a listener with
+ * {@link Connection#addCommandListener(CommandListener)}; {@link CommandMetrics} is a ready-made listener that keeps
+ * histograms of the results.
+ * <p>
+ * Each attempt to send a request gets its own {@link CommandEvent}, so a request that is retried (e.g., after the
+ * server rejects an expired CSRF token) produces two sequences of notifications. A successful attempt is reported
+ * with {@link #beforeSend}, {@link #onResponseHeaders}, and, once the response body has been read and the response
+ * closed, {@link #onResponseComplete}. An attempt that fails reports {@link #onError} instead of
+ * {@link #onResponseComplete}, and if no response arrived at all, instead of {@link #onResponseHeaders} as well.
+ * Responses served from a {@link ResponseCache} without contacting the server produce no notifications.
+ * <p>
+ * Listeners are called on the thread executing the command or, for {@link Command#executeAsync(Connection, String)},
+ * on one of the client's I/O threads, so implementations must be thread-safe and should return quickly. Exceptions
+ * thrown by a listener are logged and otherwise ignored.
+ */
+public interface CommandListener
+{
+    /**
+     * Called just before the request is sent, after the Connection has added its session headers.
+     * @param event The event for this attempt.
+     */
+    default void beforeSend(CommandEvent event)
+    {
+    }
+
+    /**
+     * Called when the response status and headers have been received.
+     * @param event The event for this attempt, with the status code, time to first byte, and connection wait time set.
+     */
+    default void onResponseHeaders(CommandEvent event)
+    {
+    }
+
+    /**
+     * Called when the response has been closed, after its body has been consumed.
+     * @param event The event for this attempt, with the latency and byte counts set.
+     */
+    default void onResponseComplete(CommandEvent event)
+    {
+    }
+
+    /**
+     * Called when the attempt fails, either because no response was received (e.g., a connection failure or timeout)
+     * or because the server returned an error.
+     * @param event The event for this attempt. The status code is set if a response was received.
+     * @param e The exception that will be thrown (or passed to the future) for this attempt.
+     */
+    default void onError(CommandEvent event, Exception e)
+    {
+    }
+}
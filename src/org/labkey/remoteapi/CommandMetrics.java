@@ -0,0 +1,228 @@
+package org.labkey.remoteapi;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link CommandListener} that records latency, byte, status, and retry metrics for each controller and action
+ * (e.g., "query-selectRows"). Latencies are kept in {@link LatencyHistogram}s, in microseconds, so percentiles are
+ * available as well as means.
+ * <p>
+ * Example:
+ * <pre><code>
+ * CommandMetrics metrics = new CommandMetrics();
+ * cn.addCommandListener(metrics);
+ * // ... execute commands ...
+ * CommandMetrics.Stats stats = metrics.getStats("query", "selectRows");
+ * System.out.println("p99 latency: " + stats.getLatency().getValueAtPercentile(99) + "us");
+ * System.out.println(metrics); // A summary of every controller and action
+ * </code></pre>
+ * This class is thread-safe and may be registered on several Connections.
+ */
+public class CommandMetrics implements CommandListener
+{
+    private final Map<String, Stats> _stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param controllerName The controller name.
+     * @param actionName The action name.
+     * @return The metrics for that controller and action, or null if no commands have been executed for it.
+     */
+    public Stats getStats(String controllerName, String actionName)
+    {
+        return _stats.get(controllerName + "-" + actionName);
+    }
+
+    /**
+     * @return The metrics for each controller and action executed, keyed and sorted by controller-action (see
+     * {@link CommandEvent#getKey()}).
+     */
+    public SortedMap<String, Stats> getAllStats()
+    {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(_stats));
+    }
+
+    /**
+     * Discards all recorded metrics.
+     */
+    public void reset()
+    {
+        _stats.clear();
+    }
+
+    @Override
+    public void beforeSend(CommandEvent event)
+    {
+        Stats stats = getOrCreateStats(event);
+        stats._requests.incrementAndGet();
+        if (event.getAttempt() > 1)
+            stats._retries.incrementAndGet();
+    }
+
+    @Override
+    public void onResponseHeaders(CommandEvent event)
+    {
+        Stats stats = getOrCreateStats(event);
+        stats._statusCounts.computeIfAbsent(event.getStatusCode(), status -> new AtomicLong()).incrementAndGet();
+        stats._timeToFirstByte.recordValue(toMicros(event.getTimeToFirstByte()));
+        if (event.getConnectionWaitTime() >= 0)
+            stats._connectionWait.recordValue(toMicros(event.getConnectionWaitTime()));
+    }
+
+    @Override
+    public void onResponseComplete(CommandEvent event)
+    {
+        Stats stats = getOrCreateStats(event);
+        stats._latency.recordValue(toMicros(event.getLatency()));
+        stats._requestBytes.addAndGet(event.getRequestBytes());
+        stats._responseBytes.addAndGet(event.getResponseBytes());
+        stats._responseWireBytes.addAndGet(event.getResponseWireBytes());
+    }
+
+    @Override
+    public void onError(CommandEvent event, Exception e)
+    {
+        Stats stats = getOrCreateStats(event);
+        stats._errors.incrementAndGet();
+        stats._requestBytes.addAndGet(event.getRequestBytes());
+        stats._responseBytes.addAndGet(event.getResponseBytes());
+        stats._responseWireBytes.addAndGet(event.getResponseWireBytes());
+    }
+
+    private Stats getOrCreateStats(CommandEvent event)
+    {
+        return _stats.computeIfAbsent(event.getKey(), key -> new Stats());
+    }
+
+    private static long toMicros(long nanos)
+    {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Stats> entry : getAllStats().entrySet())
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * The metrics for one controller and action. Each attempt (including retries) is counted as a request.
+     */
+    public static class Stats
+    {
+        private final AtomicLong _requests = new AtomicLong();
+        private final AtomicLong _retries = new AtomicLong();
+        private final AtomicLong _errors = new AtomicLong();
+        private final AtomicLong _requestBytes = new AtomicLong();
+        private final AtomicLong _responseBytes = new AtomicLong();
+        private final AtomicLong _responseWireBytes = new AtomicLong();
+        private final Map<Integer, AtomicLong> _statusCounts = new ConcurrentHashMap<>();
+        private final LatencyHistogram _latency = new LatencyHistogram();
+        private final LatencyHistogram _timeToFirstByte = new LatencyHistogram();
+        private final LatencyHistogram _connectionWait = new LatencyHistogram();
+
+        private Stats()
+        {
+        }
+
+        /**
+         * @return The number of requests sent, including retries.
+         */
+        public long getRequestCount()
+        {
+            return _requests.get();
+        }
+
+        /**
+         * @return The number of requests that were retries of an earlier request.
+         */
+        public long getRetryCount()
+        {
+            return _retries.get();
+        }
+
+        /**
+         * @return The number of requests that failed, with either an error response or no response at all.
+         */
+        public long getErrorCount()
+        {
+            return _errors.get();
+        }
+
+        /**
+         * @return The total number of request body bytes sent.
+         */
+        public long getRequestBytes()
+        {
+            return _requestBytes.get();
+        }
+
+        /**
+         * @return The total number of response body bytes read, after decompression.
+         */
+        public long getResponseBytes()
+        {
+            return _responseBytes.get();
+        }
+
+        /**
+         * @return The total number of response body bytes received over the network, which is less than
+         * {@link #getResponseBytes()} when responses were compressed.
+         */
+        public long getResponseWireBytes()
+        {
+            return _responseWireBytes.get();
+        }
+
+        /**
+         * @return The number of responses received with each HTTP status code.
+         */
+        public SortedMap<Integer, Long> getStatusCounts()
+        {
+            SortedMap<Integer, Long> counts = new TreeMap<>();
+            _statusCounts.forEach((status, count) -> counts.put(status, count.get()));
+            return counts;
+        }
+
+        /**
+         * @return The time, in microseconds, from sending each successful request until its response was closed.
+         */
+        public LatencyHistogram getLatency()
+        {
+            return _latency;
+        }
+
+        /**
+         * @return The time, in microseconds, from sending each request until its response headers were received.
+         */
+        public LatencyHistogram getTimeToFirstByte()
+        {
+            return _timeToFirstByte;
+        }
+
+        /**
+         * @return The time, in microseconds, each synchronous request waited for a pooled (or new) connection.
+         */
+        public LatencyHistogram getConnectionWait()
+        {
+            return _connectionWait;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("requests=%d, retries=%d, errors=%d, statuses=%s, requestBytes=%d, responseBytes=%d, " +
+                    "responseWireBytes=%d, latency(us)=[%s], ttfb(us)=[%s], connectionWait(us)=[%s]",
+                getRequestCount(), getRetryCount(), getErrorCount(), getStatusCounts(), getRequestBytes(),
+                getResponseBytes(), getResponseWireBytes(), _latency, _timeToFirstByte, _connectionWait);
+        }
+    }
+}
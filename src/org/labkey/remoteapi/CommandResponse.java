@@ -56,6 +56,23 @@ public CommandResponse(String text, int statusCode, String contentType, JSONObje
         _data = null != json ? json.toMap() : null;
     }
 
+    /**
+     * Constructs a new CommandResponse from data that has already been parsed into a property Map, such as by a
+     * {@link ResponseParser}. The map is used as-is, not copied.
+     *
+     * @param text        The response text (or null if it was not read into memory)
+     * @param statusCode  The HTTP status code
+     * @param contentType The response content type
+     * @param data        The parsed data, as a mutable Map of simple values, Lists, and Maps
+     */
+    protected CommandResponse(String text, int statusCode, String contentType, Map<String, Object> data)
+    {
+        _text = text;
+        _statusCode = statusCode;
+        _contentType = contentType;
+        _data = data;
+    }
+
     /**
      * Returns the raw response text.
      * <p>
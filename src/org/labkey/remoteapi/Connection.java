@@ -15,38 +15,84 @@
  */
 package org.labkey.remoteapi;
 
+import org.apache.hc.client5.http.HttpRoute;
 import org.apache.hc.client5.http.auth.AuthenticationException;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.auth.AuthCache;
 import org.apache.hc.client5.http.cookie.BasicCookieStore;
 import org.apache.hc.client5.http.cookie.Cookie;
+import org.apache.hc.client5.http.cookie.CookieStore;
+import org.apache.hc.client5.http.entity.BrotliDecompressingEntity;
+import org.apache.hc.client5.http.entity.BrotliInputStreamFactory;
+import org.apache.hc.client5.http.entity.DecompressingEntity;
+import org.apache.hc.client5.http.entity.DeflateInputStreamFactory;
+import org.apache.hc.client5.http.entity.GZIPInputStreamFactory;
+import org.apache.hc.client5.http.entity.InputStreamFactory;
+import org.apache.hc.client5.http.impl.auth.BasicAuthCache;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.impl.cookie.BasicClientCookie;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
-import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
 import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
 import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory;
 import org.apache.hc.client5.http.ssl.TrustSelfSignedStrategy;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.HttpHost;
 import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
 import org.apache.hc.core5.ssl.SSLContextBuilder;
+import org.apache.hc.core5.util.TimeValue;
 import org.labkey.remoteapi.security.ImpersonateUserCommand;
 import org.labkey.remoteapi.security.LogoutCommand;
 import org.labkey.remoteapi.security.StopImpersonatingCommand;
 
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents connection information for a particular LabKey Server.
@@ -90,8 +136,15 @@
  * </code>
  * </pre>
  * <p>
- * Note that this class is not thread-safe. Do not share instances of Connection
- * between threads.
+ * Connection is thread-safe: a single instance may be shared by a thread pool,
+ * with each thread executing its own commands. The first request(s) initialize the
+ * session (see {@link CredentialsProvider#initializeConnection(Connection)}) exactly
+ * once; other threads making concurrent requests wait for that initialization to
+ * complete, then all requests share the resulting session cookies and CSRF token.
+ * Configure the Connection (timeout, proxy, pool configuration, etc.) before
+ * sharing it; changing settings while other threads are executing commands is
+ * safe, but requests already in progress may use either the old or new settings.
+ * Command instances themselves are not thread-safe, so create a command per thread.
  * </p>
  */
 public class Connection
@@ -100,27 +153,69 @@
     public static final String JSESSIONID = "JSESSIONID";
 
     private static final int DEFAULT_TIMEOUT = 60000;    // 60 seconds
-    private static final HttpClientConnectionManager CONNECTION_MANAGER = new PoolingHttpClientConnectionManager();
+    private static final PoolingHttpClientConnectionManager CONNECTION_MANAGER = new PoolingHttpClientConnectionManager();
 
-    private static HttpClientConnectionManager CONNECTION_MANAGER_SELF_SIGNED = null; // Will be initialized if needed
+    private static PoolingHttpClientConnectionManager CONNECTION_MANAGER_SELF_SIGNED = null; // Will be initialized if needed
+
+    // Pools for Connections with a ConnectionPoolConfig, keyed by configuration
+    private static final Map<List<Object>, PoolingHttpClientConnectionManager> CONFIGURED_CONNECTION_MANAGERS = new ConcurrentHashMap<>();
+
+    // Closes idle and expired connections in configured pools that request it. The pools are shared and live as long
+    // as the JVM, so a single daemon thread serves all of them rather than a thread per pool.
+    private static final ScheduledExecutorService IDLE_CONNECTION_EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "labkey-idle-connection-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Default pool configurations for particular servers, keyed by scheme, host, and port
+    private static final Map<String, ConnectionPoolConfig> DEFAULT_POOL_CONFIGS = new ConcurrentHashMap<>();
+
+    // Request context attribute holding the System.nanoTime() at which the request was given a connection
+    private static final String CONNECTED_TIME = "org.labkey.remoteapi.connectedTime";
+
+    // Response content codings that can be decoded, keyed by Content-Encoding value. Brotli needs org.brotli:dec.
+    private static final Map<String, InputStreamFactory> DECODERS = createDecoders();
+    private static final List<String> DEFAULT_ACCEPT_ENCODINGS = BrotliDecompressingEntity.isAvailable()
+        ? List.of("gzip", "deflate", "br") : List.of("gzip", "deflate");
+    private static final AtomicLong CREDENTIALS_IDS = new AtomicLong();
 
     private final URI _baseURI;
     private final CredentialsProvider _credentialsProvider;
-    private final HttpClientContext _httpClientContext;
 
-    private CloseableHttpClient _client;
-    private boolean _acceptSelfSignedCerts;
-    private int _timeout = DEFAULT_TIMEOUT;
-    private String _proxyHost;
-    private Integer _proxyPort;
-    private String _csrf;
-    private String _sessionId;
-    private boolean _firstRequest = true;
+    // Identifies this Connection's credentials in ResponseCache keys. CredentialsProviders don't expose the user they
+    // authenticate, so each Connection gets its own.
+    private final long _credentialsId = CREDENTIALS_IDS.incrementAndGet();
+
+    // State shared by all requests on this connection. Each request gets its own HttpClientContext (contexts aren't
+    // thread-safe) that references these.
+    private final CookieStore _cookieStore = new BasicCookieStore();
+    private final AuthCache _authCache = new BasicAuthCache();
+    private final AtomicReference<SessionState> _session = new AtomicReference<>(SessionState.EMPTY);
+    private volatile Object _userToken;
+
+    // Guards one-time initialization; reentrant so the initializing request's own commands don't wait on themselves
+    private final ReentrantLock _initLock = new ReentrantLock();
+    private volatile boolean _initialized = false;
+    private boolean _initializing = false;
+
+    private volatile CloseableHttpClient _client;
+    private volatile CloseableHttpAsyncClient _asyncClient;
+    private volatile boolean _acceptSelfSignedCerts;
+    private volatile int _timeout = DEFAULT_TIMEOUT;
+    private volatile String _proxyHost;
+    private volatile Integer _proxyPort;
+    private volatile ConnectionPoolConfig _poolConfig;
+    private volatile ResponseCache _responseCache;
+    private volatile RetryPolicy _retryPolicy;
+    private volatile List<String> _acceptEncodings = DEFAULT_ACCEPT_ENCODINGS;
+    private volatile List<Object> _poolKey;
 
     // The user email when impersonating a user
-    private String _impersonateUser;
-    private String _impersonatePath;
-    private String _userAgent = "LabKey Java API";
+    private volatile String _impersonateUser;
+    private volatile String _impersonatePath;
+    private volatile String _userAgent = "LabKey Java API";
+    private final List<CommandListener> _commandListeners = new CopyOnWriteArrayList<>();
 
     /**
      * Constructs a new Connection object given a base URL and a credentials provider.
@@ -147,8 +242,6 @@ public Connection(URI baseURI, CredentialsProvider credentialsProvider)
         }
         _baseURI = baseURI;
         _credentialsProvider = credentialsProvider;
-        _httpClientContext = HttpClientContext.create();
-        _httpClientContext.setCookieStore(new BasicCookieStore());
         setAcceptSelfSignedCerts(false);
     }
 
@@ -215,12 +308,61 @@ public URI getBaseURI()
      */
     public CloseableHttpClient getHttpClient()
     {
-        if (null == _client)
+        CloseableHttpClient client = _client;
+        if (null == client)
         {
-            _client = clientBuilder().build();
+            synchronized (this)
+            {
+                client = _client;
+                if (null == client)
+                {
+                    client = clientBuilder().build();
+                    _client = client;
+                }
+            }
         }
 
-        return _client;
+        return client;
+    }
+
+    /**
+     * Returns the CloseableHttpAsyncClient used by {@link Command#executeAsync(Connection, String)}, creating and
+     * starting it if necessary. The asynchronous client negotiates HTTP/2 when the server supports it and has its own
+     * connection pool, sized by this Connection's pool configuration.
+     * @return The started CloseableHttpAsyncClient object to use.
+     */
+    public CloseableHttpAsyncClient getAsyncHttpClient()
+    {
+        CloseableHttpAsyncClient client = _asyncClient;
+        if (null == client)
+        {
+            synchronized (this)
+            {
+                client = _asyncClient;
+                if (null == client)
+                {
+                    client = asyncClientBuilder().build();
+                    client.start();
+                    _asyncClient = client;
+                }
+            }
+        }
+
+        return client;
+    }
+
+    // Discard the http clients so they're rebuilt with the current settings
+    private void resetClients()
+    {
+        synchronized (this)
+        {
+            _client = null;
+            if (null != _asyncClient)
+            {
+                _asyncClient.close(CloseMode.GRACEFUL);
+                _asyncClient = null;
+            }
+        }
     }
 
     /**
@@ -229,11 +371,16 @@ public CloseableHttpClient getHttpClient()
      */
     private HttpClientBuilder clientBuilder()
     {
-        final HttpClientConnectionManager connectionManager = _acceptSelfSignedCerts ? getSelfSignedConnectionManager() : CONNECTION_MANAGER;
-
         HttpClientBuilder builder = HttpClientBuilder.create()
-            .setConnectionManager(connectionManager)
-            .setDefaultRequestConfig(RequestConfig.custom().setResponseTimeout(getTimeout(), TimeUnit.MILLISECONDS).build());
+            .setConnectionManager(getConnectionManager())
+            .setDefaultRequestConfig(RequestConfig.custom().setResponseTimeout(getTimeout(), TimeUnit.MILLISECONDS).build())
+            // Note when the request has leased (and, if necessary, opened) a connection, for CommandEvent.getConnectionWaitTime()
+            .addExecInterceptorAfter(ChainElement.CONNECT.name(), CONNECTED_TIME, (request, scope, chain) -> {
+                scope.clientContext.setAttribute(CONNECTED_TIME, System.nanoTime());
+                return chain.proceed(request, scope);
+            })
+            // Responses are decompressed by decodeResponse(), which counts the compressed bytes for CommandListeners
+            .disableContentCompression();
 
         if (_proxyHost != null && _proxyPort != null)
             builder.setProxy(new HttpHost(_proxyHost, _proxyPort));
@@ -241,73 +388,223 @@ private HttpClientBuilder clientBuilder()
         if (null != _userAgent)
             builder.setUserAgent(_userAgent);
 
+        // The retry policy replaces HttpClient's own retries
+        if (null != _retryPolicy)
+            builder.disableAutomaticRetries();
+
         _credentialsProvider.configureClientBuilder(getBaseURI(), builder);
 
         return builder;
     }
 
+    /**
+     * Create the HttpAsyncClientBuilder based on this Connection's configuration options and the CredentialsProvider's wishes.
+     * @return The builder for an HttpAsyncClient
+     */
+    private HttpAsyncClientBuilder asyncClientBuilder()
+    {
+        ConnectionPoolConfig config = getEffectivePoolConfig();
+        if (null == config)
+            config = new ConnectionPoolConfig();
+
+        PoolingAsyncClientConnectionManagerBuilder connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+            .setMaxConnTotal(config.getMaxTotal())
+            .setMaxConnPerRoute(config.getMaxPerRoute())
+            .setDefaultConnectionConfig(createConnectionConfig(config));
+
+        if (_acceptSelfSignedCerts)
+            connectionManager.setTlsStrategy(ClientTlsStrategyBuilder.create().setSslContext(createSelfSignedSslContext()).build());
+
+        HttpAsyncClientBuilder builder = HttpAsyncClientBuilder.create()
+            .setConnectionManager(connectionManager.build())
+            .setDefaultRequestConfig(RequestConfig.custom().setResponseTimeout(getTimeout(), TimeUnit.MILLISECONDS).build());
+
+        if (null != config.getIdleEvictionTimeout())
+            builder.evictIdleConnections(TimeValue.ofMilliseconds(config.getIdleEvictionTimeout()));
+
+        if (_proxyHost != null && _proxyPort != null)
+            builder.setProxy(new HttpHost(_proxyHost, _proxyPort));
+
+        if (null != _userAgent)
+            builder.setUserAgent(_userAgent);
+
+        if (null != _retryPolicy)
+            builder.disableAutomaticRetries();
+
+        _credentialsProvider.configureAsyncClientBuilder(getBaseURI(), builder);
+
+        return builder;
+    }
+
     private static final Object SELF_SIGNED_LOCK = new Object();
 
-    private HttpClientConnectionManager getSelfSignedConnectionManager()
+    private PoolingHttpClientConnectionManager getConnectionManager()
+    {
+        ConnectionPoolConfig config = getEffectivePoolConfig();
+        if (null == config)
+            return _acceptSelfSignedCerts ? getSelfSignedConnectionManager() : CONNECTION_MANAGER;
+
+        // Capture the key once so later changes to the (mutable) config don't orphan this Connection's pool
+        if (null == _poolKey)
+            _poolKey = config.getPoolKey(_acceptSelfSignedCerts);
+
+        return CONFIGURED_CONNECTION_MANAGERS.computeIfAbsent(_poolKey, key -> createConnectionManager(config, _acceptSelfSignedCerts));
+    }
+
+    private PoolingHttpClientConnectionManager getSelfSignedConnectionManager()
     {
         synchronized (SELF_SIGNED_LOCK)
         {
             if (null == CONNECTION_MANAGER_SELF_SIGNED)
             {
-                try
-                {
-                    SSLContextBuilder sslContextBuilder = new SSLContextBuilder();
-                    sslContextBuilder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
-                    SSLConnectionSocketFactory sslConnectionSocketFactory = new SSLConnectionSocketFactory(sslContextBuilder.build());
-                    CONNECTION_MANAGER_SELF_SIGNED = PoolingHttpClientConnectionManagerBuilder.create()
-                        .setSSLSocketFactory(sslConnectionSocketFactory)
-                        .build();
-                }
-                catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException e)
-                {
-                    throw new RuntimeException(e);
-                }
+                CONNECTION_MANAGER_SELF_SIGNED = connectionManagerBuilder(true).build();
             }
 
             return CONNECTION_MANAGER_SELF_SIGNED;
         }
     }
 
+    @SuppressWarnings("deprecation") // setSSLSocketFactory() is the only way to trust self-signed certs in httpclient 5.4
+    private static PoolingHttpClientConnectionManagerBuilder connectionManagerBuilder(boolean acceptSelfSignedCerts)
+    {
+        PoolingHttpClientConnectionManagerBuilder builder = PoolingHttpClientConnectionManagerBuilder.create();
+        if (acceptSelfSignedCerts)
+            builder.setSSLSocketFactory(new SSLConnectionSocketFactory(createSelfSignedSslContext()));
+        return builder;
+    }
+
+    private static SSLContext createSelfSignedSslContext()
+    {
+        try
+        {
+            SSLContextBuilder sslContextBuilder = new SSLContextBuilder();
+            sslContextBuilder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
+            return sslContextBuilder.build();
+        }
+        catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ConnectionConfig createConnectionConfig(ConnectionPoolConfig config)
+    {
+        ConnectionConfig.Builder connectionConfig = ConnectionConfig.custom();
+        if (null != config.getValidateAfterInactivity())
+            connectionConfig.setValidateAfterInactivity(config.getValidateAfterInactivity(), TimeUnit.MILLISECONDS);
+        if (null != config.getTimeToLive())
+            connectionConfig.setTimeToLive(config.getTimeToLive(), TimeUnit.MILLISECONDS);
+        return connectionConfig.build();
+    }
+
+    private static PoolingHttpClientConnectionManager createConnectionManager(ConnectionPoolConfig config, boolean acceptSelfSignedCerts)
+    {
+        PoolingHttpClientConnectionManager connectionManager = connectionManagerBuilder(acceptSelfSignedCerts)
+            .setMaxConnTotal(config.getMaxTotal())
+            .setMaxConnPerRoute(config.getMaxPerRoute())
+            .setDefaultConnectionConfig(createConnectionConfig(config))
+            .build();
+
+        if (null != config.getIdleEvictionTimeout())
+        {
+            long maxIdle = config.getIdleEvictionTimeout();
+            IDLE_CONNECTION_EVICTOR.scheduleWithFixedDelay(() -> {
+                connectionManager.closeExpired();
+                connectionManager.closeIdle(TimeValue.ofMilliseconds(maxIdle));
+            }, maxIdle, maxIdle, TimeUnit.MILLISECONDS);
+        }
+
+        return connectionManager;
+    }
+
     /**
      * If first request, prime the Connection by forcing authentication and populating CSRF and session info.
      * @param request HttpRequest that is about to be executed
      */
     protected void beforeExecute(HttpRequest request)
     {
-        if (_firstRequest)
+        ensureInitialized();
+
+        SessionState session = _session.get();
+        if (null != session.csrf())
+            request.setHeader(X_LABKEY_CSRF, session.csrf());
+        if (null != session.sessionId())
+            request.setHeader(JSESSIONID, session.sessionId());
+    }
+
+    /**
+     * Initializes the connection on the first request. Concurrent first requests wait until initialization is
+     * complete. Requests made by the CredentialsProvider during initialization (on the initializing thread) proceed
+     * without waiting.
+     */
+    private void ensureInitialized()
+    {
+        if (_initialized)
+            return;
+
+        _initLock.lock();
+        try
         {
+            if (_initialized || _initializing)
+                return;
+
+            _initializing = true;
             try
             {
-                _firstRequest = false;
                 // First request on this connection: delegate to CredentialsProvider for initialization appropriate to the provider
                 _credentialsProvider.initializeConnection(this);
             }
             catch (Exception ignored)
             {
             }
+            finally
+            {
+                _initializing = false;
+                _initialized = true;
+            }
+        }
+        finally
+        {
+            _initLock.unlock();
         }
-        if (null != _csrf)
-            request.setHeader(X_LABKEY_CSRF, _csrf);
-        if (null != _sessionId)
-            request.setHeader(JSESSIONID, _sessionId);
     }
 
     protected void afterExecute()
     {
         // Always update our CSRF token as the session may be new since our last request
-        for (Cookie c : _httpClientContext.getCookieStore().getCookies())
+        String csrf = null;
+        String sessionId = null;
+        for (Cookie c : _cookieStore.getCookies())
         {
             if (X_LABKEY_CSRF.equals(c.getName()))
-                _csrf = c.getValue();
+                csrf = c.getValue();
 
             if (JSESSIONID.equals(c.getName()))
-                _sessionId = c.getValue();
+                sessionId = c.getValue();
         }
+
+        updateSession(csrf, sessionId);
+    }
+
+    // Replace whichever of the values are non-null, leaving the others as they are
+    private void updateSession(String csrf, String sessionId)
+    {
+        if (null != csrf || null != sessionId)
+            _session.updateAndGet(current -> current.with(csrf, sessionId));
+    }
+
+    /**
+     * Creates the context for a single request. Cookies, cached authentication, and the connection's user token are
+     * shared by all requests on this Connection.
+     */
+    private HttpClientContext createRequestContext()
+    {
+        HttpClientContext context = HttpClientContext.create();
+        context.setCookieStore(_cookieStore);
+        context.setAuthCache(_authCache);
+        if (null != _userToken)
+            context.setUserToken(_userToken);
+        return context;
     }
 
     /**
@@ -391,10 +688,12 @@ public Connection stopImpersonating() throws IOException, CommandException
         return this;
     }
 
-    CloseableHttpResponse executeRequest(HttpUriRequest request, Integer timeout) throws IOException, AuthenticationException
+    CloseableHttpResponse executeRequest(HttpUriRequest request, Integer timeout, CommandEvent event) throws IOException, AuthenticationException
     {
+        HttpClientContext context = createRequestContext();
+
         // Delegate authentication setup to CredentialsProvider
-        _credentialsProvider.configureRequest(getBaseURI(), request, _httpClientContext);
+        _credentialsProvider.configureRequest(getBaseURI(), request, context);
 
         CloseableHttpClient client = getHttpClient();
 
@@ -408,12 +707,182 @@ CloseableHttpResponse executeRequest(HttpUriRequest request, Integer timeout) th
         }
 
         beforeExecute(request);
-        CloseableHttpResponse response = client.execute(request, _httpClientContext);
+        setAcceptEncoding(request);
+        if (null != event)
+            event.sending();
+        CloseableHttpResponse response = client.execute(request, context);
+        if (null != event)
+            event.responseReceived(response.getCode(), context.getAttribute(CONNECTED_TIME) instanceof Long connected ? connected : null);
+
+        try
+        {
+            decodeResponse(response, event);
+        }
+        catch (IOException e)
+        {
+            response.close();
+            throw e;
+        }
+
+        // Remember connection-based authentication state so later requests can reuse the authenticated connections
+        if (null != context.getUserToken())
+            _userToken = context.getUserToken();
         afterExecute();
 
         return response;
     }
 
+    /**
+     * Executes the request on the asynchronous client. The request body, if any, is buffered in memory, as is the
+     * response body. The returned future completes on one of the client's I/O threads.
+     */
+    CompletableFuture<CloseableHttpResponse> executeRequestAsync(HttpUriRequest request, Integer timeout, CommandEvent event) throws IOException, AuthenticationException
+    {
+        HttpClientContext context = createRequestContext();
+
+        // Delegate authentication setup to CredentialsProvider
+        _credentialsProvider.configureRequest(getBaseURI(), request, context);
+
+        CloseableHttpAsyncClient client = getAsyncHttpClient();
+
+        // Initialization (on the first request only) blocks the calling thread
+        beforeExecute(request);
+
+        setAcceptEncoding(request);
+        SimpleRequestBuilder asyncRequestBuilder = SimpleRequestBuilder.copy(request);
+        HttpEntity entity = request.getEntity();
+        if (null != entity)
+        {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            entity.writeTo(body);
+            asyncRequestBuilder.setBody(body.toByteArray(), null == entity.getContentType() ? null : ContentType.parse(entity.getContentType()));
+            if (null != entity.getContentEncoding())
+                asyncRequestBuilder.setHeader(HttpHeaders.CONTENT_ENCODING, entity.getContentEncoding());
+        }
+
+        RequestConfig config = request instanceof HttpUriRequestBase r ? r.getConfig() : null;
+        if (timeout != null && timeout != getTimeout())
+            config = RequestConfig.copy(null == config ? RequestConfig.DEFAULT : config).setResponseTimeout(timeout, TimeUnit.MILLISECONDS).build();
+        if (null != config)
+            asyncRequestBuilder.setRequestConfig(config);
+        SimpleHttpRequest asyncRequest = asyncRequestBuilder.build();
+
+        CompletableFuture<CloseableHttpResponse> result = new CompletableFuture<>();
+        if (null != event)
+            event.sending();
+        Future<SimpleHttpResponse> future = client.execute(asyncRequest, context, new FutureCallback<>()
+        {
+            @Override
+            public void completed(SimpleHttpResponse response)
+            {
+                if (null != event)
+                    event.responseReceived(response.getCode(), null);
+                if (null != context.getUserToken())
+                    _userToken = context.getUserToken();
+                afterExecute();
+
+                CloseableHttpResponse classic = toClassicResponse(response);
+                try
+                {
+                    decodeResponse(classic, event);
+                }
+                catch (IOException e)
+                {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                result.complete(classic);
+            }
+
+            @Override
+            public void failed(Exception e)
+            {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled()
+            {
+                result.cancel(false);
+            }
+        });
+
+        // Propagate cancellation by the caller to the request
+        result.whenComplete((response, t) -> {
+            if (result.isCancelled())
+                future.cancel(true);
+        });
+
+        return result;
+    }
+
+    private static Map<String, InputStreamFactory> createDecoders()
+    {
+        Map<String, InputStreamFactory> decoders = new LinkedHashMap<>();
+        decoders.put("gzip", GZIPInputStreamFactory.getInstance());
+        decoders.put("x-gzip", GZIPInputStreamFactory.getInstance());
+        decoders.put("deflate", DeflateInputStreamFactory.getInstance());
+        if (BrotliDecompressingEntity.isAvailable())
+            decoders.put("br", BrotliInputStreamFactory.getInstance());
+        return Collections.unmodifiableMap(decoders);
+    }
+
+    private void setAcceptEncoding(HttpUriRequest request)
+    {
+        List<String> encodings = _acceptEncodings;
+        if (!encodings.isEmpty() && !request.containsHeader(HttpHeaders.ACCEPT_ENCODING))
+            request.setHeader(HttpHeaders.ACCEPT_ENCODING, String.join(", ", encodings));
+    }
+
+    /**
+     * Replaces a compressed response body with one that is decompressed as it's read, so parsers stream straight from
+     * the network without buffering the compressed or decompressed body. As in HttpClient's own decompression, the
+     * Content-Encoding and Content-Length headers (which describe the compressed body) are removed.
+     */
+    private static void decodeResponse(ClassicHttpResponse response, CommandEvent event) throws IOException
+    {
+        HttpEntity entity = response.getEntity();
+        if (null == entity)
+            return;
+
+        // Codings are listed in the order they were applied, possibly across several headers (e.g., "gzip, br")
+        List<String> encodings = new ArrayList<>();
+        for (Header header : response.getHeaders(HttpHeaders.CONTENT_ENCODING))
+        {
+            for (String value : header.getValue().split(","))
+            {
+                String encoding = value.trim().toLowerCase(Locale.ROOT);
+                if (encoding.isEmpty() || "identity".equals(encoding))
+                    continue;
+                if (!DECODERS.containsKey(encoding))
+                    throw new IOException("Unsupported Content-Encoding: " + header.getValue());
+                encodings.add(encoding);
+            }
+        }
+        if (encodings.isEmpty())
+            return;
+
+        // Undo the codings in reverse order
+        HttpEntity decoded = null == event ? entity : event.countResponseWireBytes(entity, String.join(", ", encodings));
+        for (int i = encodings.size() - 1; i >= 0; i--)
+            decoded = new DecompressingEntity(decoded, DECODERS.get(encodings.get(i)));
+
+        response.setEntity(decoded);
+        response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+        response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+        response.removeHeaders(HttpHeaders.CONTENT_MD5);
+    }
+
+    private static CloseableHttpResponse toClassicResponse(SimpleHttpResponse response)
+    {
+        BasicClassicHttpResponse classic = new BasicClassicHttpResponse(response.getCode(), response.getReasonPhrase());
+        classic.setVersion(response.getVersion());
+        classic.setHeaders(response.getHeaders());
+        byte[] body = response.getBodyBytes();
+        classic.setEntity(new ByteArrayEntity(null == body ? new byte[0] : body, response.getContentType()));
+        return CloseableHttpResponse.adapt(classic);
+    }
+
     /**
      * Set a default timeout for Commands that have not established their own timeouts. Null resets the Connection to the
      * default timeout (60 seconds). 0 means the request should never timeout.
@@ -425,7 +894,7 @@ CloseableHttpResponse executeRequest(HttpUriRequest request, Integer timeout) th
     public Connection setTimeout(Integer timeout)
     {
         _timeout = timeout == null ? DEFAULT_TIMEOUT : timeout;
-        _client = null;
+        resetClients();
         return this;
     }
 
@@ -449,7 +918,7 @@ public Connection setProxy(String host, Integer port)
     {
         _proxyHost = host;
         _proxyPort = port;
-        _client = null;
+        resetClients();
         return this;
     }
 
@@ -476,7 +945,184 @@ public boolean isAcceptSelfSignedCerts()
     public Connection setAcceptSelfSignedCerts(boolean acceptSelfSignedCerts)
     {
         _acceptSelfSignedCerts = acceptSelfSignedCerts;
-        _client = null;
+        _poolKey = null;
+        resetClients();
+        return this;
+    }
+
+    /**
+     * Returns the pool configuration set on this Connection, if any.
+     * @return The pool configuration, or null if this Connection uses its server's default or the shared pool.
+     */
+    public ConnectionPoolConfig getPoolConfig()
+    {
+        return _poolConfig;
+    }
+
+    /**
+     * Sets the connection pool configuration for this Connection. Connections with equal configurations share a
+     * pool. Null reverts to the default for this Connection's server (see
+     * {@link #setDefaultPoolConfig(URI, ConnectionPoolConfig)}) or, if there is none, the shared pool.<br>
+     * <i>NOTE: Changing this setting will force the underlying http client to be recreated.</i>
+     *
+     * @param poolConfig The pool configuration
+     * @return this connection
+     */
+    public Connection setPoolConfig(ConnectionPoolConfig poolConfig)
+    {
+        _poolConfig = poolConfig;
+        _poolKey = null;
+        resetClients();
+        return this;
+    }
+
+    /**
+     * Sets the default connection pool configuration for all Connections to a server, identified by the scheme,
+     * host, and port of the supplied URI. The default applies to Connections whose http client hasn't yet been
+     * created and that don't have their own configuration.
+     *
+     * @param serverURI A URI on the server, such as a Connection's base URI
+     * @param poolConfig The pool configuration, or null to remove the default
+     */
+    public static void setDefaultPoolConfig(URI serverURI, ConnectionPoolConfig poolConfig)
+    {
+        if (null == poolConfig)
+            DEFAULT_POOL_CONFIGS.remove(getServerKey(serverURI));
+        else
+            DEFAULT_POOL_CONFIGS.put(getServerKey(serverURI), poolConfig);
+    }
+
+    private ConnectionPoolConfig getEffectivePoolConfig()
+    {
+        return null != _poolConfig ? _poolConfig : DEFAULT_POOL_CONFIGS.get(getServerKey(_baseURI));
+    }
+
+    private static String getServerKey(URI uri)
+    {
+        return (uri.getScheme() + "://" + uri.getHost() + ":" + getPort(uri)).toLowerCase();
+    }
+
+    private static int getPort(URI uri)
+    {
+        if (uri.getPort() >= 0)
+            return uri.getPort();
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    /**
+     * Returns live statistics for the entire pool used by this Connection, which may be shared with other
+     * Connections. A steadily non-zero pending count means requests are waiting for connections and the pool
+     * limits may be too low for the workload.
+     * @return The leased, pending, available, and maximum connection counts
+     */
+    public PoolStats getPoolStats()
+    {
+        return getConnectionManager().getTotalStats();
+    }
+
+    /**
+     * Returns live statistics for the connections to this Connection's server within its pool.
+     * @return The leased, pending, available, and maximum connection counts for this server's route
+     */
+    public PoolStats getRouteStats()
+    {
+        HttpHost target = new HttpHost(_baseURI.getScheme(), _baseURI.getHost(), getPort(_baseURI));
+        boolean secure = "https".equalsIgnoreCase(_baseURI.getScheme());
+        HttpRoute route = _proxyHost != null && _proxyPort != null
+            ? new HttpRoute(target, null, new HttpHost(_proxyHost, _proxyPort), secure)
+            : new HttpRoute(target, null, secure);
+        return getConnectionManager().getStats(route);
+    }
+
+    /**
+     * Returns the cache consulted by cacheable commands executed on this Connection, if any.
+     * @return The response cache, or null if responses aren't cached.
+     */
+    public ResponseCache getResponseCache()
+    {
+        return _responseCache;
+    }
+
+    /**
+     * Sets a cache for responses to cacheable commands, such as those that retrieve schema, query, and domain
+     * metadata. Caching is off by default.
+     * @param responseCache The response cache, or null to disable caching.
+     * @return this connection
+     * @see ResponseCache
+     */
+    public Connection setResponseCache(ResponseCache responseCache)
+    {
+        _responseCache = responseCache;
+        return this;
+    }
+
+    /**
+     * Identifies who responses cached for this Connection are for: this Connection's credentials and the impersonated
+     * user, if any. {@link ResponseCache} keys start with this, followed by the full request URI.
+     */
+    String getCacheIdentity()
+    {
+        return _credentialsId + " " + Objects.toString(_impersonateUser, "");
+    }
+
+    /**
+     * Returns the policy for retrying commands after transient failures, if any.
+     * @return The retry policy, or null if commands aren't retried.
+     */
+    public RetryPolicy getRetryPolicy()
+    {
+        return _retryPolicy;
+    }
+
+    /**
+     * Sets the policy for retrying commands executed on this Connection after transient failures, such as 503
+     * responses and connection resets. A command's own policy (see {@link Command#setRetryPolicy(RetryPolicy)})
+     * takes precedence. Without a policy, only HttpClient's built-in retries apply (one retry of a 429 or 503
+     * response, and of idempotent requests after some I/O errors); a policy replaces them.
+     * NOTE: Changing this setting will force the underlying http client to be recreated.
+     * @param retryPolicy The retry policy, or null for HttpClient's built-in retries only.
+     * @return this connection
+     * @see RetryPolicy
+     */
+    public Connection setRetryPolicy(RetryPolicy retryPolicy)
+    {
+        _retryPolicy = retryPolicy;
+        resetClients();
+        return this;
+    }
+
+    /**
+     * Returns the content codings, in order of preference, that the server is asked to compress responses with.
+     * @return The accepted content codings, which may be empty.
+     */
+    public List<String> getAcceptEncodings()
+    {
+        return _acceptEncodings;
+    }
+
+    /**
+     * Sets the content codings, in order of preference, that the server may use to compress responses, which are sent
+     * in the <code>Accept-Encoding</code> header. Large query responses typically compress 10-20x, which matters most
+     * on slow links; on a fast local network, disabling compression saves the server and client the CPU time. Responses
+     * are decompressed as they're read, by both {@link Command#execute} and {@link Command#executeAsync}.
+     * <p>
+     * Supported codings are "gzip", "x-gzip", "deflate", and, if org.brotli:dec is on the classpath, "br". The default
+     * is "gzip" and "deflate", plus "br" when it is available. Call with no arguments to request uncompressed responses.
+     * Compressed and decompressed byte counts are reported by {@link CommandEvent#getResponseWireBytes()} and
+     * {@link CommandEvent#getResponseBytes()}.
+     * @param encodings The content codings to accept.
+     * @return this connection
+     * @throws IllegalArgumentException if a coding isn't supported
+     */
+    public Connection setAcceptEncodings(String... encodings)
+    {
+        List<String> accepted = List.of(encodings);
+        for (String encoding : accepted)
+        {
+            if (!DECODERS.containsKey(encoding.toLowerCase(Locale.ROOT)))
+                throw new IllegalArgumentException("Unsupported content coding '" + encoding + "'; supported codings are " + DECODERS.keySet());
+        }
+        _acceptEncodings = accepted;
         return this;
     }
 
@@ -490,6 +1136,37 @@ public void setUserAgent(String userAgent)
         _userAgent = userAgent;
     }
 
+    /**
+     * Registers a listener that is notified as each command is executed on this Connection, e.g., to record latency,
+     * byte, and status metrics. Listeners may be added and removed at any time.
+     * @param listener The listener to add.
+     * @return this connection
+     * @see CommandMetrics
+     */
+    public Connection addCommandListener(CommandListener listener)
+    {
+        _commandListeners.add(Objects.requireNonNull(listener));
+        return this;
+    }
+
+    /**
+     * @param listener The listener to remove.
+     * @return this connection
+     */
+    public Connection removeCommandListener(CommandListener listener)
+    {
+        _commandListeners.remove(listener);
+        return this;
+    }
+
+    /**
+     * @return The listeners registered on this Connection, which may be empty.
+     */
+    public List<CommandListener> getCommandListeners()
+    {
+        return Collections.unmodifiableList(_commandListeners);
+    }
+
     public CredentialsProvider getCredentialsProvider()
     {
         return _credentialsProvider;
@@ -511,15 +1188,15 @@ public Connection addCookie(String name, String value, String domain, String pat
         cookie.setPath(path);
         cookie.setExpiryDate(expiry);
         cookie.setSecure(isSecure);
-        _httpClientContext.getCookieStore().addCookie(cookie);
+        _cookieStore.addCookie(cookie);
 
         // Don't use session info from different server
         if (combineHostPath(_baseURI.getHost(), _baseURI.getPath()).equals(combineHostPath(domain, path)))
         {
             if (X_LABKEY_CSRF.equals(name))
-                _csrf = value;
+                updateSession(value, null);
             if (JSESSIONID.equals(name))
-                _sessionId = value;
+                updateSession(null, value);
         }
 
         return this;
@@ -531,6 +1208,42 @@ private String combineHostPath(String host, String path)
         return hostPath.replaceAll("//+", "/").replaceFirst("/$", "");
     }
 
+    /**
+     * Immutable snapshot of the session identifiers, swapped atomically as responses arrive
+     */
+    private static final class SessionState
+    {
+        private static final SessionState EMPTY = new SessionState(null, null);
+
+        private final String _csrf;
+        private final String _sessionId;
+
+        private SessionState(String csrf, String sessionId)
+        {
+            _csrf = csrf;
+            _sessionId = sessionId;
+        }
+
+        private String csrf()
+        {
+            return _csrf;
+        }
+
+        private String sessionId()
+        {
+            return _sessionId;
+        }
+
+        private SessionState with(String csrf, String sessionId)
+        {
+            String newCsrf = null != csrf ? csrf : _csrf;
+            String newSessionId = null != sessionId ? sessionId : _sessionId;
+            if (Objects.equals(newCsrf, _csrf) && Objects.equals(newSessionId, _sessionId))
+                return this;
+            return new SessionState(newCsrf, newSessionId);
+        }
+    }
+
     /**
      * Utility method to construct a URI without modifying constructor signature
      */
@@ -0,0 +1,135 @@
+package org.labkey.remoteapi;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Connection pool settings for a {@link Connection}. By default, every Connection in the JVM shares a single pool
+ * with HttpClient's default limits of 25 connections in total and 5 per route (i.e., per server). Apply a
+ * configuration with {@link Connection#setPoolConfig(ConnectionPoolConfig)} or, for every Connection to a given
+ * server, with {@link Connection#setDefaultPoolConfig(java.net.URI, ConnectionPoolConfig)}.
+ * <p>
+ * Connections with equal pool configurations share a pool, so the limits apply across all of them. Changes to a
+ * configuration don't affect Connections that have already started using it; apply it again.
+ * <p>
+ * Example:
+ * <pre><code>
+ * Connection cn = new Connection("https://www.labkey.org", credentials);
+ * cn.setPoolConfig(new ConnectionPoolConfig().setMaxTotal(50).setMaxPerRoute(20).setIdleEvictionTimeout(30000));
+ * </code></pre>
+ */
+public class ConnectionPoolConfig
+{
+    public static final int DEFAULT_MAX_TOTAL = 25;
+    public static final int DEFAULT_MAX_PER_ROUTE = 5;
+
+    private int _maxTotal = DEFAULT_MAX_TOTAL;
+    private int _maxPerRoute = DEFAULT_MAX_PER_ROUTE;
+    private Integer _validateAfterInactivity = null;
+    private Integer _timeToLive = null;
+    private Integer _idleEvictionTimeout = null;
+
+    public int getMaxTotal()
+    {
+        return _maxTotal;
+    }
+
+    /**
+     * Sets the maximum number of connections in the pool, across all servers. Defaults to 25.
+     * @param maxTotal The maximum total number of connections
+     * @return this configuration
+     */
+    public ConnectionPoolConfig setMaxTotal(int maxTotal)
+    {
+        if (maxTotal < 1)
+            throw new IllegalArgumentException("Maximum total connections must be positive");
+        _maxTotal = maxTotal;
+        return this;
+    }
+
+    public int getMaxPerRoute()
+    {
+        return _maxPerRoute;
+    }
+
+    /**
+     * Sets the maximum number of connections to any one server. Requests beyond this limit wait for a connection to
+     * be released. Defaults to 5.
+     * @param maxPerRoute The maximum number of connections per route
+     * @return this configuration
+     */
+    public ConnectionPoolConfig setMaxPerRoute(int maxPerRoute)
+    {
+        if (maxPerRoute < 1)
+            throw new IllegalArgumentException("Maximum connections per route must be positive");
+        _maxPerRoute = maxPerRoute;
+        return this;
+    }
+
+    public Integer getValidateAfterInactivity()
+    {
+        return _validateAfterInactivity;
+    }
+
+    /**
+     * Sets the period of inactivity after which a pooled connection is checked for staleness before it's reused.
+     * Null uses HttpClient's default.
+     * @param validateAfterInactivity The inactivity period, in milliseconds
+     * @return this configuration
+     */
+    public ConnectionPoolConfig setValidateAfterInactivity(Integer validateAfterInactivity)
+    {
+        _validateAfterInactivity = validateAfterInactivity;
+        return this;
+    }
+
+    public Integer getTimeToLive()
+    {
+        return _timeToLive;
+    }
+
+    /**
+     * Sets the maximum lifetime of a pooled connection, after which it's closed rather than reused. Null (the
+     * default) means connections may be reused indefinitely.
+     * @param timeToLive The connection lifetime, in milliseconds
+     * @return this configuration
+     */
+    public ConnectionPoolConfig setTimeToLive(Integer timeToLive)
+    {
+        _timeToLive = timeToLive;
+        return this;
+    }
+
+    public Integer getIdleEvictionTimeout()
+    {
+        return _idleEvictionTimeout;
+    }
+
+    /**
+     * Sets how long a connection may sit idle in the pool before a background thread closes it. Expired connections
+     * (see {@link #setTimeToLive(Integer)}) are closed at the same time. Null (the default) disables background
+     * eviction.
+     * @param idleEvictionTimeout The maximum idle time, in milliseconds
+     * @return this configuration
+     */
+    public ConnectionPoolConfig setIdleEvictionTimeout(Integer idleEvictionTimeout)
+    {
+        _idleEvictionTimeout = idleEvictionTimeout;
+        return this;
+    }
+
+    // Identifies the pool for these settings; Connections with equal keys share a pool
+    List<Object> getPoolKey(boolean acceptSelfSignedCerts)
+    {
+        return List.of(_maxTotal, _maxPerRoute, Objects.toString(_validateAfterInactivity), Objects.toString(_timeToLive),
+            Objects.toString(_idleEvictionTimeout), acceptSelfSignedCerts);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ConnectionPoolConfig{maxTotal=" + _maxTotal + ", maxPerRoute=" + _maxPerRoute +
+            ", validateAfterInactivity=" + _validateAfterInactivity + ", timeToLive=" + _timeToLive +
+            ", idleEvictionTimeout=" + _idleEvictionTimeout + "}";
+    }
+}
@@ -17,6 +17,7 @@
 
 import org.apache.hc.client5.http.auth.AuthenticationException;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.protocol.HttpClientContext;
 
@@ -26,6 +27,14 @@
 public interface CredentialsProvider
 {
     void configureClientBuilder(URI baseURI, HttpClientBuilder builder);
+
+    /**
+     * Configure the builder for the asynchronous client used by {@link Command#executeAsync(Connection, String)}.
+     * Providers that set credentials on the classic client builder should do the same here.
+     */
+    default void configureAsyncClientBuilder(URI baseURI, HttpAsyncClientBuilder builder)
+    {
+    }
     void configureRequest(URI baseURI, HttpUriRequest request, HttpClientContext httpClientContext) throws AuthenticationException;
 
     /**
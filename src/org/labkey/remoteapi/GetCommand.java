@@ -22,4 +22,10 @@ protected HttpGet createRequest(URI uri)
     {
         return new HttpGet(uri);
     }
+
+    @Override
+    protected boolean isIdempotent()
+    {
+        return true;
+    }
 }
@@ -0,0 +1,142 @@
+package org.labkey.remoteapi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, thread-safe histogram of non-negative values in the style of an HDR histogram: values are counted in
+ * buckets whose width grows with the magnitude of the value, so every recorded value is reproduced to within about
+ * 3% however large it is, in constant memory and with a lock-free {@link #recordValue(long)}. {@link CommandMetrics}
+ * uses it for latencies in microseconds, but the values may be in any unit.
+ * <p>
+ * Values up to 2<sup>40</sup> (about 12.7 days in microseconds) are counted exactly; larger values are counted in the
+ * top bucket.
+ */
+public class LatencyHistogram
+{
+    // Each power of two is split into 2^SUB_BUCKET_BITS buckets, which bounds the relative error at 1/32
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+    private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+    private final AtomicLongArray _counts = new AtomicLongArray((MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT);
+    private final AtomicLong _totalCount = new AtomicLong();
+    private final AtomicLong _sum = new AtomicLong();
+    private final AtomicLong _min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong _max = new AtomicLong();
+
+    /**
+     * @param value The value to record; negative values are ignored.
+     */
+    public void recordValue(long value)
+    {
+        if (value < 0)
+            return;
+
+        _counts.incrementAndGet(bucketIndex(Math.min(value, MAX_VALUE)));
+        _totalCount.incrementAndGet();
+        _sum.addAndGet(value);
+        _min.accumulateAndGet(value, Math::min);
+        _max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getTotalCount()
+    {
+        return _totalCount.get();
+    }
+
+    /**
+     * @return The smallest value recorded, or 0 if none have been.
+     */
+    public long getMin()
+    {
+        return 0 == getTotalCount() ? 0 : _min.get();
+    }
+
+    /**
+     * @return The largest value recorded, or 0 if none have been.
+     */
+    public long getMax()
+    {
+        return _max.get();
+    }
+
+    /**
+     * @return The mean of the values recorded, or 0 if none have been.
+     */
+    public double getMean()
+    {
+        long count = getTotalCount();
+        return 0 == count ? 0 : (double)_sum.get() / count;
+    }
+
+    /**
+     * Returns the value at the given percentile, e.g., 50 for the median or 99.9 for the 99.9th percentile. The result
+     * is the upper bound of the bucket holding that value (no larger than the maximum recorded), so it may exceed the
+     * actual value by up to about 3%.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The value at that percentile, or 0 if no values have been recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+
+        long count = getTotalCount();
+        if (0 == count)
+            return 0;
+
+        long target = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < _counts.length(); i++)
+        {
+            seen += _counts.get(i);
+            if (seen >= target)
+                return Math.min(highestValueInBucket(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently with a reset may or may not be cleared.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < _counts.length(); i++)
+            _counts.set(i, 0);
+        _totalCount.set(0);
+        _sum.set(0);
+        _min.set(Long.MAX_VALUE);
+        _max.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("count=%d, min=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, p99.9=%d, max=%d",
+            getTotalCount(), getMin(), getMean(), getValueAtPercentile(50), getValueAtPercentile(90),
+            getValueAtPercentile(99), getValueAtPercentile(99.9), getMax());
+    }
+
+    // Values below SUB_BUCKET_COUNT get a bucket each; above that, each power of two gets SUB_BUCKET_COUNT buckets
+    private static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKET_COUNT)
+            return (int)value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int)(value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    private static long highestValueInBucket(int index)
+    {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
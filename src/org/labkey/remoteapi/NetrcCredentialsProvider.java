@@ -17,6 +17,7 @@
 
 import org.apache.hc.client5.http.auth.AuthenticationException;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.protocol.HttpClientContext;
 
@@ -65,6 +66,12 @@ public void configureClientBuilder(URI baseURI, HttpClientBuilder builder)
         _wrappedCredentialsProvider.configureClientBuilder(baseURI, builder);
     }
 
+    @Override
+    public void configureAsyncClientBuilder(URI baseURI, HttpAsyncClientBuilder builder)
+    {
+        _wrappedCredentialsProvider.configureAsyncClientBuilder(baseURI, builder);
+    }
+
     @Override
     public void configureRequest(URI baseURI, HttpUriRequest request, HttpClientContext httpClientContext) throws AuthenticationException
     {
@@ -0,0 +1,214 @@
+package org.labkey.remoteapi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory cache of responses to commands that retrieve metadata that rarely changes, such as schema, query,
+ * domain, and assay protocol definitions. Caching is opt-in: set a cache on a {@link Connection} with
+ * {@link Connection#setResponseCache(ResponseCache)}, and commands that declare themselves cacheable (see
+ * {@link Command#isCacheable()}) will consult it when executed with {@link Command#execute(Connection, String)}.
+ * <p>
+ * Responses are keyed by the Connection's identity (its credentials and impersonated user) and the full request URI
+ * (server, folder path, controller, action, and parameters) plus the posted JSON, if any, so one user is never served
+ * another's response. An entry is served without contacting the server until its time-to-live expires. After that, if
+ * the server supplied an ETag or Last-Modified validator, the next request is sent as a conditional GET and a
+ * "304 Not Modified" response renews the entry; otherwise the response is fetched again. When the cache is full, the
+ * least recently used entry is evicted. Only successful (200) responses are cached.
+ * <p>
+ * Each hit creates a new response object from the cached response text, so callers may modify the responses they
+ * receive. Call {@link #clear()} after changing metadata on the server (e.g., after saving a domain). This class is
+ * thread-safe.
+ */
+public class ResponseCache
+{
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(5);
+
+    private final int _maxEntries;
+    private final long _timeToLive;
+    private final Map<String, Entry> _entries;
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _revalidations = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    /**
+     * Constructs a cache holding up to 1,000 responses for 5 minutes each.
+     */
+    public ResponseCache()
+    {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param maxEntries The maximum number of responses to cache.
+     * @param timeToLive How long a response is used without revalidation, in milliseconds.
+     */
+    public ResponseCache(int maxEntries, long timeToLive)
+    {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("Maximum entries must be positive");
+        if (timeToLive < 0)
+            throw new IllegalArgumentException("Time to live must not be negative");
+
+        _maxEntries = maxEntries;
+        _timeToLive = timeToLive;
+        _entries = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > _maxEntries;
+            }
+        };
+    }
+
+    public int getMaxEntries()
+    {
+        return _maxEntries;
+    }
+
+    public long getTimeToLive()
+    {
+        return _timeToLive;
+    }
+
+    /**
+     * @return The number of requests answered from the cache without contacting the server.
+     */
+    public long getHitCount()
+    {
+        return _hits.get();
+    }
+
+    /**
+     * @return The number of requests answered from the cache after the server confirmed (with a 304 response) that the
+     * cached response was still current.
+     */
+    public long getRevalidationCount()
+    {
+        return _revalidations.get();
+    }
+
+    /**
+     * @return The number of requests for which a full response was retrieved from the server.
+     */
+    public long getMissCount()
+    {
+        return _misses.get();
+    }
+
+    /**
+     * @return The number of responses currently cached.
+     */
+    public int size()
+    {
+        synchronized (_entries)
+        {
+            return _entries.size();
+        }
+    }
+
+    /**
+     * Removes all cached responses. The hit, revalidation, and miss counts are not reset.
+     */
+    public void clear()
+    {
+        synchronized (_entries)
+        {
+            _entries.clear();
+        }
+    }
+
+    Entry get(String key)
+    {
+        synchronized (_entries)
+        {
+            return _entries.get(key);
+        }
+    }
+
+    void put(String key, String text, int statusCode, String contentType, String etag, String lastModified)
+    {
+        long expires = System.currentTimeMillis() + _timeToLive;
+        Entry entry = new Entry(text, statusCode, contentType, etag, lastModified, expires);
+        synchronized (_entries)
+        {
+            _entries.put(key, entry);
+        }
+    }
+
+    void recordHit()
+    {
+        _hits.incrementAndGet();
+    }
+
+    void recordRevalidation(Entry entry)
+    {
+        entry.renew(System.currentTimeMillis() + _timeToLive);
+        _revalidations.incrementAndGet();
+    }
+
+    void recordMiss()
+    {
+        _misses.incrementAndGet();
+    }
+
+    static class Entry
+    {
+        private final String _text;
+        private final int _statusCode;
+        private final String _contentType;
+        private final String _etag;
+        private final String _lastModified;
+        private volatile long _expires;
+
+        private Entry(String text, int statusCode, String contentType, String etag, String lastModified, long expires)
+        {
+            _text = text;
+            _statusCode = statusCode;
+            _contentType = contentType;
+            _etag = etag;
+            _lastModified = lastModified;
+            _expires = expires;
+        }
+
+        String getText()
+        {
+            return _text;
+        }
+
+        int getStatusCode()
+        {
+            return _statusCode;
+        }
+
+        String getContentType()
+        {
+            return _contentType;
+        }
+
+        String getEtag()
+        {
+            return _etag;
+        }
+
+        String getLastModified()
+        {
+            return _lastModified;
+        }
+
+        boolean isFresh()
+        {
+            return System.currentTimeMillis() < _expires;
+        }
+
+        private void renew(long expires)
+        {
+            _expires = expires;
+        }
+    }
+}
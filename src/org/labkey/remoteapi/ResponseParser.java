@@ -0,0 +1,28 @@
+package org.labkey.remoteapi;
+
+import org.labkey.remoteapi.internal.JsonStreamReader;
+
+import java.io.IOException;
+
+/**
+ * Builds a command's response object directly from the JSON tokens of the response body, rather than from a fully
+ * parsed {@link org.json.JSONObject} that is then copied into maps. Commands that return large responses supply a
+ * parser by overriding {@link Command#getResponseParser()}; the parser is used in place of
+ * {@link Command#createResponse(String, int, String, org.json.JSONObject)} whenever the response is JSON.
+ * @param <ResponseType> The type of response object created
+ */
+@FunctionalInterface
+public interface ResponseParser<ResponseType extends CommandResponse>
+{
+    /**
+     * Reads the response body and creates the response object.
+     * @param text The response text, if it has already been read into memory (e.g., for a cached response);
+     * otherwise null.
+     * @param statusCode The HTTP status code.
+     * @param contentType The Content-Type header value.
+     * @param reader A reader positioned at the start of the JSON response body.
+     * @return The response object.
+     * @throws IOException Thrown if there is a problem reading the response body.
+     */
+    ResponseType parse(String text, int statusCode, String contentType, JsonStreamReader reader) throws IOException;
+}
@@ -0,0 +1,281 @@
+package org.labkey.remoteapi;
+
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.client5.http.utils.DateUtils;
+import org.apache.hc.core5.http.ConnectionClosedException;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.NoHttpResponseException;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries commands that fail with a transient error, such as a 502, 503, or 504 response from an overloaded proxy, a
+ * connection reset, or a response timeout. Set a policy for every command on a Connection with
+ * {@link Connection#setRetryPolicy(RetryPolicy)} or for a single command with {@link Command#setRetryPolicy(RetryPolicy)}.
+ * Without a policy, commands are only retried when the {@link CredentialsProvider} asks to answer an authentication
+ * challenge, plus HttpClient's built-in retry of a single 429 or 503 response (which a Connection's policy replaces).
+ * <p>
+ * Attempts are spaced by exponential backoff with jitter: the delay before the second attempt is the initial backoff,
+ * each later delay is multiplied by the multiplier (up to the maximum backoff), and the jitter fraction of each delay
+ * is randomized so that many clients don't retry in lockstep. A <code>Retry-After</code> header on the error response
+ * (as sent with 503 and 429 responses) sets the minimum delay; if it asks for more than the maximum backoff, the
+ * command fails instead.
+ * <p>
+ * Only idempotent commands (see {@link Command#isIdempotent()}), such as selects and metadata queries, are retried by
+ * default. Commands that modify data may have been applied by the server even though the response was lost, so
+ * retrying them must be enabled with {@link #setRetryNonIdempotent(boolean)}. A request whose body can't be replayed
+ * (e.g., one streamed from an InputStream) is re-created with {@link Command#getHttpRequest(Connection, String)}.
+ * <p>
+ * Example:
+ * <pre><code>
+ * cn.setRetryPolicy(new RetryPolicy().setMaxAttempts(5).setInitialBackoff(1000).setMaxBackoff(60000));
+ * </code></pre>
+ * Override {@link #getRetryDelay(int, Exception, boolean)} to make other decisions.
+ */
+public class RetryPolicy
+{
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF = 500;
+    public static final long DEFAULT_MAX_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+    public static final double DEFAULT_MULTIPLIER = 2.0;
+    public static final double DEFAULT_JITTER = 0.5;
+
+    private int _maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long _initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private long _maxBackoff = DEFAULT_MAX_BACKOFF;
+    private double _multiplier = DEFAULT_MULTIPLIER;
+    private double _jitter = DEFAULT_JITTER;
+    private boolean _retryNonIdempotent = false;
+    private boolean _honorRetryAfter = true;
+    private Set<Integer> _retryableStatusCodes = Set.of(HttpStatus.SC_TOO_MANY_REQUESTS,
+        HttpStatus.SC_BAD_GATEWAY, HttpStatus.SC_SERVICE_UNAVAILABLE, HttpStatus.SC_GATEWAY_TIMEOUT);
+    private List<Class<? extends IOException>> _retryableExceptions = List.of(SocketException.class,
+        SocketTimeoutException.class, ConnectTimeoutException.class, NoHttpResponseException.class,
+        ConnectionClosedException.class);
+
+    public int getMaxAttempts()
+    {
+        return _maxAttempts;
+    }
+
+    /**
+     * Sets the maximum number of times a command is sent, including the first attempt. Defaults to 3.
+     * @param maxAttempts The maximum number of attempts
+     * @return this policy
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts)
+    {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("Maximum attempts must be positive");
+        _maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public long getInitialBackoff()
+    {
+        return _initialBackoff;
+    }
+
+    /**
+     * Sets the delay before the first retry. Defaults to 500 milliseconds.
+     * @param initialBackoff The delay, in milliseconds
+     * @return this policy
+     */
+    public RetryPolicy setInitialBackoff(long initialBackoff)
+    {
+        if (initialBackoff < 0)
+            throw new IllegalArgumentException("Initial backoff must not be negative");
+        _initialBackoff = initialBackoff;
+        return this;
+    }
+
+    public long getMaxBackoff()
+    {
+        return _maxBackoff;
+    }
+
+    /**
+     * Sets the longest delay between attempts, which also limits the <code>Retry-After</code> delay the policy will
+     * honor. Defaults to 30 seconds.
+     * @param maxBackoff The maximum delay, in milliseconds
+     * @return this policy
+     */
+    public RetryPolicy setMaxBackoff(long maxBackoff)
+    {
+        if (maxBackoff < 0)
+            throw new IllegalArgumentException("Maximum backoff must not be negative");
+        _maxBackoff = maxBackoff;
+        return this;
+    }
+
+    public double getMultiplier()
+    {
+        return _multiplier;
+    }
+
+    /**
+     * Sets the factor by which the delay grows after each attempt. Defaults to 2.
+     * @param multiplier The multiplier, at least 1
+     * @return this policy
+     */
+    public RetryPolicy setMultiplier(double multiplier)
+    {
+        if (multiplier < 1)
+            throw new IllegalArgumentException("Multiplier must be at least 1");
+        _multiplier = multiplier;
+        return this;
+    }
+
+    public double getJitter()
+    {
+        return _jitter;
+    }
+
+    /**
+     * Sets the fraction of each delay that is randomized: with the default of 0.5, each delay is between half and all
+     * of the computed backoff. 0 disables jitter; 1 randomizes the entire delay.
+     * @param jitter The jitter fraction, from 0 to 1
+     * @return this policy
+     */
+    public RetryPolicy setJitter(double jitter)
+    {
+        if (jitter < 0 || jitter > 1)
+            throw new IllegalArgumentException("Jitter must be between 0 and 1");
+        _jitter = jitter;
+        return this;
+    }
+
+    public boolean isRetryNonIdempotent()
+    {
+        return _retryNonIdempotent;
+    }
+
+    /**
+     * Sets whether commands that aren't idempotent (e.g., inserts, updates, and imports) are retried. A retried write
+     * may be applied twice if the server processed the first attempt but the response was lost. Defaults to false.
+     * @param retryNonIdempotent true to retry all commands
+     * @return this policy
+     */
+    public RetryPolicy setRetryNonIdempotent(boolean retryNonIdempotent)
+    {
+        _retryNonIdempotent = retryNonIdempotent;
+        return this;
+    }
+
+    public boolean isHonorRetryAfter()
+    {
+        return _honorRetryAfter;
+    }
+
+    /**
+     * Sets whether a <code>Retry-After</code> header on an error response is honored. Defaults to true.
+     * @param honorRetryAfter false to ignore <code>Retry-After</code>
+     * @return this policy
+     */
+    public RetryPolicy setHonorRetryAfter(boolean honorRetryAfter)
+    {
+        _honorRetryAfter = honorRetryAfter;
+        return this;
+    }
+
+    public Set<Integer> getRetryableStatusCodes()
+    {
+        return _retryableStatusCodes;
+    }
+
+    /**
+     * Sets the HTTP status codes that are retried. Defaults to 429, 502, 503, and 504.
+     * @param statusCodes The retryable status codes
+     * @return this policy
+     */
+    public RetryPolicy setRetryableStatusCodes(Integer... statusCodes)
+    {
+        _retryableStatusCodes = Set.copyOf(Arrays.asList(statusCodes));
+        return this;
+    }
+
+    public List<Class<? extends IOException>> getRetryableExceptions()
+    {
+        return _retryableExceptions;
+    }
+
+    /**
+     * Sets the types of IOException that are retried, including their subclasses. Defaults to SocketException (e.g.,
+     * connection refused or reset), SocketTimeoutException (a response timeout), ConnectTimeoutException,
+     * NoHttpResponseException, and ConnectionClosedException.
+     * @param exceptionClasses The retryable exception types
+     * @return this policy
+     */
+    public RetryPolicy setRetryableExceptions(Collection<Class<? extends IOException>> exceptionClasses)
+    {
+        _retryableExceptions = List.copyOf(exceptionClasses);
+        return this;
+    }
+
+    /**
+     * Decides whether a failed attempt should be retried and, if so, how long to wait first.
+     * @param attempt The number of attempts made so far (1 after the first attempt fails).
+     * @param failure The failure: a {@link CommandException} for an error response, or an IOException.
+     * @param idempotent Whether the command is idempotent (see {@link Command#isIdempotent()}).
+     * @return The delay before the next attempt, in milliseconds, or -1 if the failure should not be retried.
+     */
+    public long getRetryDelay(int attempt, Exception failure, boolean idempotent)
+    {
+        if (attempt >= _maxAttempts || (!idempotent && !_retryNonIdempotent) || !isRetryable(failure))
+            return -1;
+
+        double backoff = Math.min(_maxBackoff, _initialBackoff * Math.pow(_multiplier, attempt - 1));
+        long delay = (long)(backoff * (1 - _jitter * ThreadLocalRandom.current().nextDouble()));
+
+        if (_honorRetryAfter && failure instanceof CommandException e && null != e.getRetryAfter())
+        {
+            long retryAfter = parseRetryAfter(e.getRetryAfter());
+            if (retryAfter > _maxBackoff)
+                return -1;
+            delay = Math.max(delay, retryAfter);
+        }
+
+        return delay;
+    }
+
+    protected boolean isRetryable(Exception failure)
+    {
+        if (failure instanceof CommandException e)
+            return _retryableStatusCodes.contains(e.getStatusCode());
+
+        for (Class<? extends IOException> c : _retryableExceptions)
+        {
+            if (c.isInstance(failure))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Parses a Retry-After value, either a number of seconds or an HTTP date.
+     * @return The delay in milliseconds; 0 if the value can't be parsed or is in the past
+     */
+    private static long parseRetryAfter(String value)
+    {
+        try
+        {
+            return Math.max(TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim())), 0);
+        }
+        catch (NumberFormatException ignored)
+        {
+        }
+
+        Instant date = DateUtils.parseStandardDate(value);
+        return null == date ? 0 : Math.max(date.toEpochMilli() - System.currentTimeMillis(), 0);
+    }
+}
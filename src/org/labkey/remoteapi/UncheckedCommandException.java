@@ -0,0 +1,28 @@
+package org.labkey.remoteapi;
+
+import java.util.Objects;
+
+/**
+ * Wraps a {@link CommandException} with an unchecked exception, for methods that can't throw checked exceptions, such
+ * as those of {@link java.util.Iterator}. Like {@link java.io.UncheckedIOException}, it adds nothing to the wrapped
+ * exception; use {@link #getCause()} to get the status code and the properties of the server's error.
+ */
+public class UncheckedCommandException extends RuntimeException
+{
+    /**
+     * @param cause The CommandException (may not be null).
+     */
+    public UncheckedCommandException(CommandException cause)
+    {
+        super(Objects.requireNonNull(cause).getMessage(), cause);
+    }
+
+    /**
+     * @return The wrapped CommandException.
+     */
+    @Override
+    public CommandException getCause()
+    {
+        return (CommandException)super.getCause();
+    }
+}
@@ -131,4 +131,10 @@ protected Map<String, Object> createParameterMap()
 
         return params;
     }
+
+    @Override
+    protected boolean isIdempotent()
+    {
+        return true;
+    }
 }
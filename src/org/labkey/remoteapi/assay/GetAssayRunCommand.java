@@ -41,4 +41,10 @@ protected GetAssayRunResponse createResponse(String text, int status, String con
     {
         return new GetAssayRunResponse(text, status, contentType, json);
     }
+
+    @Override
+    protected boolean isIdempotent()
+    {
+        return true;
+    }
 }
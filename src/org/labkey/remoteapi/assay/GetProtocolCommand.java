@@ -46,6 +46,12 @@ else if (_providerName != null)
         return params;
     }
 
+    @Override
+    protected boolean isCacheable()
+    {
+        return true;
+    }
+
     @Override
     protected ProtocolResponse createResponse(String text, int status, String contentType, JSONObject json)
     {
@@ -0,0 +1,85 @@
+package org.labkey.remoteapi.collections;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable, case-insensitive mapping of column names to positions, built once per result and shared by all of
+ * its {@link IndexedRowMap} rows. Lookups with the column's own casing use a single hash lookup; other casings fall
+ * back to a lower-cased lookup. Instances are thread-safe.
+ */
+public class ColumnIndex
+{
+    private final String[] _names;
+    private final Map<String, Integer> _exact;
+    private final Map<String, Integer> _lowerCase;
+
+    /**
+     * @param names The column names, in position order. Names that differ only by case from an earlier
+     * name are ignored.
+     */
+    public ColumnIndex(Collection<String> names)
+    {
+        String[] unique = new String[names.size()];
+        _exact = new HashMap<>(names.size() * 2);
+        _lowerCase = new HashMap<>(names.size() * 2);
+
+        int i = 0;
+        for (String name : names)
+        {
+            String lcase = name.toLowerCase(Locale.ROOT);
+            if (_lowerCase.containsKey(lcase))
+                continue;
+            unique[i] = name;
+            _exact.put(name, i);
+            _lowerCase.put(lcase, i);
+            i++;
+        }
+        _names = i < unique.length ? Arrays.copyOf(unique, i) : unique;
+    }
+
+    /**
+     * @param key The column name (case-insensitive).
+     * @return The column's position, or -1 if the column is not in this index.
+     */
+    public int indexOf(Object key)
+    {
+        if (!(key instanceof String name))
+            return -1;
+
+        Integer index = _exact.get(name);
+        if (null == index)
+            index = _lowerCase.get(name.toLowerCase(Locale.ROOT));
+        return null == index ? -1 : index;
+    }
+
+    /**
+     * @param index The column position.
+     * @return The column name, as supplied when the index was created.
+     */
+    public String getName(int index)
+    {
+        return _names[index];
+    }
+
+    public int size()
+    {
+        return _names.length;
+    }
+
+    public List<String> getNames()
+    {
+        return Collections.unmodifiableList(Arrays.asList(_names));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ColumnIndex" + Arrays.toString(_names);
+    }
+}
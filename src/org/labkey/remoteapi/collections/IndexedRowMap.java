@@ -0,0 +1,286 @@
+package org.labkey.remoteapi.collections;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A case-insensitive row map that stores its values in a flat array, positioned by a {@link ColumnIndex} that is
+ * shared by every row of a result. This behaves like a {@link CaseInsensitiveHashMap} (keys are reported with the
+ * index's casing) but costs one array per row instead of two hash maps. Keys that aren't in the index, such as those
+ * added by the caller, are kept in a small per-row overflow map created on first use.
+ * <p>
+ * Like HashMap, this class is not thread-safe for modification.
+ */
+public class IndexedRowMap extends AbstractMap<String, Object>
+{
+    // Marks a position whose column is absent from this row, as distinct from a null value
+    private static final Object ABSENT = new Object();
+
+    private final ColumnIndex _index;
+    private final Object[] _values;
+    private int _count = 0;
+    private CaseInsensitiveHashMap<Object> _overflow = null;
+
+    /**
+     * Constructs an empty row.
+     * @param index The column index shared by the rows of a result.
+     */
+    public IndexedRowMap(ColumnIndex index)
+    {
+        _index = index;
+        _values = new Object[index.size()];
+        Arrays.fill(_values, ABSENT);
+    }
+
+    /**
+     * Constructs a row containing the entries of the given map.
+     * @param index The column index shared by the rows of a result.
+     * @param row The row values to copy.
+     */
+    public IndexedRowMap(ColumnIndex index, Map<String, ?> row)
+    {
+        this(index);
+        for (Map.Entry<String, ?> entry : row.entrySet())
+            put(entry.getKey(), entry.getValue());
+    }
+
+    public ColumnIndex getColumnIndex()
+    {
+        return _index;
+    }
+
+    @Override
+    public int size()
+    {
+        return _count + (null == _overflow ? 0 : _overflow.size());
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        int i = _index.indexOf(key);
+        if (i >= 0)
+            return ABSENT != _values[i];
+        return null != _overflow && _overflow.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key)
+    {
+        int i = _index.indexOf(key);
+        if (i >= 0)
+        {
+            Object value = _values[i];
+            return ABSENT == value ? null : value;
+        }
+        return null == _overflow ? null : _overflow.get(key);
+    }
+
+    /**
+     * Returns the value at a position in the column index, without a name lookup.
+     * @param index The column position.
+     * @return The value, or null if the row has no value for that column.
+     */
+    public Object getAt(int index)
+    {
+        Object value = _values[index];
+        return ABSENT == value ? null : value;
+    }
+
+    @Override
+    public Object put(String key, Object value)
+    {
+        int i = _index.indexOf(key);
+        if (i >= 0)
+        {
+            Object old = _values[i];
+            _values[i] = value;
+            if (ABSENT == old)
+            {
+                _count++;
+                return null;
+            }
+            return old;
+        }
+
+        if (null == _overflow)
+            _overflow = new CaseInsensitiveHashMap<>();
+        return _overflow.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key)
+    {
+        int i = _index.indexOf(key);
+        if (i >= 0)
+            return removeAt(i);
+        return null == _overflow ? null : _overflow.remove(key);
+    }
+
+    private Object removeAt(int i)
+    {
+        Object old = _values[i];
+        if (ABSENT == old)
+            return null;
+        _values[i] = ABSENT;
+        _count--;
+        return old;
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(_values, ABSENT);
+        _count = 0;
+        _overflow = null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet()
+    {
+        return new AbstractSet<>()
+        {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator()
+            {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return IndexedRowMap.this.size();
+            }
+
+            @Override
+            public void clear()
+            {
+                IndexedRowMap.this.clear();
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>>
+    {
+        private int _next = -1;
+        private int _last = -1;
+        private Iterator<Map.Entry<String, Object>> _overflowIterator = null;
+
+        private EntryIterator()
+        {
+            advance();
+        }
+
+        private void advance()
+        {
+            do
+            {
+                _next++;
+            }
+            while (_next < _values.length && ABSENT == _values[_next]);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if (_next < _values.length)
+                return true;
+            if (null == _overflowIterator && null != _overflow)
+                _overflowIterator = _overflow.entrySet().iterator();
+            return null != _overflowIterator && _overflowIterator.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, Object> next()
+        {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            if (_next < _values.length)
+            {
+                _last = _next;
+                advance();
+                return new IndexedEntry(_last);
+            }
+
+            _last = -1;
+            return _overflowIterator.next();
+        }
+
+        @Override
+        public void remove()
+        {
+            if (_last >= 0)
+            {
+                if (ABSENT == _values[_last])
+                    throw new IllegalStateException();
+                removeAt(_last);
+            }
+            else if (null != _overflowIterator)
+            {
+                _overflowIterator.remove();
+            }
+            else
+            {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private class IndexedEntry implements Map.Entry<String, Object>
+    {
+        private final int _i;
+
+        private IndexedEntry(int i)
+        {
+            _i = i;
+        }
+
+        @Override
+        public String getKey()
+        {
+            return _index.getName(_i);
+        }
+
+        @Override
+        public Object getValue()
+        {
+            Object value = _values[_i];
+            return ABSENT == value ? null : value;
+        }
+
+        @Override
+        public Object setValue(Object value)
+        {
+            Object old = getValue();
+            if (ABSENT == _values[_i])
+                _count++;
+            _values[_i] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Map.Entry<?, ?> e && Objects.equals(getKey(), e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString()
+        {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -41,6 +41,12 @@ else if (_domainId != null)
         return params;
     }
 
+    @Override
+    protected boolean isCacheable()
+    {
+        return true;
+    }
+
     @Override
     protected DomainDetailsResponse createResponse(String text, int status, String contentType, JSONObject json)
     {
@@ -62,6 +62,12 @@ public void setContainerPath(String containerPath)
         _containerPath = containerPath;
     }
 
+    @Override
+    protected boolean isCacheable()
+    {
+        return true;
+    }
+
     @Override
     protected ListDomainsResponse createResponse(String text, int status, String contentType, JSONObject json)
     {
@@ -21,7 +21,6 @@
 import org.labkey.remoteapi.query.Filter;
 import org.labkey.remoteapi.query.SelectRowsResponse;
 
-import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -69,25 +68,8 @@ public LineageNode(String lsid, Map<String, Object> map)
         _expType = (String)map.get("expType");
         _url = (String)map.get("url");
 
-        Date created = null;
-        Date modified = null;
-        DateParser dateParser = new DateParser();
-        try
-        {
-            String createdStr = (String) map.get("created");
-            if (createdStr != null && createdStr.length() > 0)
-                created = dateParser.parse(createdStr);
-            String modifiedStr = (String) map.get("modified");
-            if (modifiedStr != null && modifiedStr.length() > 0)
-                modified = dateParser.parse(modifiedStr);
-        }
-        catch (ParseException e)
-        {
-            //just log it--if it doesn't parse, we can't fix it up
-            LogFactory.getLog(SelectRowsResponse.class).warn("Failed to parse date: " + e.getMessage(), e);
-        }
-        _created = created;
-        _modified = modified;
+        _created = parseDate((String) map.get("created"));
+        _modified = parseDate((String) map.get("modified"));
 
         _createdBy = (String) map.get("createdBy");
         _modifiedBy = (String)map.get("modifiedBy");
@@ -101,6 +83,20 @@ public LineageNode(String lsid, Map<String, Object> map)
         _properties = (Map<String, Object>)map.getOrDefault("properties", Collections.emptyMap());
     }
 
+    private static Date parseDate(String s)
+    {
+        if (s == null || s.isEmpty())
+            return null;
+
+        Date date = DateParser.INSTANCE.parseDate(s);
+        if (date == null)
+        {
+            //just log it--if it doesn't parse, we can't fix it up
+            LogFactory.getLog(SelectRowsResponse.class).warn("Failed to parse date: " + s);
+        }
+        return date;
+    }
+
     void fixup(Map<String, LineageNode> nodes)
     {
         _children = fixupEdges(nodes, (List<Map<String, Object>>) getAllProperties().get("children"));
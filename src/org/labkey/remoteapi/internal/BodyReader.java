@@ -0,0 +1,93 @@
+package org.labkey.remoteapi.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a UTF-8 response body into memory as text. Bytes are read in bulk into a per-thread buffer, sized from the
+ * Content-Length when the server sends one, and decoded into a String in a single pass.
+ * <p>
+ * Buffers up to {@link #MAX_RETAINED_BUFFER} are kept for reuse by the thread, so reading a small body allocates
+ * little more than the String. Larger bodies get byte buffers of their own, so a single large response doesn't pin
+ * memory for the life of the thread; reading one allocates the byte buffer as well as the String.
+ */
+public class BodyReader
+{
+    public static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER = 8 * 1024;
+    // The largest buffer allocated up front from a Content-Length; a larger body grows the buffer as it's read
+    private static final int MAX_PRESIZED_BUFFER = 16 * 1024 * 1024;
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private BodyReader()
+    {
+        // Static utility class. Do not construct.
+    }
+
+    /**
+     * Reads the rest of the stream as UTF-8 text, replacing malformed input as {@link String#String(byte[],
+     * java.nio.charset.Charset)} does. The stream is not closed.
+     * @param in The body
+     * @param contentLength The body's length from the Content-Length header, or null if not known. It's only used to
+     * size the buffer, and at most 16MB is allocated up front from it, so a wrong value doesn't change the result and
+     * wastes at most that allocation.
+     * @return The text
+     */
+    public static String readString(InputStream in, Long contentLength) throws IOException
+    {
+        Buffers buffers = BUFFERS.get();
+        try
+        {
+            int length = buffers.read(in, contentLength);
+            return new String(buffers._bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        finally
+        {
+            buffers.release();
+        }
+    }
+
+    private static class Buffers
+    {
+        private byte[] _bytes = new byte[INITIAL_BUFFER];
+
+        /**
+         * Reads the stream to the end into the byte buffer, which is grown as needed
+         * @return The number of bytes read
+         */
+        private int read(InputStream in, Long contentLength) throws IOException
+        {
+            // One extra byte lets us detect the end of the stream without growing the buffer when the length is right
+            if (null != contentLength && contentLength >= 0 && contentLength + 1 > _bytes.length)
+                _bytes = new byte[(int)Math.min(contentLength + 1, MAX_PRESIZED_BUFFER)];
+
+            int length = 0;
+            while (true)
+            {
+                if (length == _bytes.length)
+                {
+                    if (length >= Integer.MAX_VALUE - 8)
+                        throw new IOException("Response body is too large to read into memory");
+                    _bytes = Arrays.copyOf(_bytes, (int)Math.min((long)length * 2, Integer.MAX_VALUE - 8));
+                }
+
+                int count = in.read(_bytes, length, _bytes.length - length);
+                if (count < 0)
+                    return length;
+                length += count;
+            }
+        }
+
+        /**
+         * Drops a byte buffer that has grown too large to keep
+         */
+        private void release()
+        {
+            if (_bytes.length > MAX_RETAINED_BUFFER)
+                _bytes = new byte[INITIAL_BUFFER];
+        }
+    }
+}
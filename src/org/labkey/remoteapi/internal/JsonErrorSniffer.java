@@ -0,0 +1,241 @@
+package org.labkey.remoteapi.internal;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Watches a JSON response body as it's read for a top-level "exception" property, which LabKey Server uses to report
+ * an error in a response that has already been sent with a 200 status. The bytes pass through unchanged; the sniffer
+ * tracks just enough of the JSON structure (nesting depth, strings, and the names of top-level properties) to spot the
+ * property wherever it appears, so error detection doesn't depend on the size of the response or on buffering it.
+ * The values of "exception" and "exceptionClass" are captured when they're strings.
+ * <p>
+ * The structural characters of JSON are all ASCII, so the body is scanned as UTF-8 bytes without decoding it. If the
+ * body isn't a JSON object, the sniffer does nothing.
+ */
+public class JsonErrorSniffer extends FilterInputStream
+{
+    private static final String EXCEPTION = "exception";
+    private static final String EXCEPTION_CLASS = "exceptionClass";
+    private static final int MAX_NAME_LENGTH = 32;
+    private static final int MAX_VALUE_LENGTH = 64 * 1024;
+
+    private boolean _started = false;
+    private boolean _active = true;
+    private int _depth = 0;
+    private boolean _inString = false;
+    private boolean _escaped = false;
+    private boolean _expectName = false;
+
+    // The top-level property name being read, or whose value is being read
+    private final ByteArrayOutputStream _name = new ByteArrayOutputStream(MAX_NAME_LENGTH);
+    private boolean _inName = false;
+    private String _currentName = null;
+
+    // The string value being captured, and which property it belongs to
+    private ByteArrayOutputStream _value = null;
+    private String _capturing = null;
+
+    private boolean _exceptionFound = false;
+    private String _exception = null;
+    private String _exceptionClass = null;
+
+    public JsonErrorSniffer(InputStream in)
+    {
+        super(in);
+    }
+
+    /**
+     * @return true if a top-level "exception" property has been read.
+     */
+    public boolean isExceptionFound()
+    {
+        return _exceptionFound;
+    }
+
+    /**
+     * @return The message from the top-level "exception" property, or null if none has been read or its value isn't
+     * a string.
+     */
+    public String getException()
+    {
+        return _exception;
+    }
+
+    /**
+     * @return The top-level "exceptionClass" property, or null if none has been read.
+     */
+    public String getExceptionClass()
+    {
+        return _exceptionClass;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b = super.read();
+        if (b >= 0 && _active)
+            scan((byte)b);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        int count = super.read(b, off, len);
+        // Scanning stops as soon as it's no longer needed, which may be partway through the buffer
+        for (int i = off; i < off + count && _active; i++)
+            scan(b[i]);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        // Read rather than skip, so the skipped bytes are scanned
+        byte[] buffer = new byte[(int)Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n)
+        {
+            int count = read(buffer, 0, (int)Math.min(buffer.length, n - skipped));
+            if (count < 0)
+                break;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    private void scan(byte b)
+    {
+        if (_inString)
+        {
+            if (_escaped)
+                _escaped = false;
+            else if (b == '\\')
+                _escaped = true;
+            else if (b == '"')
+            {
+                _inString = false;
+                endString();
+                return;
+            }
+
+            if (_inName)
+            {
+                if (_name.size() <= MAX_NAME_LENGTH)
+                    _name.write(b);
+            }
+            else if (null != _value && _value.size() < MAX_VALUE_LENGTH)
+            {
+                _value.write(b);
+            }
+            return;
+        }
+
+        switch (b)
+        {
+            case ' ', '\t', '\r', '\n' -> {
+                return;
+            }
+            case '"' -> {
+                if (!_started)
+                {
+                    _active = false;
+                    return;
+                }
+                _inString = true;
+                if (1 == _depth && _expectName)
+                {
+                    _inName = true;
+                    _name.reset();
+                }
+                else if (1 == _depth && null != _capturing)
+                {
+                    _value = new ByteArrayOutputStream();
+                }
+            }
+            case '{', '[' -> {
+                if (!_started && b == '[')
+                {
+                    _active = false;
+                    return;
+                }
+                _depth++;
+                _expectName = b == '{' && 1 == _depth;
+                _capturing = null;
+            }
+            case '}', ']' -> {
+                _depth--;
+                // The end of the top-level object; there are no more properties to check
+                if (0 == _depth)
+                    _active = false;
+            }
+            case ',' -> {
+                if (1 == _depth)
+                {
+                    _expectName = true;
+                    _capturing = null;
+                }
+            }
+            case ':' -> {
+                if (1 == _depth)
+                {
+                    if (EXCEPTION.equals(_currentName))
+                        _exceptionFound = true;
+                    if (EXCEPTION.equals(_currentName) || EXCEPTION_CLASS.equals(_currentName))
+                        _capturing = _currentName;
+                }
+            }
+            default -> {
+                // Part of a number or literal value
+                if (!_started)
+                {
+                    _active = false;
+                    return;
+                }
+                if (1 == _depth)
+                    _capturing = null;
+            }
+        }
+        _started = true;
+    }
+
+    private void endString()
+    {
+        if (_inName)
+        {
+            _inName = false;
+            _expectName = false;
+            _currentName = _name.size() > MAX_NAME_LENGTH ? null : _name.toString(StandardCharsets.UTF_8);
+        }
+        else if (null != _value)
+        {
+            String value = unescape(_value.toString(StandardCharsets.UTF_8));
+            if (EXCEPTION.equals(_capturing))
+                _exception = value;
+            else
+                _exceptionClass = value;
+            _value = null;
+            _capturing = null;
+        }
+    }
+
+    private static String unescape(String raw)
+    {
+        try
+        {
+            return new JSONTokener("\"" + raw + "\"").nextValue().toString();
+        }
+        catch (JSONException e)
+        {
+            // The value was truncated mid-escape; the raw text is close enough for an error message
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.labkey.remoteapi.internal;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal pull-style JSON reader layered on {@link JSONTokener}. Callers walk the document one name or array element
+ * at a time, so arbitrarily large arrays can be consumed without materializing the whole document. Values read via
+ * {@link #readValue()} are built directly as {@link Map}s and {@link List}s, matching the structure (and value types)
+ * produced by {@link JSONObject#toMap()}, but without the intermediate {@link JSONObject} tree.
+ */
+public class JsonStreamReader implements Closeable
+{
+    private final Reader _reader;
+    private final JSONTokener _tokener;
+
+    public JsonStreamReader(Reader reader)
+    {
+        _reader = reader;
+        _tokener = new JSONTokener(reader);
+    }
+
+    /**
+     * Consumes the opening brace of an object
+     */
+    public void beginObject()
+    {
+        expect('{');
+    }
+
+    /**
+     * Returns the next property name of the current object and consumes the following colon, or returns null (after
+     * consuming the closing brace) if the object has no more properties.
+     */
+    public String nextName()
+    {
+        char c = _tokener.nextClean();
+        if (c == ',')
+            c = _tokener.nextClean();
+        if (c == '}')
+            return null;
+        if (c != '"' && c != '\'')
+            throw _tokener.syntaxError("Expected a property name");
+
+        String name = _tokener.nextString(c);
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Consumes the opening bracket of an array
+     */
+    public void beginArray()
+    {
+        expect('[');
+    }
+
+    /**
+     * Returns true if the current array has another element, positioning the reader at the start of that element.
+     * Returns false (after consuming the closing bracket) at the end of the array.
+     */
+    public boolean hasNextElement()
+    {
+        char c = _tokener.nextClean();
+        if (c == ',')
+            c = _tokener.nextClean();
+        if (c == ']')
+            return false;
+        if (c == 0)
+            throw _tokener.syntaxError("Unterminated array");
+        _tokener.back();
+        return true;
+    }
+
+    /**
+     * Returns the first character of the next value, without consuming it: '{' for an object, '[' for an array, '"'
+     * for a string, and so on. Returns 0 at the end of the input.
+     */
+    public char peek()
+    {
+        char c = _tokener.nextClean();
+        if (c != 0)
+            _tokener.back();
+        return c;
+    }
+
+    /**
+     * Reads the next value, which must be an object, adding its properties to the given map. This lets callers
+     * choose the Map implementation, e.g., to read rows directly into a specialized row map.
+     * @return The map that was passed in.
+     */
+    public Map<String, Object> readObject(Map<String, Object> map)
+    {
+        beginObject();
+        return readObjectBody(map);
+    }
+
+    /**
+     * Reads the next complete value: a Map for an object, a List for an array, null for JSON null, or the String,
+     * Number, or Boolean that {@link JSONTokener#nextValue()} produces for a primitive.
+     */
+    public Object readValue()
+    {
+        char c = _tokener.nextClean();
+        switch (c)
+        {
+            case '{':
+                return readObjectBody(new HashMap<>());
+            case '[':
+                return readArrayBody();
+            case 0:
+                throw _tokener.syntaxError("Unexpected end of input");
+            default:
+                _tokener.back();
+                Object value = _tokener.nextValue();
+                return JSONObject.NULL.equals(value) ? null : value;
+        }
+    }
+
+    /**
+     * Reads and discards the next complete value
+     */
+    public void skipValue()
+    {
+        readValue();
+    }
+
+    private Map<String, Object> readObjectBody(Map<String, Object> map)
+    {
+        String name;
+        while (null != (name = nextName()))
+            map.put(name, readValue());
+        return map;
+    }
+
+    private List<Object> readArrayBody()
+    {
+        List<Object> list = new ArrayList<>();
+        while (hasNextElement())
+            list.add(readValue());
+        return list;
+    }
+
+    private void expect(char expected)
+    {
+        char c = _tokener.nextClean();
+        if (c != expected)
+            throw _tokener.syntaxError("Expected '" + expected + "' but found " + (c == 0 ? "end of input" : "'" + c + "'"));
+    }
+
+    /**
+     * Creates a JSONException that includes the current position in the input
+     */
+    public JSONException syntaxError(String message)
+    {
+        return _tokener.syntaxError(message);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        _reader.close();
+    }
+}
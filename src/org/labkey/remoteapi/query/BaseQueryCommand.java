@@ -298,4 +298,10 @@ public JSONObject getJsonObject()
 
         return json;
     }
+
+    @Override
+    protected boolean isIdempotent()
+    {
+        return true;
+    }
 }
@@ -39,7 +39,46 @@
 
     SelectRowsResponse execute(Connection connection, String folderPath) throws IOException, CommandException;
 
+    /**
+     * Executes the command and returns its rows as they're read from the response, rather than parsing the whole
+     * response into memory first. Implementations that don't support streaming throw UnsupportedOperationException.
+     */
+    default StreamingRowset stream(Connection connection, String folderPath) throws IOException, CommandException
+    {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support streaming its results");
+    }
+
     double getRequiredVersion();
 
     void setRequiredVersion(double requiredVersion);
+
+    default DateParser.ResultType getDateResultType()
+    {
+        return DateParser.ResultType.DATE;
+    }
+
+    /**
+     * Implementations that only return {@link java.util.Date} values throw UnsupportedOperationException for any other
+     * result type.
+     */
+    default void setDateResultType(DateParser.ResultType dateResultType)
+    {
+        if (dateResultType != DateParser.ResultType.DATE)
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support date result type " + dateResultType);
+    }
+
+    default boolean isLazyConversion()
+    {
+        return false;
+    }
+
+    /**
+     * Implementations that always convert rows as the response is read throw UnsupportedOperationException when asked
+     * to defer conversion.
+     */
+    default void setLazyConversion(boolean lazyConversion)
+    {
+        if (lazyConversion)
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support lazy conversion");
+    }
 }
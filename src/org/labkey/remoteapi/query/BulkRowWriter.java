@@ -0,0 +1,459 @@
+package org.labkey.remoteapi.query;
+
+import org.labkey.remoteapi.CommandException;
+import org.labkey.remoteapi.Connection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Inserts, updates, or deletes a large number of rows by splitting them into batches and sending each batch with its
+ * own {@link SaveRowsCommand}. Rows are added one at a time (or from an Iterator), so the caller never needs to hold
+ * the full set in memory; a batch is sent as soon as it reaches the configured row count or estimated size.
+ * <p>
+ * The writer takes a factory that creates a configured {@link InsertRowsCommand}, {@link UpdateRowsCommand}, or
+ * {@link DeleteRowsCommand} (schema, query, audit settings, etc.); the writer sets the rows for each batch.
+ * <p>
+ * By default, batches are committed in order, one at a time: the next batch is assembled while the previous one is
+ * in flight, and after a batch fails no further batches are sent. Call {@link #setOrdered(boolean)} with false to
+ * allow up to {@link #setMaxInFlight(int) maxInFlight} batches to be sent concurrently, in which case batches may
+ * commit in any order and a failure does not stop later batches.
+ * <p>
+ * Example:
+ * <pre><code>
+ * try (BulkRowWriter writer = new BulkRowWriter(cn, "Home", () -&gt; new InsertRowsCommand("lists", "People")))
+ * {
+ *     writer.setBatchSize(5000);
+ *     for (Map&lt;String, Object&gt; row : source)
+ *         writer.addRow(row);
+ * }
+ * </code></pre>
+ * Closing the writer sends any partial batch and waits for all batches to complete; it throws an IOException if any
+ * batch failed or rows were left unsent. Use {@link #getResults()} or a {@link #setBatchListener(Consumer) batch
+ * listener} to see the outcome of each batch. This class is not thread-safe; add rows from a single thread.
+ */
+public class BulkRowWriter implements Closeable
+{
+    private final Connection _connection;
+    private final String _folderPath;
+    private final Supplier<? extends SaveRowsCommand> _commandFactory;
+    private final List<BatchResult> _results = Collections.synchronizedList(new ArrayList<>());
+
+    private int _batchSize = 1000;
+    private long _maxBatchBytes = 8 * 1024 * 1024;
+    private int _maxInFlight = 2;
+    private boolean _ordered = true;
+    private Consumer<BatchResult> _batchListener = null;
+
+    private ExecutorService _executor = null;
+    private Semaphore _permits = null;
+    private List<Map<String, Object>> _batch = new ArrayList<>();
+    private long _batchBytes = 0;
+    private int _batchCount = 0;
+    private long _rowCount = 0;
+    private volatile BatchResult _orderedFailure = null;
+
+    /**
+     * @param connection The connection on which batches will be sent.
+     * @param folderPath The folder path in which to execute the commands.
+     * @param commandFactory Creates a new, configured save rows command for each batch.
+     */
+    public BulkRowWriter(Connection connection, String folderPath, Supplier<? extends SaveRowsCommand> commandFactory)
+    {
+        _connection = Objects.requireNonNull(connection);
+        _folderPath = folderPath;
+        _commandFactory = Objects.requireNonNull(commandFactory);
+    }
+
+    public int getBatchSize()
+    {
+        return _batchSize;
+    }
+
+    /**
+     * Sets the maximum number of rows per batch. Defaults to 1,000.
+     * @param batchSize The maximum row count of each batch.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        checkNotStarted();
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive");
+        _batchSize = batchSize;
+    }
+
+    public long getMaxBatchBytes()
+    {
+        return _maxBatchBytes;
+    }
+
+    /**
+     * Sets the approximate maximum size of a batch, estimated from the rows' JSON representation. A batch is sent
+     * once it reaches either this size or the batch row count. Defaults to 8MB.
+     * @param maxBatchBytes The approximate maximum size of each batch in bytes.
+     */
+    public void setMaxBatchBytes(long maxBatchBytes)
+    {
+        checkNotStarted();
+        if (maxBatchBytes < 1)
+            throw new IllegalArgumentException("Maximum batch size must be positive");
+        _maxBatchBytes = maxBatchBytes;
+    }
+
+    public int getMaxInFlight()
+    {
+        return _maxInFlight;
+    }
+
+    /**
+     * Sets the maximum number of batches sent concurrently when unordered. Defaults to 2. Ignored when ordered.
+     * @param maxInFlight The maximum number of concurrent batch requests.
+     */
+    public void setMaxInFlight(int maxInFlight)
+    {
+        checkNotStarted();
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("Maximum in-flight batches must be positive");
+        _maxInFlight = maxInFlight;
+    }
+
+    public boolean isOrdered()
+    {
+        return _ordered;
+    }
+
+    /**
+     * Sets whether batches are committed in order, one at a time (the default), or concurrently in any order.
+     * @param ordered False to allow concurrent, unordered commits.
+     */
+    public void setOrdered(boolean ordered)
+    {
+        checkNotStarted();
+        _ordered = ordered;
+    }
+
+    /**
+     * Sets a listener that is notified as each batch completes or fails. The listener is called on a worker thread.
+     * @param batchListener The listener, or null for none.
+     */
+    public void setBatchListener(Consumer<BatchResult> batchListener)
+    {
+        checkNotStarted();
+        _batchListener = batchListener;
+    }
+
+    /**
+     * Adds a row, sending the current batch if it is full. Blocks if the maximum number of batches are in flight.
+     * @param row The row to add.
+     * @throws IllegalStateException if ordered and an earlier batch failed.
+     */
+    public void addRow(Map<String, Object> row)
+    {
+        checkOrderedFailure();
+
+        _batch.add(row);
+        _batchBytes += estimateSize(row);
+        _rowCount++;
+
+        if (_batch.size() >= _batchSize || _batchBytes >= _maxBatchBytes)
+            sendBatch();
+    }
+
+    /**
+     * Adds all rows from the iterator. See {@link #addRow(Map)}.
+     * @param rows The rows to add.
+     */
+    public void addRows(Iterator<? extends Map<String, Object>> rows)
+    {
+        while (rows.hasNext())
+            addRow(rows.next());
+    }
+
+    /**
+     * Sends the current partial batch, if any, and waits for all batches to complete.
+     * @throws IOException if interrupted while waiting, or if any batch has failed or rows were left unsent. The
+     * exception's cause is the first failure; see {@link #getFailures()} for the rest.
+     */
+    public void flush() throws IOException
+    {
+        if (null == _orderedFailure && !_batch.isEmpty())
+        {
+            try
+            {
+                sendBatch();
+            }
+            catch (IllegalStateException e)
+            {
+                // An earlier batch failed while we waited to send this one, which is reported below
+                if (null == _orderedFailure)
+                    throw e;
+            }
+        }
+
+        if (null != _permits)
+        {
+            int permits = _ordered ? 1 : _maxInFlight;
+            try
+            {
+                _permits.acquire(permits);
+                _permits.release(permits);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for batches to complete", e);
+            }
+        }
+
+        List<BatchResult> failures = getFailures();
+        if (!failures.isEmpty())
+        {
+            BatchResult first = failures.get(0);
+            String message = failures.size() + " of " + _batchCount + " batches failed, starting with batch " + first.getBatchIndex();
+            if (!_batch.isEmpty())
+                message += "; " + _batch.size() + " rows were not sent";
+            throw new IOException(message, first.getException());
+        }
+    }
+
+    /**
+     * Returns the outcome of every completed batch, ordered by batch index.
+     * @return The batch results.
+     */
+    public List<BatchResult> getResults()
+    {
+        List<BatchResult> results;
+        synchronized (_results)
+        {
+            results = new ArrayList<>(_results);
+        }
+        results.sort(Comparator.comparingInt(BatchResult::getBatchIndex));
+        return results;
+    }
+
+    /**
+     * @return The results of batches that failed, ordered by batch index.
+     */
+    public List<BatchResult> getFailures()
+    {
+        List<BatchResult> failures = new ArrayList<>();
+        for (BatchResult result : getResults())
+        {
+            if (!result.isSuccess())
+                failures.add(result);
+        }
+        return failures;
+    }
+
+    /**
+     * @return The number of rows added so far.
+     */
+    public long getRowCount()
+    {
+        return _rowCount;
+    }
+
+    /**
+     * Sends any partial batch, waits for all batches to complete, and releases the worker threads.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            if (null != _executor)
+            {
+                _executor.shutdown();
+                try
+                {
+                    _executor.awaitTermination(1, TimeUnit.MINUTES);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void sendBatch()
+    {
+        if (null == _executor)
+        {
+            int threads = _ordered ? 1 : _maxInFlight;
+            _executor = Executors.newFixedThreadPool(threads);
+            _permits = new Semaphore(threads);
+        }
+
+        try
+        {
+            _permits.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to send batch " + _batchCount, e);
+        }
+
+        // An earlier batch may have failed while we were waiting. Check before detaching the batch so its rows are
+        // still counted as unsent.
+        if (null != _orderedFailure)
+        {
+            _permits.release();
+            checkOrderedFailure();
+        }
+
+        List<Map<String, Object>> rows = _batch;
+        int batchIndex = _batchCount++;
+        long firstRow = _rowCount - rows.size();
+        _batch = new ArrayList<>();
+        _batchBytes = 0;
+
+        _executor.execute(() -> {
+            BatchResult result;
+            try
+            {
+                SaveRowsCommand cmd = _commandFactory.get();
+                cmd.setRows(rows);
+                result = new BatchResult(batchIndex, firstRow, rows.size(), cmd.execute(_connection, _folderPath), null);
+            }
+            catch (IOException | CommandException | RuntimeException e)
+            {
+                result = new BatchResult(batchIndex, firstRow, rows.size(), null, e);
+                if (_ordered)
+                    _orderedFailure = result;
+            }
+
+            try
+            {
+                _results.add(result);
+                if (null != _batchListener)
+                    _batchListener.accept(result);
+            }
+            finally
+            {
+                _permits.release();
+            }
+        });
+    }
+
+    private void checkOrderedFailure()
+    {
+        BatchResult failure = _orderedFailure;
+        if (null != failure)
+            throw new IllegalStateException("Batch " + failure.getBatchIndex() + " failed; no further batches will be sent", failure.getException());
+    }
+
+    private void checkNotStarted()
+    {
+        if (null != _executor)
+            throw new IllegalStateException("Writer settings can't be changed after the first batch is sent");
+    }
+
+    // Rough estimate of the JSON size of a row; close enough to bound request sizes. Only strings are measured;
+    // other values get a typical width rather than being converted to text just to be counted.
+    private static long estimateSize(Map<String, Object> row)
+    {
+        long size = 2;
+        for (Map.Entry<String, Object> entry : row.entrySet())
+            size += entry.getKey().length() + estimateSize(entry.getValue()) + 6;
+        return size;
+    }
+
+    private static int estimateSize(Object value)
+    {
+        if (null == value)
+            return 4;
+        if (value instanceof CharSequence chars)
+            return chars.length() + 2;
+        if (value instanceof Number)
+            return 12;
+        if (value instanceof Boolean)
+            return 5;
+        return 32;
+    }
+
+    /**
+     * The outcome of sending one batch
+     */
+    public static class BatchResult
+    {
+        private final int _batchIndex;
+        private final long _firstRowIndex;
+        private final int _rowCount;
+        private final SaveRowsResponse _response;
+        private final Exception _exception;
+
+        private BatchResult(int batchIndex, long firstRowIndex, int rowCount, SaveRowsResponse response, Exception exception)
+        {
+            _batchIndex = batchIndex;
+            _firstRowIndex = firstRowIndex;
+            _rowCount = rowCount;
+            _response = response;
+            _exception = exception;
+        }
+
+        /**
+         * @return The zero-based position of this batch in the order batches were created.
+         */
+        public int getBatchIndex()
+        {
+            return _batchIndex;
+        }
+
+        /**
+         * @return The zero-based index (across all rows added to the writer) of the first row in this batch.
+         */
+        public long getFirstRowIndex()
+        {
+            return _firstRowIndex;
+        }
+
+        /**
+         * @return The number of rows in this batch.
+         */
+        public int getRowCount()
+        {
+            return _rowCount;
+        }
+
+        public boolean isSuccess()
+        {
+            return null == _exception;
+        }
+
+        /**
+         * @return The server's response, or null if the batch failed.
+         */
+        public SaveRowsResponse getResponse()
+        {
+            return _response;
+        }
+
+        /**
+         * @return The IOException, CommandException, or RuntimeException that caused the batch to fail, or null if
+         * the batch succeeded.
+         */
+        public Exception getException()
+        {
+            return _exception;
+        }
+    }
+}
@@ -0,0 +1,578 @@
+package org.labkey.remoteapi.query;
+
+import org.labkey.remoteapi.CommandException;
+import org.labkey.remoteapi.Connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Imports a large delimited (TSV or CSV) file as a series of smaller {@link ImportDataCommand} uploads, so a network
+ * failure near the end of a multi-gigabyte load costs one chunk rather than the whole file, and several chunks can be
+ * sent in parallel. The file is split on row boundaries (line breaks inside quoted values are respected) into chunks
+ * of at most {@link #setChunkRows(int) chunkRows} rows or about {@link #setChunkBytes(long) chunkBytes} bytes, and each
+ * chunk is streamed from disk with the file's header row prepended; no chunk is held in memory or written to disk.
+ * Each chunk is read from the file again for every attempt, so with a {@link org.labkey.remoteapi.RetryPolicy} that
+ * retries non-idempotent commands, a transient failure resends just that chunk.
+ * <p>
+ * With a {@link #setCheckpointFile(Path) checkpoint file}, the index of each chunk the server confirms is recorded as
+ * it completes. If the import is interrupted or a chunk fails, calling {@link #importFile(Path)} again with the same
+ * file, settings, and checkpoint file sends only the chunks that weren't confirmed. A chunk whose confirmation was
+ * lost (e.g., the connection dropped after the server committed it) is sent again, so use
+ * {@link ImportDataCommand.InsertOption#MERGE} for tables that support it if duplicate rows are a concern.
+ * <p>
+ * The command factory creates a configured command for each chunk (insert option, compression, etc.); the importer
+ * sets the data. Example:
+ * <pre><code>
+ * ChunkedFileImporter importer = new ChunkedFileImporter(cn, "Home", () -&gt; {
+ *     ImportDataCommand cmd = new ImportDataCommand("lists", "Measurements");
+ *     cmd.setInsertOption(ImportDataCommand.InsertOption.MERGE);
+ *     cmd.setCompress(true);
+ *     return cmd;
+ * });
+ * importer.setCheckpointFile(Path.of("measurements.tsv.checkpoint"));
+ * importer.setMaxInFlight(4);
+ * List&lt;ChunkedFileImporter.ChunkResult&gt; results = importer.importFile(Path.of("measurements.tsv"));
+ * </code></pre>
+ * After a chunk fails, no further chunks are started, though chunks already in flight complete. This class is not
+ * thread-safe; import one file at a time.
+ */
+public class ChunkedFileImporter
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Connection _connection;
+    private final String _folderPath;
+    private final Supplier<? extends ImportDataCommand> _commandFactory;
+
+    private int _chunkRows = 100_000;
+    private long _chunkBytes = 64 * 1024 * 1024;
+    private int _maxInFlight = 2;
+    private Path _checkpointFile = null;
+    private Consumer<ChunkResult> _chunkListener = null;
+
+    /**
+     * @param connection The connection on which chunks will be sent.
+     * @param folderPath The folder path in which to execute the commands.
+     * @param commandFactory Creates a new, configured import data command for each chunk.
+     */
+    public ChunkedFileImporter(Connection connection, String folderPath, Supplier<? extends ImportDataCommand> commandFactory)
+    {
+        _connection = Objects.requireNonNull(connection);
+        _folderPath = folderPath;
+        _commandFactory = Objects.requireNonNull(commandFactory);
+    }
+
+    public int getChunkRows()
+    {
+        return _chunkRows;
+    }
+
+    /**
+     * Sets the maximum number of data rows per chunk. Defaults to 100,000.
+     * @param chunkRows The maximum row count of each chunk.
+     */
+    public void setChunkRows(int chunkRows)
+    {
+        if (chunkRows < 1)
+            throw new IllegalArgumentException("Chunk rows must be positive");
+        _chunkRows = chunkRows;
+    }
+
+    public long getChunkBytes()
+    {
+        return _chunkBytes;
+    }
+
+    /**
+     * Sets the approximate maximum size of a chunk. A chunk ends at the first row boundary after it reaches either this
+     * size or the chunk row count. Defaults to 64MB.
+     * @param chunkBytes The approximate maximum size of each chunk in bytes.
+     */
+    public void setChunkBytes(long chunkBytes)
+    {
+        if (chunkBytes < 1)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        _chunkBytes = chunkBytes;
+    }
+
+    public int getMaxInFlight()
+    {
+        return _maxInFlight;
+    }
+
+    /**
+     * Sets the maximum number of chunks sent concurrently. Defaults to 2.
+     * @param maxInFlight The maximum number of concurrent chunk uploads.
+     */
+    public void setMaxInFlight(int maxInFlight)
+    {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("Maximum in-flight chunks must be positive");
+        _maxInFlight = maxInFlight;
+    }
+
+    public Path getCheckpointFile()
+    {
+        return _checkpointFile;
+    }
+
+    /**
+     * Sets the file in which confirmed chunks are recorded, making the import resumable. The checkpoint also records
+     * the data file's size and modification time and the chunk settings, since a resumed import must split the file
+     * the same way. Defaults to null (no checkpoint).
+     * @param checkpointFile The checkpoint file, which needn't exist yet, or null.
+     */
+    public void setCheckpointFile(Path checkpointFile)
+    {
+        _checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Sets a callback invoked (on a worker thread) as each chunk completes, e.g., to report progress.
+     * @param chunkListener The listener, or null for none.
+     */
+    public void setChunkListener(Consumer<ChunkResult> chunkListener)
+    {
+        _chunkListener = chunkListener;
+    }
+
+    /**
+     * Splits the file into chunks and imports those that aren't already recorded in the checkpoint file, waiting until
+     * all have completed.
+     * @param file The delimited file to import. Its first line must be the header row. A .csv file is read as
+     * comma-separated and any other as tab-separated.
+     * @return The outcome of each chunk sent by this call, ordered by chunk index. Chunks skipped because the checkpoint
+     * shows they were already imported, or not started because an earlier chunk failed, are not included.
+     * @throws IOException Thrown if the file or checkpoint can't be read, or if interrupted.
+     * @throws IllegalStateException if the checkpoint file was written for a different file or chunk settings.
+     */
+    public List<ChunkResult> importFile(Path file) throws IOException
+    {
+        Checkpoint checkpoint = new Checkpoint(file);
+        List<ChunkResult> results = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(_maxInFlight);
+        try (InputStream in = Files.newInputStream(file))
+        {
+            ChunkScanner scanner = new ChunkScanner(in, getDelimiter(file));
+            byte[] header = scanner.readHeader();
+            int chunkIndex = 0;
+            long firstRow = 0;
+            long start = scanner.getPosition();
+            int rows;
+            while ((rows = scanner.skipChunk()) > 0 && !checkpoint.hasFailure())
+            {
+                int index = chunkIndex++;
+                int rowCount = rows;
+                long first = firstRow;
+                long chunkStart = start;
+                long chunkEnd = scanner.getPosition();
+                firstRow += rows;
+                start = chunkEnd;
+
+                if (checkpoint.isCompleted(index))
+                    continue;
+
+                executor.execute(() -> {
+                    // Don't start new chunks once one has failed
+                    if (checkpoint.hasFailure())
+                        return;
+
+                    ChunkResult result = sendChunk(file, header, index, first, rowCount, chunkStart, chunkEnd);
+                    if (result.isSuccess())
+                        checkpoint.completed(index);
+                    else
+                        checkpoint.failed();
+
+                    results.add(result);
+                    if (null != _chunkListener)
+                        _chunkListener.accept(result);
+                });
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            try
+            {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                {
+                    // Keep waiting; chunk uploads are bounded by the connection's timeout
+                }
+            }
+            catch (InterruptedException e)
+            {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for chunks to complete", e);
+            }
+        }
+
+        if (null != checkpoint.getWriteFailure())
+            throw checkpoint.getWriteFailure();
+
+        List<ChunkResult> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingInt(ChunkResult::getChunkIndex));
+        return sorted;
+    }
+
+    /**
+     * @return The field delimiter of the file, judged as the server does by its extension: a comma for .csv files and
+     * a tab otherwise.
+     */
+    private static byte getDelimiter(Path file)
+    {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv") ? (byte)',' : (byte)'\t';
+    }
+
+    private ChunkResult sendChunk(Path file, byte[] header, int chunkIndex, long firstRow, int rowCount, long start, long end)
+    {
+        try
+        {
+            // The chunk is re-read from the file for each attempt, so a retry policy can resend it
+            ImportDataCommand cmd = _commandFactory.get();
+            cmd.setStreamSource(() -> new SequenceInputStream(new ByteArrayInputStream(header), new RangeInputStream(file, start, end)),
+                file.getFileName().toString());
+            return new ChunkResult(chunkIndex, firstRow, rowCount, cmd.execute(_connection, _folderPath), null);
+        }
+        catch (IOException | CommandException | RuntimeException e)
+        {
+            return new ChunkResult(chunkIndex, firstRow, rowCount, null, e);
+        }
+    }
+
+    /**
+     * Finds row boundaries in a delimited file: a line break ends a row unless it's inside a quoted value. As in the
+     * server's parser, a quote opens a quoted value only at the start of a field; elsewhere (e.g., <code>5" tall</code>)
+     * it's an ordinary character. Within a quoted value, a doubled quote ("") is an escaped quote rather than the end
+     * of the value. Line breaks, quotes, and delimiters are single bytes in UTF-8, so the file is scanned as bytes.
+     */
+    private class ChunkScanner
+    {
+        private final InputStream _in;
+        private final byte _delimiter;
+        private final byte[] _buffer = new byte[BUFFER_SIZE];
+        private int _length = 0;
+        private int _offset = 0;
+        private long _position = 0;
+        // Whether the next byte starts a field
+        private boolean _fieldStart = true;
+        private boolean _quoted = false;
+        // Whether the last byte closed a quoted value, so a quote now is an escaped quote within it
+        private boolean _closedQuote = false;
+
+        private ChunkScanner(InputStream in, byte delimiter)
+        {
+            _in = in;
+            _delimiter = delimiter;
+        }
+
+        private long getPosition()
+        {
+            return _position;
+        }
+
+        private byte[] readHeader() throws IOException
+        {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            if (!skipRow(header))
+                throw new IOException("The file is empty");
+            return header.toByteArray();
+        }
+
+        /**
+         * Advances past the next chunk of rows.
+         * @return The number of rows in the chunk; 0 at the end of the file
+         */
+        private int skipChunk() throws IOException
+        {
+            long start = _position;
+            int rows = 0;
+            while (rows < _chunkRows && _position - start < _chunkBytes && skipRow(null))
+                rows++;
+            return rows;
+        }
+
+        /**
+         * Advances past the next row, copying it to the output stream if there is one.
+         * @return false if there were no more rows (a final row without a line break counts as a row)
+         */
+        private boolean skipRow(OutputStream out) throws IOException
+        {
+            long start = _position;
+            while (true)
+            {
+                if (_offset == _length)
+                {
+                    _length = _in.read(_buffer);
+                    _offset = 0;
+                    if (_length < 0)
+                    {
+                        _length = 0;
+                        return _position > start;
+                    }
+                }
+
+                int from = _offset;
+                while (_offset < _length)
+                {
+                    byte b = _buffer[_offset++];
+                    if (_quoted)
+                    {
+                        if (b == '"')
+                        {
+                            _quoted = false;
+                            _closedQuote = true;
+                        }
+                        continue;
+                    }
+
+                    if (b == '"' && (_fieldStart || _closedQuote))
+                    {
+                        _quoted = true;
+                        _fieldStart = false;
+                        _closedQuote = false;
+                        continue;
+                    }
+
+                    _fieldStart = b == _delimiter || b == '\n';
+                    _closedQuote = false;
+                    if (b == '\n')
+                    {
+                        _position += _offset - from;
+                        if (null != out)
+                            out.write(_buffer, from, _offset - from);
+                        return true;
+                    }
+                }
+                _position += _offset - from;
+                if (null != out)
+                    out.write(_buffer, from, _offset - from);
+            }
+        }
+    }
+
+    /**
+     * Reads a byte range of a file.
+     */
+    private static class RangeInputStream extends FilterInputStream
+    {
+        private long _remaining;
+
+        private RangeInputStream(Path file, long start, long end) throws IOException
+        {
+            super(Files.newInputStream(file));
+            try
+            {
+                in.skipNBytes(start);
+            }
+            catch (IOException e)
+            {
+                in.close();
+                throw e;
+            }
+            _remaining = end - start;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (_remaining <= 0)
+                return -1;
+            int b = in.read();
+            if (b >= 0)
+                _remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (_remaining <= 0)
+                return -1;
+            int count = in.read(b, off, (int)Math.min(len, _remaining));
+            if (count > 0)
+                _remaining -= count;
+            return count;
+        }
+    }
+
+    /**
+     * Tracks which chunks have completed, persisting them to the checkpoint file (if any) after each success.
+     */
+    private class Checkpoint
+    {
+        private final Properties _properties = new Properties();
+        private final Set<Integer> _completed = new TreeSet<>();
+        private volatile boolean _failure = false;
+        private IOException _writeFailure = null;
+
+        private Checkpoint(Path file) throws IOException
+        {
+            _properties.setProperty("file", file.toAbsolutePath().toString());
+            _properties.setProperty("size", Long.toString(Files.size(file)));
+            _properties.setProperty("lastModified", Long.toString(Files.getLastModifiedTime(file).toMillis()));
+            _properties.setProperty("chunkRows", Integer.toString(_chunkRows));
+            _properties.setProperty("chunkBytes", Long.toString(_chunkBytes));
+
+            if (null != _checkpointFile && Files.exists(_checkpointFile))
+            {
+                Properties saved = new Properties();
+                try (InputStream in = Files.newInputStream(_checkpointFile))
+                {
+                    saved.load(in);
+                }
+
+                for (String name : _properties.stringPropertyNames())
+                {
+                    if (!_properties.getProperty(name).equals(saved.getProperty(name)))
+                        throw new IllegalStateException("Checkpoint file " + _checkpointFile + " doesn't match this import (" + name + " differs); delete it to start over");
+                }
+
+                String completed = saved.getProperty("completed", "");
+                for (String index : completed.split(","))
+                {
+                    if (!index.isBlank())
+                        _completed.add(Integer.parseInt(index.trim()));
+                }
+            }
+        }
+
+        private synchronized boolean isCompleted(int chunkIndex)
+        {
+            return _completed.contains(chunkIndex);
+        }
+
+        private synchronized void completed(int chunkIndex)
+        {
+            _completed.add(chunkIndex);
+            if (null == _checkpointFile)
+                return;
+
+            // Write a temporary file and rename it, so a crash never leaves a partial checkpoint
+            _properties.setProperty("completed", _completed.stream().map(String::valueOf).collect(Collectors.joining(",")));
+            try
+            {
+                Path temp = _checkpointFile.resolveSibling(_checkpointFile.getFileName() + ".tmp");
+                try (OutputStream out = Files.newOutputStream(temp))
+                {
+                    _properties.store(out, "ChunkedFileImporter checkpoint");
+                }
+                Files.move(temp, _checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e)
+            {
+                // Stop starting new chunks, since their completion couldn't be recorded either
+                if (null == _writeFailure)
+                    _writeFailure = e;
+                _failure = true;
+            }
+        }
+
+        private void failed()
+        {
+            _failure = true;
+        }
+
+        private boolean hasFailure()
+        {
+            return _failure;
+        }
+
+        private synchronized IOException getWriteFailure()
+        {
+            return _writeFailure;
+        }
+    }
+
+    /**
+     * The outcome of sending one chunk
+     */
+    public static class ChunkResult
+    {
+        private final int _chunkIndex;
+        private final long _firstRowIndex;
+        private final int _rowCount;
+        private final ImportDataResponse _response;
+        private final Exception _exception;
+
+        private ChunkResult(int chunkIndex, long firstRowIndex, int rowCount, ImportDataResponse response, Exception exception)
+        {
+            _chunkIndex = chunkIndex;
+            _firstRowIndex = firstRowIndex;
+            _rowCount = rowCount;
+            _response = response;
+            _exception = exception;
+        }
+
+        /**
+         * @return The zero-based position of this chunk in the file.
+         */
+        public int getChunkIndex()
+        {
+            return _chunkIndex;
+        }
+
+        /**
+         * @return The zero-based index (across all data rows in the file, excluding the header) of the first row in
+         * this chunk.
+         */
+        public long getFirstRowIndex()
+        {
+            return _firstRowIndex;
+        }
+
+        /**
+         * @return The number of rows in this chunk.
+         */
+        public int getRowCount()
+        {
+            return _rowCount;
+        }
+
+        public boolean isSuccess()
+        {
+            return null == _exception;
+        }
+
+        /**
+         * @return The server's response, or null if the chunk failed.
+         */
+        public ImportDataResponse getResponse()
+        {
+            return _response;
+        }
+
+        /**
+         * @return The IOException, CommandException, or RuntimeException that caused the chunk to fail, or null if
+         * the chunk succeeded.
+         */
+        public Exception getException()
+        {
+            return _exception;
+        }
+    }
+}
@@ -0,0 +1,925 @@
+package org.labkey.remoteapi.query;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact, read-only, in-memory {@link Rowset} that stores each column in a primitive array rather than each row
+ * in a map. Columns are typed from the response's "metaData.fields": int columns are stored as <code>int[]</code>
+ * (widened to <code>long[]</code> if a value doesn't fit), float columns as <code>double[]</code>, date columns as
+ * <code>long[]</code> epoch milliseconds (whether the command returns Date, Instant, or LocalDateTime values), boolean
+ * columns as bits, and string columns as dictionary-encoded <code>int[]</code> codes so repeated values are stored
+ * once. Nulls are tracked in a bitmap per column. A column that receives a value that doesn't match its type falls
+ * back to storing objects. Column names are stored once for the whole rowset.
+ * <p>
+ * Create one from a fully parsed response with {@link SelectRowsResponse#getColumnarRowset()}, or load one directly
+ * from a stream with {@link #from(StreamingRowset)} so that the row maps are never all held at once:
+ * <pre><code>
+ * ColumnarRowset rowset;
+ * try (StreamingRowset stream = new SelectRowsCommand("study", "Physical Exam").stream(cn, "Home/Study"))
+ * {
+ *     rowset = ColumnarRowset.from(stream);
+ * }
+ * int weight = rowset.getColumnIndex("Weight");
+ * for (int row = 0; row &lt; rowset.getSize(); row++)
+ * {
+ *     if (!rowset.isNull(row, weight))
+ *         total += rowset.getDouble(row, weight);
+ * }
+ * </code></pre>
+ * Iterating the rowset yields lightweight {@link Row} views, for compatibility with code written against
+ * {@link SelectRowsResponse#getRowset()}. Display values, URLs, and missing-value indicators (extended format only)
+ * are retained and available from the Row views. Column name lookups are case-insensitive. Instances are immutable
+ * once created and may be shared between threads.
+ */
+public class ColumnarRowset implements Rowset
+{
+    private final String[] _names;
+    private final SelectRowsResponse.ColumnDataType[] _types;
+    private final Map<String, Integer> _indexes = new HashMap<>();
+    private final Column[] _columns;
+    private int _size = 0;
+
+    private ColumnarRowset(List<Map<String, Object>> fields, int capacity)
+    {
+        int count = null == fields ? 0 : fields.size();
+        _names = new String[count];
+        _types = new SelectRowsResponse.ColumnDataType[count];
+        _columns = new Column[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            Map<String, Object> field = fields.get(i);
+            _names[i] = (String)field.get("name");
+            _types[i] = SelectRowsResponse.ColumnDataType.parseJsonType((String)field.get("type"));
+            _columns[i] = createColumn(_types[i], capacity);
+            _indexes.putIfAbsent(_names[i].toLowerCase(Locale.ROOT), i);
+        }
+    }
+
+    /**
+     * Loads all remaining rows from a streaming rowset. The stream must include the "metaData" section (as select
+     * responses from LabKey Server do). Closing the stream remains the caller's responsibility.
+     * @throws IllegalStateException if the stream has no meta-data section.
+     * @param rowset The stream from which to read rows.
+     * @return A columnar rowset containing the rows.
+     */
+    @SuppressWarnings("unchecked")
+    public static ColumnarRowset from(StreamingRowset rowset)
+    {
+        Map<String, Object> metaData = rowset.getMetaData();
+        if (null == metaData)
+            throw new IllegalStateException("The response has no metaData section; columns can't be determined.");
+
+        return load((List<Map<String, Object>>)metaData.get("fields"), rowset, 1024);
+    }
+
+    static ColumnarRowset load(List<Map<String, Object>> fields, Rowset rows, int capacity)
+    {
+        ColumnarRowset result = new ColumnarRowset(fields, Math.max(capacity, 16));
+        for (Row row : rows)
+            result.add(row);
+        result.trim();
+        return result;
+    }
+
+    private void add(Row row)
+    {
+        for (int i = 0; i < _columns.length; i++)
+        {
+            String name = _names[i];
+            Column column = _columns[i].set(_size, row.getValue(name));
+            column.setExtras(_size, row.getDisplayValue(name), row.getUrl(name), row.getMvValue(name), row.getMvRawValue(name));
+            _columns[i] = column;
+        }
+        _size++;
+    }
+
+    private void trim()
+    {
+        for (Column column : _columns)
+            column.trim(_size);
+    }
+
+    @Override
+    public int getSize()
+    {
+        return _size;
+    }
+
+    public int getColumnCount()
+    {
+        return _names.length;
+    }
+
+    /**
+     * @return The column names, in column index order.
+     */
+    public List<String> getColumnNames()
+    {
+        return Collections.unmodifiableList(Arrays.asList(_names));
+    }
+
+    /**
+     * Returns the index of a column, for use with the index-based accessors.
+     * @param columnName The column name (case-insensitive).
+     * @return The zero-based column index, or -1 if the column is not present.
+     */
+    public int getColumnIndex(String columnName)
+    {
+        Integer index = null == columnName ? null : _indexes.get(columnName.toLowerCase(Locale.ROOT));
+        return null == index ? -1 : index;
+    }
+
+    @Override
+    public int columnIndex(String columnName)
+    {
+        return getColumnIndex(columnName);
+    }
+
+    /**
+     * @param column The column index.
+     * @return The column's data type from the meta-data, or null if the type is not recognized.
+     */
+    public SelectRowsResponse.ColumnDataType getColumnType(int column)
+    {
+        return _types[column];
+    }
+
+    public boolean isNull(int row, int column)
+    {
+        checkRow(row);
+        return _columns[column].isNull(row);
+    }
+
+    /**
+     * Returns a value as an object (Integer, Long, Double, Boolean, String, or the original object). Date values are
+     * returned as the type the command produced: Date, Instant, or LocalDateTime.
+     * @param row The row index.
+     * @param column The column index.
+     * @return The value, or null.
+     */
+    public Object getValue(int row, int column)
+    {
+        checkRow(row);
+        Column c = _columns[column];
+        return c.isNull(row) ? null : c.get(row);
+    }
+
+    /**
+     * Returns a numeric value as an int without boxing.
+     * @param row The row index.
+     * @param column The column index.
+     * @return The value, or 0 if it's null.
+     * @throws ClassCastException if the value isn't numeric.
+     */
+    public int getInt(int row, int column)
+    {
+        checkRow(row);
+        Column c = _columns[column];
+        return c.isNull(row) ? 0 : c.getInt(row);
+    }
+
+    /**
+     * Returns a numeric value, or a date value as epoch milliseconds, as a long without boxing.
+     * @param row The row index.
+     * @param column The column index.
+     * @return The value, or 0 if it's null.
+     * @throws ClassCastException if the value isn't numeric or a date.
+     */
+    public long getLong(int row, int column)
+    {
+        checkRow(row);
+        Column c = _columns[column];
+        return c.isNull(row) ? 0 : c.getLong(row);
+    }
+
+    /**
+     * Returns a numeric value as a double without boxing.
+     * @param row The row index.
+     * @param column The column index.
+     * @return The value, or 0 if it's null.
+     * @throws ClassCastException if the value isn't numeric.
+     */
+    public double getDouble(int row, int column)
+    {
+        checkRow(row);
+        Column c = _columns[column];
+        return c.isNull(row) ? 0 : c.getDouble(row);
+    }
+
+    /**
+     * @param row The row index.
+     * @param column The column index.
+     * @return The value, or false if it's null.
+     * @throws ClassCastException if the value isn't a boolean.
+     */
+    public boolean getBoolean(int row, int column)
+    {
+        checkRow(row);
+        Column c = _columns[column];
+        return !c.isNull(row) && c.getBoolean(row);
+    }
+
+    /**
+     * @param row The row index.
+     * @param column The column index.
+     * @return The value as a new Date, or null if it's null.
+     * @throws ClassCastException if the value isn't a date.
+     */
+    public Date getDate(int row, int column)
+    {
+        checkRow(row);
+        Column c = _columns[column];
+        return c.isNull(row) ? null : new Date(c.getLong(row));
+    }
+
+    /**
+     * @param row The row index.
+     * @param column The column index.
+     * @return The value converted to a String, or null if it's null.
+     */
+    public String getString(int row, int column)
+    {
+        Object value = getValue(row, column);
+        return null == value ? null : value.toString();
+    }
+
+    /**
+     * @param row The row index.
+     * @return A view of the row.
+     */
+    public Row getRow(int row)
+    {
+        checkRow(row);
+        return new RowView(row);
+    }
+
+    @Override
+    public Iterator<Row> iterator()
+    {
+        return new Iterator<>()
+        {
+            private int _idx = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return _idx < _size;
+            }
+
+            @Override
+            public Row next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return new RowView(_idx++);
+            }
+        };
+    }
+
+    private void checkRow(int row)
+    {
+        if (row < 0 || row >= _size)
+            throw new IndexOutOfBoundsException("Row " + row + " is out of range (size " + _size + ")");
+    }
+
+    private static Column createColumn(SelectRowsResponse.ColumnDataType type, int capacity)
+    {
+        if (null == type)
+            return new ObjectColumn(capacity);
+
+        return switch (type)
+        {
+            case INT -> new IntColumn(capacity);
+            case FLOAT -> new DoubleColumn(capacity);
+            case DATE -> new DateColumn(capacity);
+            case BOOLEAN -> new BooleanColumn();
+            case STRING -> new StringColumn(capacity);
+        };
+    }
+
+    /**
+     * A format-neutral view of one row
+     */
+    private class RowView implements Row
+    {
+        private final int _row;
+
+        private RowView(int row)
+        {
+            _row = row;
+        }
+
+        @Override
+        public Object getValue(String columnName)
+        {
+            int column = getColumnIndex(columnName);
+            return column < 0 ? null : ColumnarRowset.this.getValue(_row, column);
+        }
+
+        @Override
+        public Object getDisplayValue(String columnName)
+        {
+            return getExtra(columnName, Column.DISPLAY_VALUE);
+        }
+
+        @Override
+        public String getUrl(String columnName)
+        {
+            return (String)getExtra(columnName, Column.URL);
+        }
+
+        @Override
+        public String getMvValue(String columnName)
+        {
+            return (String)getExtra(columnName, Column.MV_VALUE);
+        }
+
+        @Override
+        public Object getMvRawValue(String columnName)
+        {
+            return getExtra(columnName, Column.MV_RAW_VALUE);
+        }
+
+        @Override
+        public Object getValue(int columnIndex)
+        {
+            return ColumnarRowset.this.getValue(_row, columnIndex);
+        }
+
+        @Override
+        public boolean isNull(int columnIndex)
+        {
+            return ColumnarRowset.this.isNull(_row, columnIndex);
+        }
+
+        @Override
+        public int getInt(int columnIndex)
+        {
+            return ColumnarRowset.this.getInt(_row, columnIndex);
+        }
+
+        @Override
+        public long getLong(int columnIndex)
+        {
+            return ColumnarRowset.this.getLong(_row, columnIndex);
+        }
+
+        @Override
+        public double getDouble(int columnIndex)
+        {
+            return ColumnarRowset.this.getDouble(_row, columnIndex);
+        }
+
+        @Override
+        public String getString(int columnIndex)
+        {
+            return ColumnarRowset.this.getString(_row, columnIndex);
+        }
+
+        @Override
+        public Instant getInstant(int columnIndex)
+        {
+            Column c = _columns[columnIndex];
+            if (c instanceof DateColumn)
+                return c.isNull(_row) ? null : Instant.ofEpochMilli(c.getLong(_row));
+            return Row.super.getInstant(columnIndex);
+        }
+
+        private Object getExtra(String columnName, int extra)
+        {
+            int column = getColumnIndex(columnName);
+            return column < 0 ? null : _columns[column].getExtra(_row, extra);
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder("{");
+            for (int i = 0; i < _names.length; i++)
+            {
+                if (i > 0)
+                    sb.append(", ");
+                sb.append(_names[i]).append('=').append(ColumnarRowset.this.getValue(_row, i));
+            }
+            return sb.append('}').toString();
+        }
+    }
+
+    /**
+     * Storage for one column. Values are appended in row order; set() returns the column to use from then on, which
+     * is a different (more general) column if the value doesn't fit this column's storage.
+     */
+    private abstract static class Column
+    {
+        static final int DISPLAY_VALUE = 0;
+        static final int URL = 1;
+        static final int MV_VALUE = 2;
+        static final int MV_RAW_VALUE = 3;
+
+        protected BitSet _nulls = new BitSet();
+
+        // Extended-format properties are rare, so store them sparsely and only if present
+        private Map<Integer, Object>[] _extras = null;
+
+        abstract Column set(int row, Object value);
+
+        abstract Object get(int row);
+
+        abstract void trim(int size);
+
+        boolean isNull(int row)
+        {
+            return _nulls.get(row);
+        }
+
+        int getInt(int row)
+        {
+            return ((Number)get(row)).intValue();
+        }
+
+        long getLong(int row)
+        {
+            Object value = get(row);
+            return value instanceof Date date ? date.getTime() : ((Number)value).longValue();
+        }
+
+        double getDouble(int row)
+        {
+            return ((Number)get(row)).doubleValue();
+        }
+
+        boolean getBoolean(int row)
+        {
+            return (Boolean)get(row);
+        }
+
+        void setExtras(int row, Object displayValue, String url, String mvValue, Object mvRawValue)
+        {
+            Object[] values = {displayValue, url, mvValue, mvRawValue};
+            for (int i = 0; i < values.length; i++)
+            {
+                if (null != values[i])
+                {
+                    if (null == _extras)
+                    {
+                        @SuppressWarnings({"unchecked", "rawtypes"}) // Generic arrays can't be created directly
+                        Map<Integer, Object>[] extras = new Map[values.length];
+                        _extras = extras;
+                    }
+                    if (null == _extras[i])
+                        _extras[i] = new HashMap<>();
+                    _extras[i].put(row, values[i]);
+                }
+            }
+        }
+
+        Object getExtra(int row, int extra)
+        {
+            return null == _extras || null == _extras[extra] ? null : _extras[extra].get(row);
+        }
+
+        /**
+         * Moves the extras and nulls to a replacement column
+         */
+        Column copyStateTo(Column column)
+        {
+            column._nulls = _nulls;
+            column._extras = _extras;
+            return column;
+        }
+
+        static int grow(int length, int row)
+        {
+            return Math.max(row + 1, length + (length >> 1) + 1);
+        }
+    }
+
+    private static class IntColumn extends Column
+    {
+        private int[] _values;
+
+        private IntColumn(int capacity)
+        {
+            _values = new int[capacity];
+        }
+
+        @Override
+        Column set(int row, Object value)
+        {
+            if (row >= _values.length)
+                _values = Arrays.copyOf(_values, grow(_values.length, row));
+
+            if (null == value)
+            {
+                _nulls.set(row);
+                return this;
+            }
+
+            if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+            {
+                _values[row] = ((Number)value).intValue();
+                return this;
+            }
+
+            if (value instanceof Long l)
+                return copyStateTo(new LongColumn(this, row)).set(row, l);
+
+            return copyStateTo(new ObjectColumn(this, row)).set(row, value);
+        }
+
+        @Override
+        Object get(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        int getInt(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        long getLong(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        double getDouble(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        void trim(int size)
+        {
+            _values = Arrays.copyOf(_values, size);
+        }
+    }
+
+    private static class LongColumn extends Column
+    {
+        protected long[] _values;
+
+        private LongColumn(int capacity)
+        {
+            _values = new long[capacity];
+        }
+
+        // Widen the first 'size' values of an int column
+        private LongColumn(IntColumn ints, int size)
+        {
+            _values = new long[Math.max(ints._values.length, size + 1)];
+            for (int i = 0; i < size; i++)
+                _values[i] = ints._values[i];
+        }
+
+        @Override
+        Column set(int row, Object value)
+        {
+            if (row >= _values.length)
+                _values = Arrays.copyOf(_values, grow(_values.length, row));
+
+            if (null == value)
+            {
+                _nulls.set(row);
+                return this;
+            }
+
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            {
+                _values[row] = ((Number)value).longValue();
+                return this;
+            }
+
+            return copyStateTo(new ObjectColumn(this, row)).set(row, value);
+        }
+
+        @Override
+        Object get(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        int getInt(int row)
+        {
+            return (int)_values[row];
+        }
+
+        @Override
+        long getLong(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        double getDouble(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        void trim(int size)
+        {
+            _values = Arrays.copyOf(_values, size);
+        }
+    }
+
+    // Stores Date, Instant, or LocalDateTime values (whichever the column holds) as epoch milliseconds. LocalDateTimes
+    // are stored as if in UTC so they round-trip exactly, and are converted in the default time zone by getLong().
+    private static class DateColumn extends LongColumn
+    {
+        private DateParser.ResultType _resultType = null;
+
+        private DateColumn(int capacity)
+        {
+            super(capacity);
+        }
+
+        @Override
+        Column set(int row, Object value)
+        {
+            if (row >= _values.length)
+                _values = Arrays.copyOf(_values, grow(_values.length, row));
+
+            if (null == value)
+            {
+                _nulls.set(row);
+                return this;
+            }
+
+            DateParser.ResultType resultType = null;
+            long millis = 0;
+            if (value instanceof Date date)
+            {
+                resultType = DateParser.ResultType.DATE;
+                millis = date.getTime();
+            }
+            else if (value instanceof Instant instant && instant.getNano() % 1_000_000 == 0)
+            {
+                resultType = DateParser.ResultType.INSTANT;
+                millis = instant.toEpochMilli();
+            }
+            else if (value instanceof LocalDateTime dateTime && dateTime.getNano() % 1_000_000 == 0)
+            {
+                resultType = DateParser.ResultType.LOCAL_DATE_TIME;
+                millis = dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+            }
+
+            if (null != resultType && (null == _resultType || resultType == _resultType))
+            {
+                _resultType = resultType;
+                _values[row] = millis;
+                return this;
+            }
+
+            // Not a date, finer than millisecond precision, or a different type than the rest of the column
+            return copyStateTo(new ObjectColumn(this, row)).set(row, value);
+        }
+
+        @Override
+        Object get(int row)
+        {
+            if (DateParser.ResultType.INSTANT == _resultType)
+                return Instant.ofEpochMilli(_values[row]);
+            if (DateParser.ResultType.LOCAL_DATE_TIME == _resultType)
+                return LocalDateTime.ofInstant(Instant.ofEpochMilli(_values[row]), ZoneOffset.UTC);
+            return new Date(_values[row]);
+        }
+
+        @Override
+        long getLong(int row)
+        {
+            if (DateParser.ResultType.LOCAL_DATE_TIME == _resultType)
+                return ((LocalDateTime)get(row)).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return _values[row];
+        }
+
+        @Override
+        int getInt(int row)
+        {
+            throw new ClassCastException("Date column values can't be converted to int");
+        }
+
+        @Override
+        double getDouble(int row)
+        {
+            throw new ClassCastException("Date column values can't be converted to double");
+        }
+    }
+
+    private static class DoubleColumn extends Column
+    {
+        private double[] _values;
+
+        private DoubleColumn(int capacity)
+        {
+            _values = new double[capacity];
+        }
+
+        @Override
+        Column set(int row, Object value)
+        {
+            if (row >= _values.length)
+                _values = Arrays.copyOf(_values, grow(_values.length, row));
+
+            if (null == value)
+            {
+                _nulls.set(row);
+                return this;
+            }
+
+            if (value instanceof Number n)
+            {
+                _values[row] = n.doubleValue();
+                return this;
+            }
+
+            return copyStateTo(new ObjectColumn(this, row)).set(row, value);
+        }
+
+        @Override
+        Object get(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        int getInt(int row)
+        {
+            return (int)_values[row];
+        }
+
+        @Override
+        long getLong(int row)
+        {
+            return (long)_values[row];
+        }
+
+        @Override
+        double getDouble(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        void trim(int size)
+        {
+            _values = Arrays.copyOf(_values, size);
+        }
+    }
+
+    private static class BooleanColumn extends Column
+    {
+        private final BitSet _values = new BitSet();
+
+        @Override
+        Column set(int row, Object value)
+        {
+            if (null == value)
+            {
+                _nulls.set(row);
+                return this;
+            }
+
+            if (value instanceof Boolean b)
+            {
+                _values.set(row, b);
+                return this;
+            }
+
+            return copyStateTo(new ObjectColumn(this, row)).set(row, value);
+        }
+
+        @Override
+        Object get(int row)
+        {
+            return _values.get(row);
+        }
+
+        @Override
+        boolean getBoolean(int row)
+        {
+            return _values.get(row);
+        }
+
+        @Override
+        void trim(int size)
+        {
+        }
+    }
+
+    private static class StringColumn extends Column
+    {
+        private int[] _codes;
+        private final List<String> _dictionary = new ArrayList<>();
+        private Map<String, Integer> _lookup = new HashMap<>();
+
+        private StringColumn(int capacity)
+        {
+            _codes = new int[capacity];
+        }
+
+        @Override
+        Column set(int row, Object value)
+        {
+            if (row >= _codes.length)
+                _codes = Arrays.copyOf(_codes, grow(_codes.length, row));
+
+            if (null == value)
+            {
+                _nulls.set(row);
+                return this;
+            }
+
+            if (value instanceof String s)
+            {
+                Integer code = _lookup.get(s);
+                if (null == code)
+                {
+                    code = _dictionary.size();
+                    _dictionary.add(s);
+                    _lookup.put(s, code);
+                }
+                _codes[row] = code;
+                return this;
+            }
+
+            return copyStateTo(new ObjectColumn(this, row)).set(row, value);
+        }
+
+        @Override
+        Object get(int row)
+        {
+            return _dictionary.get(_codes[row]);
+        }
+
+        @Override
+        void trim(int size)
+        {
+            _codes = Arrays.copyOf(_codes, size);
+            ((ArrayList<String>)_dictionary).trimToSize();
+            _lookup = null; // Only needed while loading
+        }
+    }
+
+    private static class ObjectColumn extends Column
+    {
+        private Object[] _values;
+
+        private ObjectColumn(int capacity)
+        {
+            _values = new Object[capacity];
+        }
+
+        // Copy the first 'size' values of a more specialized column
+        private ObjectColumn(Column column, int size)
+        {
+            _values = new Object[size + 16];
+            for (int i = 0; i < size; i++)
+                _values[i] = column.isNull(i) ? null : column.get(i);
+        }
+
+        @Override
+        Column set(int row, Object value)
+        {
+            if (row >= _values.length)
+                _values = Arrays.copyOf(_values, grow(_values.length, row));
+
+            if (null == value)
+                _nulls.set(row);
+            else
+                _values[row] = value;
+            return this;
+        }
+
+        @Override
+        Object get(int row)
+        {
+            return _values[row];
+        }
+
+        @Override
+        void trim(int size)
+        {
+            _values = Arrays.copyOf(_values, size);
+        }
+    }
+}
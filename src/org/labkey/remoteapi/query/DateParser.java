@@ -16,41 +16,286 @@
 package org.labkey.remoteapi.query;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
+import java.time.ZoneId;
 import java.util.Date;
 
+/**
+ * Parses the date-time strings returned by LabKey Server: "yyyy/MM/dd HH:mm:ss", "yyyy-MM-dd HH:mm:ss" (optionally
+ * with a "T" separator), and "d MMM yyyy HH:mm:ss", each with optional fractional seconds. The format is detected
+ * from the first characters rather than by trying each pattern in turn. As with the lenient SimpleDateFormats this
+ * class used to wrap, single-digit fields are accepted, out-of-range fields roll over (e.g., February 30 becomes
+ * March 1 or 2), and anything after the time is ignored. The time portion may be omitted.
+ * <p>
+ * Values are interpreted in the JVM's default time zone, as the server sends them without an offset. The parser is
+ * stateless and thread-safe; use the shared {@link #INSTANCE}. The parseXxx methods return null, rather than
+ * throwing, for strings that aren't dates.
+ */
 public class DateParser
 {
-    // Not static because SimpleDatFormat is not thread-safe
-    SimpleDateFormat[] formats = new SimpleDateFormat[]
+    public static final DateParser INSTANCE = new DateParser();
+
+    /**
+     * The Java type to which date values are converted
+     */
+    public enum ResultType
     {
-        new SimpleDateFormat("yyyy/MM/d HH:mm:ss"),
-        new SimpleDateFormat("yyyy-MM-d HH:mm:ss"),
-        new SimpleDateFormat("d MMM yyyy HH:mm:ss")
-    };
+        DATE,
+        INSTANT,
+        LOCAL_DATE_TIME
+    }
+
+    private static final String[] MONTHS = {"jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec"};
 
     public DateParser()
     {
-        for (SimpleDateFormat f : formats)
-            f.setLenient(true);
     }
 
+    /**
+     * Parses a date string into a Date.
+     * @param s The string to parse.
+     * @return The date.
+     * @throws ParseException if the string isn't in a recognized date format.
+     */
     public Date parse(String s) throws ParseException
     {
-        ParseException ex = null;
-        for (SimpleDateFormat f : formats)
+        Date date = parseDate(s);
+        if (null == date)
+            throw new ParseException("Unparseable date: \"" + s + "\"", 0);
+        return date;
+    }
+
+    /**
+     * Parses a date string into the requested type.
+     * @param s The string to parse.
+     * @param type The type to return.
+     * @return A Date, Instant, or LocalDateTime, or null if the string isn't in a recognized date format.
+     */
+    public Object parse(String s, ResultType type)
+    {
+        return switch (type)
         {
-            try
+            case DATE -> parseDate(s);
+            case INSTANT -> parseInstant(s);
+            case LOCAL_DATE_TIME -> parseLocalDateTime(s);
+        };
+    }
+
+    /**
+     * @param s The string to parse.
+     * @return The date, or null if the string isn't in a recognized date format.
+     */
+    public Date parseDate(String s)
+    {
+        Instant instant = parseInstant(s);
+        return null == instant ? null : Date.from(instant);
+    }
+
+    /**
+     * @param s The string to parse.
+     * @return The instant, interpreting the string in the default time zone, or null if the string isn't in a
+     * recognized date format.
+     */
+    public Instant parseInstant(String s)
+    {
+        LocalDateTime dateTime = parseLocalDateTime(s);
+        return null == dateTime ? null : dateTime.atZone(ZoneId.systemDefault()).toInstant();
+    }
+
+    /**
+     * @param s The string to parse.
+     * @return The date and time, or null if the string isn't in a recognized date format.
+     */
+    public LocalDateTime parseLocalDateTime(String s)
+    {
+        if (null == s)
+            return null;
+
+        Cursor c = new Cursor(s);
+        c.skipSpaces();
+
+        int year;
+        int month;
+        int day;
+        int first = c.number();
+        if (first < 0)
+            return null;
+
+        char sep = c.peek();
+        if ('/' == sep || '-' == sep)
+        {
+            // yyyy/MM/dd or yyyy-MM-dd
+            year = first;
+            c.pos++;
+            month = c.number();
+            if (month < 0 || c.peek() != sep)
+                return null;
+            c.pos++;
+            day = c.number();
+            if (day < 0)
+                return null;
+        }
+        else if (' ' == sep)
+        {
+            // d MMM yyyy
+            day = first;
+            c.skipSpaces();
+            month = c.monthName();
+            c.skipSpaces();
+            year = c.number();
+            if (month < 0 || year < 0)
+                return null;
+        }
+        else
+        {
+            return null;
+        }
+
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int nanos = 0;
+
+        char next = c.peek();
+        if (' ' == next || 'T' == next)
+        {
+            c.pos++;
+            c.skipSpaces();
+            if (c.pos < s.length())
             {
-                return f.parse(s);
+                hour = c.number();
+                if (hour < 0 || c.peek() != ':')
+                    return null;
+                c.pos++;
+                minute = c.number();
+                if (minute < 0)
+                    return null;
+                if (c.peek() == ':')
+                {
+                    c.pos++;
+                    second = c.number();
+                    if (second < 0)
+                        return null;
+                    if (c.peek() == '.')
+                    {
+                        c.pos++;
+                        nanos = c.fraction();
+                    }
+                }
             }
-            catch (ParseException x)
+        }
+
+        return toLocalDateTime(year, month, day, hour, minute, second, nanos);
+    }
+
+    private static LocalDateTime toLocalDateTime(int year, int month, int day, int hour, int minute, int second, int nanos)
+    {
+        if (month >= 1 && month <= 12 && day >= 1 && hour < 24 && minute < 60 && second < 60 &&
+            (day <= 28 || day <= Month.of(month).length(Year.isLeap(year))))
+        {
+            return LocalDateTime.of(year, month, day, hour, minute, second, nanos);
+        }
+
+        // Roll out-of-range fields over, as a lenient SimpleDateFormat does
+        try
+        {
+            return LocalDateTime.of(year, 1, 1, 0, 0)
+                .plusMonths(month - 1L)
+                .plusDays(day - 1L)
+                .plusHours(hour)
+                .plusMinutes(minute)
+                .plusSeconds(second)
+                .plusNanos(nanos);
+        }
+        catch (DateTimeException e)
+        {
+            // Beyond the supported range of years
+            return null;
+        }
+    }
+
+    private static class Cursor
+    {
+        private final String s;
+        private int pos = 0;
+
+        private Cursor(String s)
+        {
+            this.s = s;
+        }
+
+        private char peek()
+        {
+            return pos < s.length() ? s.charAt(pos) : 0;
+        }
+
+        private void skipSpaces()
+        {
+            while (peek() == ' ')
+                pos++;
+        }
+
+        /**
+         * Reads an unsigned number of up to nine digits
+         * @return the number, or -1 if there are no digits at the current position
+         */
+        private int number()
+        {
+            int start = pos;
+            int value = 0;
+            char ch;
+            while (pos - start < 9 && (ch = peek()) >= '0' && ch <= '9')
+            {
+                value = value * 10 + (ch - '0');
+                pos++;
+            }
+            return pos == start ? -1 : value;
+        }
+
+        /**
+         * Reads fractional seconds as nanoseconds, ignoring digits beyond the ninth
+         */
+        private int fraction()
+        {
+            int nanos = 0;
+            int digits = 0;
+            char ch;
+            while ((ch = peek()) >= '0' && ch <= '9')
+            {
+                if (digits < 9)
+                {
+                    nanos = nanos * 10 + (ch - '0');
+                    digits++;
+                }
+                pos++;
+            }
+            for (; digits < 9; digits++)
+                nanos *= 10;
+            return nanos;
+        }
+
+        /**
+         * Reads an English month name or abbreviation
+         * @return the month number (1-12), or -1 if there isn't one at the current position
+         */
+        private int monthName()
+        {
+            int start = pos;
+            while (Character.isLetter(peek()))
+                pos++;
+            if (pos - start < 3)
+                return -1;
+
+            for (int i = 0; i < MONTHS.length; i++)
             {
-                ex = x;
+                if (s.regionMatches(true, start, MONTHS[i], 0, 3))
+                    return i + 1;
             }
+            return -1;
         }
-        if (null != ex)
-            throw ex;
-        return null;
     }
 }
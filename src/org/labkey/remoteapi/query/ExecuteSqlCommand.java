@@ -16,9 +16,13 @@
 package org.labkey.remoteapi.query;
 
 import org.json.JSONObject;
+import org.labkey.remoteapi.CommandException;
+import org.labkey.remoteapi.Connection;
 import org.labkey.remoteapi.PostCommand;
+import org.labkey.remoteapi.ResponseParser;
 import org.labkey.remoteapi.internal.EncodeUtils;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +53,8 @@ public class ExecuteSqlCommand extends PostCommand<SelectRowsResponse> implement
     private boolean _includeDetailsColumn = false;
     private Map<String, String> _queryParameters = new HashMap<>();
     private boolean _wafEncoding = true;
+    private DateParser.ResultType _dateResultType = DateParser.ResultType.DATE;
+    private boolean _lazyConversion = false;
 
     /**
      * Constructs an ExecuteSqlCommand, initialized with a schema name.
@@ -95,6 +101,42 @@ public boolean isExtendedFormat()
         return getRequiredVersion() == 9.1;
     }
 
+    /**
+     * Sets the Java type to which values in date columns are converted: java.util.Date (the default),
+     * java.time.Instant, or java.time.LocalDateTime.
+     * @param dateResultType The type for date values.
+     */
+    @Override
+    public void setDateResultType(DateParser.ResultType dateResultType)
+    {
+        _dateResultType = dateResultType;
+    }
+
+    @Override
+    public DateParser.ResultType getDateResultType()
+    {
+        return _dateResultType;
+    }
+
+    /**
+     * Set to true to defer converting date and numeric values (see {@link DateParser}) until they're read through
+     * the {@link Row} interface, e.g., from {@link SelectRowsResponse#getRowset()}. Building the response then does
+     * no per-row work beyond parsing, and conversion cost scales with the values actually read. Calling
+     * {@link SelectRowsResponse#getRows()} converts all rows at that point, as if conversion weren't deferred.
+     * @param lazyConversion true to convert values as they're read.
+     */
+    @Override
+    public void setLazyConversion(boolean lazyConversion)
+    {
+        _lazyConversion = lazyConversion;
+    }
+
+    @Override
+    public boolean isLazyConversion()
+    {
+        return _lazyConversion;
+    }
+
     /**
      * Returns the current schema name.
      * @return The current schema name.
@@ -329,6 +371,33 @@ protected SelectRowsResponse createResponse(String text, int status, String cont
         return new SelectRowsResponse(text, status, contentType, json, this);
     }
 
+    @Override
+    protected ResponseParser<SelectRowsResponse> getResponseParser()
+    {
+        assert null != _schemaName : "You must set the schemaName before executing!";
+        assert null != _sql : "You must set the Sql before executing!";
+        return SelectRowsResponse.createParser(this);
+    }
+
+    /**
+     * Executes the SQL and returns a forward-only rowset that reads rows from the server as it is iterated,
+     * rather than parsing the entire response into memory. Use this for very large results. The caller must close
+     * the returned rowset.
+     * @param connection The connection on which this command should be executed.
+     * @param folderPath The folder path in which to execute the command.
+     * @return A StreamingRowset positioned at the first row.
+     * @throws CommandException Thrown if the server returned a non-success status code.
+     * @throws IOException Thrown if there was an IO problem.
+     * @see StreamingRowset
+     */
+    @Override
+    public StreamingRowset stream(Connection connection, String folderPath) throws IOException, CommandException
+    {
+        assert null != _schemaName : "You must set the schemaName before executing!";
+        assert null != _sql : "You must set the Sql before executing!";
+        return new StreamingRowset(_execute(connection, folderPath), this);
+    }
+
     @Override
     public JSONObject getJsonObject()
     {
@@ -363,4 +432,10 @@ protected Map<String, Object> createParameterMap()
 
         return params;
     }
+
+    @Override
+    protected boolean isIdempotent()
+    {
+        return true;
+    }
 }
@@ -130,6 +130,12 @@ protected Map<String, Object> createParameterMap()
         return params;
     }
 
+    @Override
+    protected boolean isCacheable()
+    {
+        return true;
+    }
+
     @Override
     protected GetQueriesResponse createResponse(String text, int status, String contentType, JSONObject json)
     {
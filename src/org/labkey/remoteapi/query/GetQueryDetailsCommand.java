@@ -87,6 +87,12 @@ protected Map<String, Object> createParameterMap()
         return params;
     }
 
+    @Override
+    protected boolean isCacheable()
+    {
+        return true;
+    }
+
     @Override
     protected GetQueryDetailsResponse createResponse(String text, int status, String contentType, JSONObject json)
     {
@@ -28,6 +28,12 @@ public GetSchemasCommand()
         super("query", "getSchemas");
     }
 
+    @Override
+    protected boolean isCacheable()
+    {
+        return true;
+    }
+
     @Override
     protected GetSchemasResponse createResponse(String text, int status, String contentType, JSONObject json)
     {
@@ -16,18 +16,39 @@
 package org.labkey.remoteapi.query;
 
 import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.entity.mime.AbstractContentBody;
 import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
 import org.apache.hc.core5.http.ContentType;
 import org.json.JSONObject;
 import org.labkey.remoteapi.PostCommand;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Import data in bulk from a text, local file, or a file
  * contained within a module on the LabKey Server.
+ * <p>
+ * Large imports can be streamed rather than held in memory: upload a file ({@link #setFile(File)} or
+ * {@link #setFile(Path)}), an InputStream ({@link #setInputStream(InputStream, String)}), streams opened for each
+ * attempt ({@link #setStreamSource(StreamSource, String)}), or rows produced one at a time
+ * ({@link #setRowSource(List, Iterator)}), which are encoded as TSV while the request is sent. Any of these uploads
+ * may be gzip-compressed on the fly with {@link #setCompress(boolean)}.
  */
 public class ImportDataCommand extends PostCommand<ImportDataResponse>
 {
@@ -52,6 +73,14 @@ public class ImportDataCommand extends PostCommand<ImportDataResponse>
         MERGE,
     }
 
+    /**
+     * Opens the data for an upload. See {@link #setStreamSource(StreamSource, String)}.
+     */
+    public interface StreamSource
+    {
+        InputStream open() throws IOException;
+    }
+
     private final String _schemaName;
     private final String _queryName;
 
@@ -61,6 +90,11 @@ public class ImportDataCommand extends PostCommand<ImportDataResponse>
     private Object _dataValue;
     private String _module;
     private InsertOption _insertOption;
+    private String _fileName;
+    private List<String> _columnNames;
+    private boolean _compress = false;
+    // Set once a stream or row source, which can only be read once, has been written to a request
+    private boolean _dataSent = false;
 
     private Boolean _useAsync;
     private Boolean _saveToPipeline;
@@ -106,8 +140,7 @@ public String getQueryName()
     public void setText(String text)
     {
         Objects.requireNonNull(text);
-        _dataType = ImportDataType.text;
-        _dataValue = text;
+        setData(ImportDataType.text, text, null);
     }
 
     /**
@@ -116,8 +149,7 @@ public void setText(String text)
     public void setPath(String path)
     {
         Objects.requireNonNull(path);
-        _dataType = ImportDataType.path;
-        _dataValue = path;
+        setData(ImportDataType.path, path, null);
     }
 
     /**
@@ -128,8 +160,7 @@ public void setPath(String path)
     public void setModuleResource(String module, String moduleResource)
     {
         Objects.requireNonNull(moduleResource);
-        _dataType = ImportDataType.moduleResource;
-        _dataValue = moduleResource;
+        setData(ImportDataType.moduleResource, moduleResource, null);
         _module = module;
     }
 
@@ -141,8 +172,91 @@ public void setModuleResource(String module, String moduleResource)
     public void setFile(File file)
     {
         Objects.requireNonNull(file);
-        _dataType = ImportDataType.file;
-        _dataValue = file;
+        setData(ImportDataType.file, file, null);
+    }
+
+    /**
+     * Uploads a file for import. The file is streamed from disk as the request is sent.
+     * @see #setFile(File)
+     */
+    public void setFile(Path file)
+    {
+        Objects.requireNonNull(file);
+        setData(ImportDataType.file, file, file.getFileName().toString());
+    }
+
+    /**
+     * Uploads the contents of a stream for import, reading it as the request is sent. The stream can only be sent
+     * once, so once it has been, the command can't be retried or executed again; the caller is responsible for
+     * closing it.
+     * @param in The data, in a format the server recognizes (e.g., tsv, csv, or xlsx)
+     * @param fileName The file name to report to the server, whose extension identifies the format (e.g., "data.tsv")
+     */
+    public void setInputStream(InputStream in, String fileName)
+    {
+        Objects.requireNonNull(in);
+        Objects.requireNonNull(fileName);
+        setData(ImportDataType.file, in, fileName);
+    }
+
+    /**
+     * Uploads data from streams that the source opens on demand, reading each as the request is sent. A new stream is
+     * opened (and closed once it's sent) for every request, so unlike {@link #setInputStream(InputStream, String)},
+     * the command can be retried after a transient failure and executed again.
+     * @param source Opens a stream of the data, in a format the server recognizes (e.g., tsv, csv, or xlsx)
+     * @param fileName The file name to report to the server, whose extension identifies the format (e.g., "data.tsv")
+     */
+    public void setStreamSource(StreamSource source, String fileName)
+    {
+        Objects.requireNonNull(source);
+        Objects.requireNonNull(fileName);
+        setData(ImportDataType.file, source, fileName);
+    }
+
+    /**
+     * Uploads rows produced by an iterator, encoding them as TSV as the request is sent, so the rows never need to be
+     * held in memory. Values are converted with <code>toString()</code>, except that nulls are sent as empty values
+     * and Dates are formatted as they are by {@link SaveRowsCommand}. The rows can only be sent once, so once they
+     * have been, the command can't be retried or executed again.
+     * @param columnNames The column names, sent as the header row
+     * @param rows The rows, each with a value for each column, in order
+     */
+    public void setRowSource(List<String> columnNames, Iterator<? extends List<?>> rows)
+    {
+        Objects.requireNonNull(columnNames);
+        Objects.requireNonNull(rows);
+        setData(ImportDataType.file, rows, "rows.tsv");
+        _columnNames = columnNames;
+    }
+
+    /**
+     * Replaces the data to import, clearing anything left by a previous setter (e.g., a row source's column names)
+     */
+    private void setData(ImportDataType dataType, Object dataValue, String fileName)
+    {
+        _dataType = dataType;
+        _dataValue = dataValue;
+        _fileName = fileName;
+        _module = null;
+        _columnNames = null;
+        _dataSent = false;
+    }
+
+    public boolean isCompress()
+    {
+        return _compress;
+    }
+
+    /**
+     * Gzip-compresses uploaded data (from a file, stream, stream source, or row source) as it's sent, which can
+     * greatly reduce the bandwidth used by text formats. The uploaded file name gets a ".gz" extension, from which the
+     * server recognizes the compression. Text submitted with {@link #setText(String)} is never compressed. Defaults
+     * to false.
+     * @param compress true to compress the upload
+     */
+    public void setCompress(boolean compress)
+    {
+        _compress = compress;
     }
 
     public Boolean isImportIdentity()
@@ -221,6 +335,12 @@ public JSONObject getJsonObject()
         throw new IllegalStateException();
     }
 
+    @Override
+    protected boolean isResendable()
+    {
+        return !_dataSent || !(_dataValue instanceof InputStream || _dataValue instanceof Iterator);
+    }
+
     @Override
     protected HttpPost createRequest(URI uri)
     {
@@ -240,13 +360,17 @@ protected HttpPost createRequest(URI uri)
             builder.addTextBody("importLookupByAlternateKey", Boolean.toString(_importLookupByAlternateKey));
         if (_module != null)
             builder.addTextBody("module", _module);
-        if (_dataType == ImportDataType.file)
-            builder.addBinaryBody(_dataType.name(), (File)_dataValue, ContentType.APPLICATION_OCTET_STREAM, ((File)_dataValue).getName());
+        if (_dataType == ImportDataType.file && _dataValue instanceof File file && !_compress)
+            builder.addBinaryBody(_dataType.name(), file, ContentType.APPLICATION_OCTET_STREAM, file.getName());
+        else if (_dataType == ImportDataType.file)
+            builder.addPart(_dataType.name(), createUploadBody());
         else
             builder.addTextBody(_dataType.name(), (String)_dataValue);
 
         if (_format != null)
             builder.addTextBody("format", _format);
+        else if (null != _columnNames)
+            builder.addTextBody("format", "tsv");
 
         if (_insertOption != null)
             builder.addTextBody("insertOption", _insertOption.toString());
@@ -264,6 +388,148 @@ protected HttpPost createRequest(URI uri)
         return post;
     }
 
+    /**
+     * Creates the multipart body for a streamed (and possibly compressed) upload.
+     */
+    private UploadBody createUploadBody()
+    {
+        if (_dataValue instanceof File file)
+            return new UploadBody(file.getName(), _compress, out -> Files.copy(file.toPath(), out));
+
+        if (_dataValue instanceof Path path)
+            return new UploadBody(_fileName, _compress, out -> Files.copy(path, out));
+
+        if (_dataValue instanceof StreamSource source)
+        {
+            return new UploadBody(_fileName, _compress, out -> {
+                try (InputStream in = source.open())
+                {
+                    in.transferTo(out);
+                }
+            });
+        }
+
+        // A stream or row source is consumed by the first request that's written
+        if (!isResendable())
+            throw new IllegalStateException("The " + (_dataValue instanceof InputStream ? "input stream" : "row source") + " has already been sent");
+
+        if (_dataValue instanceof InputStream in)
+        {
+            return new UploadBody(_fileName, _compress, out -> {
+                _dataSent = true;
+                in.transferTo(out);
+            });
+        }
+
+        Iterator<?> rows = (Iterator<?>)_dataValue;
+        return new UploadBody(_fileName, _compress, out -> {
+            _dataSent = true;
+            writeRows(rows, out);
+        });
+    }
+
+    private void writeRows(Iterator<?> rows, OutputStream out) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writeTsvLine(_columnNames, writer);
+        while (rows.hasNext())
+            writeTsvLine((List<?>)rows.next(), writer);
+
+        // Flush but don't close; the caller owns the output stream
+        writer.flush();
+    }
+
+    private static void writeTsvLine(List<?> values, Writer writer) throws IOException
+    {
+        String sep = "";
+        for (Object value : values)
+        {
+            writer.write(sep);
+            writer.write(toTsvValue(value));
+            sep = "\t";
+        }
+        writer.write('\n');
+    }
+
+    // Values containing delimiters, line breaks, or a leading quote are quoted, with embedded quotes doubled
+    private static String toTsvValue(Object value)
+    {
+        if (null == value)
+            return "";
+
+        String s = value instanceof Date date ? SaveRowsCommand.formatDate(date) : value.toString();
+        if (s.indexOf('\t') >= 0 || s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0 || s.startsWith("\""))
+            return "\"" + s.replace("\"", "\"\"") + "\"";
+
+        return s;
+    }
+
+    private interface BodyWriter
+    {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * A file part whose content is written to the request as it's sent, optionally through a gzip stream. Its length
+     * isn't known in advance, so the request is sent with chunked transfer encoding.
+     */
+    private static class UploadBody extends AbstractContentBody
+    {
+        private final String _fileName;
+        private final boolean _compress;
+        private final BodyWriter _writer;
+
+        private UploadBody(String fileName, boolean compress, BodyWriter writer)
+        {
+            super(ContentType.APPLICATION_OCTET_STREAM);
+            _fileName = fileName;
+            _compress = compress;
+            _writer = writer;
+        }
+
+        @Override
+        public String getFilename()
+        {
+            return _compress ? _fileName + ".gz" : _fileName;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException
+        {
+            if (!_compress)
+            {
+                _writer.writeTo(out);
+                return;
+            }
+
+            // Finish the gzip stream without closing the request's output stream
+            GZIPOutputStream gzip = new GZIPOutputStream(new FilterOutputStream(out)
+            {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException
+                {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException
+                {
+                    flush();
+                }
+            }, 64 * 1024);
+            try (gzip)
+            {
+                _writer.writeTo(gzip);
+            }
+        }
+
+        @Override
+        public long getContentLength()
+        {
+            return -1;
+        }
+    }
+
     @Override
     protected ImportDataResponse createResponse(String text, int status, String contentType, JSONObject json)
     {
@@ -42,9 +42,9 @@ public MoveRowsCommand(String targetContainerPath, String schemaName, String que
     }
 
     @Override
-    public JSONObject getJsonObject()
+    protected JSONObject getEnvelopeJsonObject()
     {
-        final JSONObject jsonObject = super.getJsonObject();
+        final JSONObject jsonObject = super.getEnvelopeJsonObject();
         jsonObject.put("targetContainerPath", _targetContainerPath);
         return jsonObject;
     }
@@ -0,0 +1,337 @@
+package org.labkey.remoteapi.query;
+
+import org.labkey.remoteapi.CommandException;
+import org.labkey.remoteapi.Connection;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Retrieves a large result in pages, issuing several page requests at once and handing the pages back in order.
+ * Because commands can't be copied, the executor takes a factory that creates a fully configured
+ * {@link SelectRowsCommand} or {@link ExecuteSqlCommand} (schema, query, columns, filters, sorts, etc.); the executor
+ * then sets the offset and row limit on each instance. The offset and row limit of the first command created are
+ * used as the starting offset and overall row limit.
+ * <p>
+ * Example:
+ * <pre><code>
+ * PagedSelectExecutor executor = new PagedSelectExecutor(cn, "Home/Study", () -&gt; {
+ *     SelectRowsCommand cmd = new SelectRowsCommand("study", "Physical Exam");
+ *     cmd.addSort("RowId", Sort.Direction.ASCENDING);
+ *     return cmd;
+ * });
+ * executor.setPageSize(50000);
+ * executor.setParallelism(4);
+ * executor.forEachPage(page -&gt; process(page.getRows()));
+ * </code></pre>
+ * Offset paging relies on a stable ordering, so make sure the command specifies a sort that uniquely orders rows.
+ * For very deep results, {@link #setKeysetColumn(String)} switches to keyset paging, which filters on the last key
+ * seen rather than asking the server to skip rows. Keyset pages are necessarily requested one after another.
+ * <p>
+ * Page requests share the supplied Connection (and its connection pool) across worker threads.
+ */
+public class PagedSelectExecutor
+{
+    // Keyset filter values for date columns, in a format the server parses with millisecond precision
+    private static final DateTimeFormatter KEY_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private final Connection _connection;
+    private final String _folderPath;
+    private final Supplier<? extends BaseSelect> _commandFactory;
+
+    private int _pageSize = 10000;
+    private int _parallelism = 4;
+    private String _keysetColumn = null;
+    private ExecutorService _executorService = null;
+
+    /**
+     * @param connection The connection on which page requests will be executed.
+     * @param folderPath The folder path in which to execute the requests.
+     * @param commandFactory Creates a new, fully configured select command for each page request.
+     */
+    public PagedSelectExecutor(Connection connection, String folderPath, Supplier<? extends BaseSelect> commandFactory)
+    {
+        _connection = Objects.requireNonNull(connection);
+        _folderPath = folderPath;
+        _commandFactory = Objects.requireNonNull(commandFactory);
+    }
+
+    public int getPageSize()
+    {
+        return _pageSize;
+    }
+
+    /**
+     * Sets the number of rows requested per page. Defaults to 10,000.
+     * @param pageSize The maximum number of rows in each page request.
+     */
+    public void setPageSize(int pageSize)
+    {
+        if (pageSize < 1)
+            throw new IllegalArgumentException("Page size must be positive");
+        _pageSize = pageSize;
+    }
+
+    public int getParallelism()
+    {
+        return _parallelism;
+    }
+
+    /**
+     * Sets the maximum number of page requests in flight at once. Defaults to 4. Consider the Connection's
+     * per-route connection limit when raising this.
+     * @param parallelism The number of concurrent page requests.
+     */
+    public void setParallelism(int parallelism)
+    {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        _parallelism = parallelism;
+    }
+
+    public String getKeysetColumn()
+    {
+        return _keysetColumn;
+    }
+
+    /**
+     * Use keyset paging on the given column instead of offset paging. Each page is requested sorted ascending on
+     * this column and filtered to values greater than the last value of the previous page, which avoids deep offsets
+     * on the server. The column must be unique and non-null, the commands must be {@link SelectRowsCommand}s, and
+     * the commands' own sorts are replaced. Keyset pages are requested serially.
+     * @param keysetColumn The key column name, or null to use offset paging (the default).
+     */
+    public void setKeysetColumn(String keysetColumn)
+    {
+        _keysetColumn = keysetColumn;
+    }
+
+    /**
+     * Sets the executor used to run page requests. By default, a fixed pool sized to the parallelism is created for
+     * each run and shut down afterward. A supplied executor is not shut down.
+     * @param executorService The executor to use, or null for the default.
+     */
+    public void setExecutorService(ExecutorService executorService)
+    {
+        _executorService = executorService;
+    }
+
+    /**
+     * Retrieves all rows, merged in order, into a single list.
+     * @return The rows from every page.
+     * @throws CommandException Thrown if the server returned a non-success status code for any page.
+     * @throws IOException Thrown if there was an IO problem.
+     */
+    public List<Map<String, Object>> getRows() throws IOException, CommandException
+    {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        forEachPage(page -> rows.addAll(page.getRows()));
+        return rows;
+    }
+
+    /**
+     * Retrieves all pages and passes each to the consumer in order, on the calling thread. Later pages are fetched
+     * while the consumer processes earlier ones. If any page fails, outstanding requests are cancelled and the
+     * failure is thrown.
+     * @param consumer Receives each page response, in order.
+     * @throws CommandException Thrown if the server returned a non-success status code for any page.
+     * @throws IOException Thrown if there was an IO problem.
+     */
+    public void forEachPage(Consumer<SelectRowsResponse> consumer) throws IOException, CommandException
+    {
+        if (null != _keysetColumn)
+            forEachKeysetPage(consumer);
+        else
+            forEachOffsetPage(consumer);
+    }
+
+    private void forEachOffsetPage(Consumer<SelectRowsResponse> consumer) throws IOException, CommandException
+    {
+        BaseSelect first = _commandFactory.get();
+        int startOffset = first.getOffset();
+        long end = first.getMaxRows() >= 0 ? (long)startOffset + first.getMaxRows() : Long.MAX_VALUE;
+
+        // Request the first page on this thread. This primes the connection and usually tells us the total count.
+        int firstSize = (int)Math.min(_pageSize, end - startOffset);
+        first.setMaxRows(firstSize);
+        SelectRowsResponse firstPage = first.execute(_connection, _folderPath);
+        consumer.accept(firstPage);
+
+        int received = rowCount(firstPage);
+        if (received == 0 || received < firstSize)
+            return;
+
+        // Trust the server's total only if it indicates there are more rows; when total counts are disabled it
+        // reports the number of rows returned instead.
+        Number rowCount = firstPage.getRowCount();
+        if (null != rowCount && rowCount.longValue() > startOffset + received)
+            end = Math.min(end, rowCount.longValue());
+
+        ExecutorService executor = null != _executorService ? _executorService : Executors.newFixedThreadPool(_parallelism);
+        Deque<Page> inFlight = new ArrayDeque<>();
+        try
+        {
+            long nextOffset = (long)startOffset + received;
+            boolean exhausted = false;
+
+            while (true)
+            {
+                while (!exhausted && inFlight.size() < _parallelism && nextOffset < end && nextOffset <= Integer.MAX_VALUE)
+                {
+                    int offset = (int)nextOffset;
+                    int maxRows = (int)Math.min(_pageSize, end - nextOffset);
+                    inFlight.add(new Page(maxRows, executor.submit(() -> {
+                        BaseSelect cmd = _commandFactory.get();
+                        cmd.setOffset(offset);
+                        cmd.setMaxRows(maxRows);
+                        return cmd.execute(_connection, _folderPath);
+                    })));
+                    nextOffset += maxRows;
+                }
+
+                if (inFlight.isEmpty())
+                    break;
+
+                Page page = inFlight.removeFirst();
+                SelectRowsResponse response = await(page.future());
+                consumer.accept(response);
+
+                // A short page means we've reached the end, regardless of what the server reported
+                if (rowCount(response) < page.maxRows())
+                {
+                    exhausted = true;
+                    cancel(inFlight);
+                }
+            }
+        }
+        finally
+        {
+            cancel(inFlight);
+            if (executor != _executorService)
+                executor.shutdownNow();
+        }
+    }
+
+    private void forEachKeysetPage(Consumer<SelectRowsResponse> consumer) throws IOException, CommandException
+    {
+        Object lastKey = null;
+        long remaining = -1;
+
+        while (true)
+        {
+            BaseSelect base = _commandFactory.get();
+            if (!(base instanceof SelectRowsCommand cmd))
+                throw new IllegalArgumentException("Keyset paging requires SelectRowsCommand");
+
+            if (remaining < 0)
+                remaining = cmd.getMaxRows() >= 0 ? cmd.getMaxRows() : Long.MAX_VALUE;
+
+            int maxRows = (int)Math.min(_pageSize, remaining);
+            cmd.setSorts(new ArrayList<>(List.of(new Sort(_keysetColumn, Sort.Direction.ASCENDING))));
+            if (null != lastKey)
+                cmd.addFilter(_keysetColumn, formatKey(lastKey), Filter.Operator.GT);
+            cmd.setOffset(0);
+            cmd.setMaxRows(maxRows);
+            cmd.setIncludeTotalCount(false);
+
+            SelectRowsResponse page = cmd.execute(_connection, _folderPath);
+            consumer.accept(page);
+
+            List<Map<String, Object>> rows = page.getRows();
+            int received = null == rows ? 0 : rows.size();
+            remaining -= received;
+            if (received < maxRows || remaining <= 0)
+                return;
+
+            lastKey = new RowMap(rows.get(received - 1)).getValue(_keysetColumn);
+            if (null == lastKey)
+                throw new IllegalStateException("Keyset column '" + _keysetColumn + "' must not contain null values");
+        }
+    }
+
+    private static Object formatKey(Object key)
+    {
+        if (key instanceof Date date)
+            return KEY_DATE_FORMAT.format(date.toInstant().atZone(ZoneId.systemDefault()));
+        if (key instanceof Instant instant)
+            return KEY_DATE_FORMAT.format(instant.atZone(ZoneId.systemDefault()));
+        if (key instanceof LocalDateTime dateTime)
+            return KEY_DATE_FORMAT.format(dateTime);
+        return key;
+    }
+
+    private static int rowCount(SelectRowsResponse response)
+    {
+        List<Map<String, Object>> rows = response.getRows();
+        return null == rows ? 0 : rows.size();
+    }
+
+    private static SelectRowsResponse await(Future<SelectRowsResponse> future) throws IOException, CommandException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for page", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioe)
+                throw ioe;
+            if (cause instanceof CommandException ce)
+                throw ce;
+            if (cause instanceof RuntimeException re)
+                throw re;
+            throw new IOException(cause);
+        }
+    }
+
+    private static void cancel(Deque<Page> pages)
+    {
+        for (Page page : pages)
+            page.future().cancel(true);
+        pages.clear();
+    }
+
+    private static class Page
+    {
+        private final int _maxRows;
+        private final Future<SelectRowsResponse> _future;
+
+        private Page(int maxRows, Future<SelectRowsResponse> future)
+        {
+            _maxRows = maxRows;
+            _future = future;
+        }
+
+        private int maxRows()
+        {
+            return _maxRows;
+        }
+
+        private Future<SelectRowsResponse> future()
+        {
+            return _future;
+        }
+    }
+}
@@ -15,12 +15,29 @@
  */
 package org.labkey.remoteapi.query;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
 /**
  * Provides a format-neutral way of obtaining a row's value. If you requested the extended format
  * (see SelectRowsCommand.setExtendedFormat()), you may also get the display value (if different),
  * the url, the missing value indicator, and the missing value raw value. Note that all of these
  * may return null if the column does not have a url, is not missing-value enabled, or does not
  * have a different display value from its raw value. 
+ * <p>
+ * Values may also be read by column position, using positions obtained once from {@link Rowset#columnIndex(String)}.
+ * The positional accessors avoid a name lookup per value, and the primitive accessors avoid boxing where the row's
+ * storage allows:
+ * <pre><code>
+ * int weight = rowset.columnIndex("Weight");
+ * for (Row row : rowset)
+ * {
+ *     if (!row.isNull(weight))
+ *         total += row.getDouble(weight);
+ * }
+ * </code></pre>
  */
 public interface Row
 {
@@ -59,4 +76,154 @@
      * @return The column's mising-value raw value, or null if the column was not found or is not missing-value enabled.
      */
     Object getMvRawValue(String columnName);
+
+    /**
+     * Returns whether a column's value is null.
+     * @param columnName The column name.
+     * @return true if the value is null or the column was not found.
+     */
+    default boolean isNull(String columnName)
+    {
+        return null == getValue(columnName);
+    }
+
+    /**
+     * Returns a numeric column's value as an int.
+     * @param columnName The column name.
+     * @return The value, or 0 if the value is null or the column was not found. Use {@link #isNull(String)} to tell
+     * the difference.
+     * @throws ClassCastException if the value isn't a number.
+     */
+    default int getInt(String columnName)
+    {
+        Object value = getValue(columnName);
+        return null == value ? 0 : ((Number)value).intValue();
+    }
+
+    /**
+     * Returns a numeric column's value as a long.
+     * @param columnName The column name.
+     * @return The value, or 0 if the value is null or the column was not found.
+     * @throws ClassCastException if the value isn't a number.
+     */
+    default long getLong(String columnName)
+    {
+        Object value = getValue(columnName);
+        return null == value ? 0 : ((Number)value).longValue();
+    }
+
+    /**
+     * Returns a numeric column's value as a double.
+     * @param columnName The column name.
+     * @return The value, or 0 if the value is null or the column was not found.
+     * @throws ClassCastException if the value isn't a number.
+     */
+    default double getDouble(String columnName)
+    {
+        Object value = getValue(columnName);
+        return null == value ? 0 : ((Number)value).doubleValue();
+    }
+
+    /**
+     * Returns a column's value as a String.
+     * @param columnName The column name.
+     * @return The value's string representation, or null if the value is null or the column was not found.
+     */
+    default String getString(String columnName)
+    {
+        Object value = getValue(columnName);
+        return null == value ? null : value.toString();
+    }
+
+    /**
+     * Returns a date column's value as an Instant, regardless of the date type requested with
+     * {@link BaseSelect#setDateResultType(DateParser.ResultType)}.
+     * @param columnName The column name.
+     * @return The value, or null if the value is null or the column was not found.
+     * @throws ClassCastException if the value isn't a date.
+     */
+    default Instant getInstant(String columnName)
+    {
+        return toInstant(getValue(columnName));
+    }
+
+    /**
+     * Returns a column's raw value by position.
+     * @param columnIndex The column position, from {@link Rowset#columnIndex(String)}.
+     * @return The column's raw value.
+     * @throws UnsupportedOperationException if this row doesn't support access by position.
+     */
+    default Object getValue(int columnIndex)
+    {
+        throw new UnsupportedOperationException("This row does not support access by column position");
+    }
+
+    default boolean isNull(int columnIndex)
+    {
+        return null == getValue(columnIndex);
+    }
+
+    /**
+     * @param columnIndex The column position, from {@link Rowset#columnIndex(String)}.
+     * @return The value as an int, or 0 if the value is null.
+     * @throws ClassCastException if the value isn't a number.
+     */
+    default int getInt(int columnIndex)
+    {
+        Object value = getValue(columnIndex);
+        return null == value ? 0 : ((Number)value).intValue();
+    }
+
+    /**
+     * @param columnIndex The column position, from {@link Rowset#columnIndex(String)}.
+     * @return The value as a long, or 0 if the value is null.
+     * @throws ClassCastException if the value isn't a number.
+     */
+    default long getLong(int columnIndex)
+    {
+        Object value = getValue(columnIndex);
+        return null == value ? 0 : ((Number)value).longValue();
+    }
+
+    /**
+     * @param columnIndex The column position, from {@link Rowset#columnIndex(String)}.
+     * @return The value as a double, or 0 if the value is null.
+     * @throws ClassCastException if the value isn't a number.
+     */
+    default double getDouble(int columnIndex)
+    {
+        Object value = getValue(columnIndex);
+        return null == value ? 0 : ((Number)value).doubleValue();
+    }
+
+    /**
+     * @param columnIndex The column position, from {@link Rowset#columnIndex(String)}.
+     * @return The value's string representation, or null if the value is null.
+     */
+    default String getString(int columnIndex)
+    {
+        Object value = getValue(columnIndex);
+        return null == value ? null : value.toString();
+    }
+
+    /**
+     * @param columnIndex The column position, from {@link Rowset#columnIndex(String)}.
+     * @return The value as an Instant, or null if the value is null.
+     * @throws ClassCastException if the value isn't a date.
+     */
+    default Instant getInstant(int columnIndex)
+    {
+        return toInstant(getValue(columnIndex));
+    }
+
+    private static Instant toInstant(Object value)
+    {
+        if (null == value || value instanceof Instant)
+            return (Instant)value;
+        if (value instanceof Date date)
+            return date.toInstant();
+        if (value instanceof LocalDateTime dateTime)
+            return dateTime.atZone(ZoneId.systemDefault()).toInstant();
+        throw new ClassCastException("Value is not a date: " + value.getClass().getName());
+    }
 }
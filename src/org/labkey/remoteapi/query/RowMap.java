@@ -15,6 +15,10 @@
  */
 package org.labkey.remoteapi.query;
 
+import org.labkey.remoteapi.collections.ColumnIndex;
+import org.labkey.remoteapi.collections.IndexedRowMap;
+
+import java.time.Instant;
 import java.util.Map;
 
 public class RowMap implements Row
@@ -22,6 +26,11 @@ public class RowMap implements Row
     private Map<String, Object> _row;
     private boolean _extendedFormat = false;
 
+    // Set for unconverted rows, whose values are converted as they're read
+    private RowTypeFixup _fixup = null;
+    // Column positions, for rows that aren't IndexedRowMaps
+    private ColumnIndex _index = null;
+
     public RowMap()
     {
     }
@@ -31,6 +40,18 @@ public RowMap(Map<String, Object> row)
         setMap(row);
     }
 
+    /**
+     * Constructs a view of a row map with the column positions of its rowset. If the fixup is not null, the map is
+     * an unconverted, case-sensitive row (see {@link BaseSelect#setLazyConversion(boolean)}); the index then also maps
+     * column names in any casing to the row's keys.
+     */
+    RowMap(Map<String, Object> row, RowTypeFixup fixup, ColumnIndex index)
+    {
+        _fixup = fixup;
+        _index = index;
+        setMap(row);
+    }
+
     public void setMap(Map<String, Object> row)
     {
         _row = row;
@@ -40,35 +61,90 @@ public void setMap(Map<String, Object> row)
     @Override
     public Object getValue(String columnName)
     {
-        Object col = _row.get(columnName);
+        Object value = getRawValue(columnName);
+        return null == _fixup ? value : _fixup.convert(columnName, value);
+    }
+
+    private Object getRawValue(String columnName)
+    {
+        return getRawValue(getColumn(columnName));
+    }
+
+    // The column's value, unwrapped from its extended-format properties
+    private Object getRawValue(Object col)
+    {
         return null == col || !_extendedFormat ? col : ((Map<String, Object>)col).get("value");
     }
 
+    @Override
+    public Object getValue(int columnIndex)
+    {
+        Object col;
+        if (_row instanceof IndexedRowMap indexed && (null == _index || indexed.getColumnIndex() == _index))
+        {
+            col = indexed.getAt(columnIndex);
+        }
+        else
+        {
+            if (null == _index)
+                throw new UnsupportedOperationException("Column positions are not available for this row");
+            col = _row.get(_index.getName(columnIndex));
+        }
+
+        Object value = getRawValue(col);
+        return null == _fixup ? value : _fixup.convert(_index.getName(columnIndex), value);
+    }
+
+    private Object getColumn(String columnName)
+    {
+        if (null != _index && !(_row instanceof IndexedRowMap))
+        {
+            int i = _index.indexOf(columnName);
+            if (i >= 0)
+                columnName = _index.getName(i);
+        }
+        return _row.get(columnName);
+    }
+
+    @Override
+    public Instant getInstant(String columnName)
+    {
+        // Parse unconverted dates straight to an Instant rather than by way of the configured date type
+        if (null != _fixup && SelectRowsResponse.ColumnDataType.DATE == _fixup.getType(columnName) &&
+            getRawValue(columnName) instanceof String s)
+        {
+            Instant instant = DateParser.INSTANCE.parseInstant(s);
+            if (null != instant)
+                return instant;
+        }
+        return Row.super.getInstant(columnName);
+    }
+
     @Override
     public Object getDisplayValue(String columnName)
     {
-        Object col = _row.get(columnName);
+        Object col = getColumn(columnName);
         return null == col || !_extendedFormat ? null : ((Map<String, Object>)col).get("displayValue");
     }
 
     @Override
     public String getUrl(String columnName)
     {
-        Object col = _row.get(columnName);
+        Object col = getColumn(columnName);
         return null == col || !_extendedFormat ? null : (String)((Map<String, Object>)col).get("url");
     }
 
     @Override
     public String getMvValue(String columnName)
     {
-        Object col = _row.get(columnName);
+        Object col = getColumn(columnName);
         return null == col || !_extendedFormat ? null : (String)((Map<String, Object>)col).get("mvValue");
     }
 
     @Override
     public Object getMvRawValue(String columnName)
     {
-        Object col = _row.get(columnName);
+        Object col = getColumn(columnName);
         return null == col || !_extendedFormat ? null : ((Map<String, Object>)col).get("mvRawValue");
     }
 
@@ -0,0 +1,174 @@
+package org.labkey.remoteapi.query;
+
+import org.apache.commons.logging.LogFactory;
+import org.labkey.remoteapi.collections.ColumnIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts the values in a parsed response row to their proper Java types based on the meta-data type names. Because
+ * JSON does not have a literal representation for dates we fixup date values for columns of type date. We also
+ * convert numeric values to their proper Java types based on the meta-data type name (int vs float).
+ * <p>
+ * Built once from the "metaData.fields" list and then applied to each row, either while walking a fully parsed
+ * response ({@link RowsResponse}) or as rows are pulled from a stream ({@link StreamingRowset}). When conversion is
+ * deferred, {@link #convert(String, Object)} converts single values as they're read instead.
+ */
+class RowTypeFixup
+{
+    private final List<String> _dateFields = new ArrayList<>();
+    private final List<String> _intFields = new ArrayList<>();
+    private final List<String> _floatFields = new ArrayList<>();
+    private final boolean _expandedFormat;
+    private final DateParser.ResultType _dateResultType;
+
+    // Case-insensitive lookup of the type of each date, float, or int field, for converting single values
+    private final ColumnIndex _typedFields;
+    private final SelectRowsResponse.ColumnDataType[] _types;
+
+    RowTypeFixup(List<Map<String, Object>> fields, double requiredVersion, DateParser.ResultType dateResultType)
+    {
+        _expandedFormat = requiredVersion == 9.1;
+        _dateResultType = dateResultType;
+
+        if (null != fields)
+        {
+            for (Map<String, Object> field : fields)
+            {
+                String type = (String)field.get("type");
+                if ("date".equalsIgnoreCase(type))
+                    _dateFields.add((String)field.get("name"));
+                else if ("float".equalsIgnoreCase(type))
+                    _floatFields.add((String)field.get("name"));
+                else if ("int".equalsIgnoreCase(type))
+                    _intFields.add((String)field.get("name"));
+            }
+        }
+
+        List<String> typedFields = new ArrayList<>(_dateFields);
+        typedFields.addAll(_floatFields);
+        typedFields.addAll(_intFields);
+        _typedFields = new ColumnIndex(typedFields);
+        _types = new SelectRowsResponse.ColumnDataType[_typedFields.size()];
+        for (int i = 0; i < _types.length; i++)
+        {
+            String name = _typedFields.getName(i);
+            _types[i] = _dateFields.contains(name) ? SelectRowsResponse.ColumnDataType.DATE
+                : _floatFields.contains(name) ? SelectRowsResponse.ColumnDataType.FLOAT
+                : SelectRowsResponse.ColumnDataType.INT;
+        }
+    }
+
+    /**
+     * @param columnName The column name (case-insensitive).
+     * @return DATE, FLOAT, or INT for columns that are converted, or null for other columns.
+     */
+    SelectRowsResponse.ColumnDataType getType(String columnName)
+    {
+        int i = _typedFields.indexOf(columnName);
+        return i < 0 ? null : _types[i];
+    }
+
+    /**
+     * Converts a single unconverted value, as {@link #fixup(Map)} would have. Date strings that can't be parsed are
+     * returned unchanged.
+     * @param columnName The column name (case-insensitive).
+     * @param value The value as parsed from the JSON.
+     * @return The converted value.
+     */
+    Object convert(String columnName, Object value)
+    {
+        if (null == value)
+            return null;
+
+        SelectRowsResponse.ColumnDataType type = getType(columnName);
+        if (null == type)
+            return value;
+
+        switch (type)
+        {
+            case DATE:
+                if (value instanceof String s)
+                {
+                    Object date = DateParser.INSTANCE.parse(s, _dateResultType);
+                    return null == date ? value : date;
+                }
+                break;
+            case FLOAT:
+                if (value instanceof Number num && !(value instanceof Double))
+                    return num.doubleValue();
+                break;
+            case INT:
+                if (value instanceof Number num && !(value instanceof Integer))
+                    return num.intValue();
+                break;
+            default:
+                break;
+        }
+        return value;
+    }
+
+    /**
+     * @return true if there are no date, float, or int fields to fixup
+     */
+    boolean isEmpty()
+    {
+        return _dateFields.isEmpty() && _floatFields.isEmpty() && _intFields.isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    void fixup(Map<String, Object> row)
+    {
+        for (String field : _dateFields)
+        {
+            //in expanded format, the value is a Map<String, Object> with several
+            //possible properties, including "value" which is the column's value
+            String valueFieldName = _expandedFormat ? "value" : field;
+            Map<String, Object> map = _expandedFormat ? (Map<String, Object>)row.get(field) : row;
+            Object dateString = map.get(valueFieldName);
+
+            if (dateString instanceof String ds)
+            {
+                //parse the string into a Java date and reset the association
+                Object date = DateParser.INSTANCE.parse(ds, _dateResultType);
+                if (null != date)
+                {
+                    map.put(valueFieldName, date);
+                }
+                else
+                {
+                    //just log it--if it doesn't parse, we can't fix it up
+                    LogFactory.getLog(SelectRowsResponse.class).warn("Failed to parse date '" + dateString + "'");
+                }
+            } //if the value is present and a string
+        } //for each date field
+
+        //floats
+        for (String field : _floatFields)
+        {
+            String valueFieldName = _expandedFormat ? "value" : field;
+            Map<String, Object> map = _expandedFormat ? (Map<String, Object>)row.get(field) : row;
+            Object value = map.get(valueFieldName);
+
+            if (value instanceof Number num)
+            {
+                map.put(valueFieldName, num.doubleValue());
+            }
+        }
+
+        //ints
+        for (String field : _intFields)
+        {
+            String valueFieldName = _expandedFormat ? "value" : field;
+            Map<String, Object> map = _expandedFormat ? (Map<String, Object>)row.get(field) : row;
+            Object value = map.get(valueFieldName);
+
+            if (value instanceof Number num)
+            {
+                map.put(valueFieldName, num.intValue());
+            }
+        }
+    }
+}
@@ -15,17 +15,19 @@
  */
 package org.labkey.remoteapi.query;
 
-import org.apache.commons.logging.LogFactory;
 import org.json.JSONObject;
 import org.labkey.remoteapi.CommandResponse;
 import org.labkey.remoteapi.HasRequiredVersion;
-import org.labkey.remoteapi.collections.CaseInsensitiveHashMap;
+import org.labkey.remoteapi.collections.ColumnIndex;
+import org.labkey.remoteapi.collections.IndexedRowMap;
+import org.labkey.remoteapi.internal.JsonStreamReader;
 
-import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Base class for command responses that contain an array of rows
@@ -34,6 +36,11 @@
  */
 abstract class RowsResponse extends CommandResponse
 {
+    // When conversion is deferred (see BaseSelect.setLazyConversion()), the converter for the unconverted rows;
+    // null once the rows have been converted
+    private RowTypeFixup _lazyFixup = null;
+    private ColumnIndex _lazyIndex = null;
+
     /**
      * Constructs a new RowsResponse given the specified text and status code.
      * @param text The response text.
@@ -45,9 +52,118 @@ abstract class RowsResponse extends CommandResponse
     RowsResponse(String text, int statusCode, String contentType, JSONObject json, HasRequiredVersion hasRequiredVersion)
     {
         super(text, statusCode, contentType, json);
-        double requiredVersion = hasRequiredVersion.getRequiredVersion();
-        fixupParsedData(requiredVersion);
-        caseInsensitizeRowMaps();
+        RowTypeFixup fixup = createFixup(getProperty("metaData.fields"), hasRequiredVersion);
+        if (isLazyConversion(hasRequiredVersion) && null != getParsedData())
+        {
+            // Leave the rows as parsed; values are converted as they're read through the Row interface
+            _lazyFixup = fixup;
+        }
+        else
+        {
+            fixupParsedData(fixup);
+            caseInsensitizeRowMaps();
+        }
+    }
+
+    /**
+     * Constructs a new RowsResponse from data read by {@link #readData(JsonStreamReader, HasRequiredVersion)}, whose
+     * rows have already been converted unless conversion was deferred.
+     * @param text The response text (or null if it was not read into memory).
+     * @param statusCode The HTTP status code.
+     * @param contentType the Content-Type header value.
+     * @param data The parsed response data.
+     * @param hasRequiredVersion An object that implements HasRequiredVersion, such as the command that created this response
+     */
+    RowsResponse(String text, int statusCode, String contentType, Map<String, Object> data, HasRequiredVersion hasRequiredVersion)
+    {
+        super(text, statusCode, contentType, data);
+        if (isLazyConversion(hasRequiredVersion))
+            _lazyFixup = createFixup(getProperty("metaData.fields"), hasRequiredVersion);
+    }
+
+    /**
+     * Reads a rows response body in a single pass. Unless conversion is deferred, each row is converted and stored in
+     * its case-insensitive row map as it's read, so the rows are never held in a second form. This relies on the
+     * server writing "metaData" before "rows"; if it doesn't, the rows are converted once the body has been read.
+     * @param reader A reader positioned at the start of the response body.
+     * @param hasRequiredVersion The command that created the response.
+     * @return The parsed data, ready for {@link #RowsResponse(String, int, String, Map, HasRequiredVersion)}.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> readData(JsonStreamReader reader, HasRequiredVersion hasRequiredVersion)
+    {
+        boolean convert = !isLazyConversion(hasRequiredVersion);
+        Map<String, Object> data = new HashMap<>();
+
+        reader.beginObject();
+        String name;
+        while (null != (name = reader.nextName()))
+        {
+            if (convert && "rows".equals(name) && data.containsKey("metaData") && reader.peek() == '[')
+            {
+                List<Map<String, Object>> fields = getFields(data);
+                data.put(name, readRows(reader, fields, createFixup(fields, hasRequiredVersion)));
+                convert = false;
+            }
+            else
+            {
+                data.put(name, reader.readValue());
+            }
+        }
+
+        if (convert)
+        {
+            List<Map<String, Object>> fields = getFields(data);
+            Object rows = data.get("rows");
+            data.put("rows", convertRows(rows instanceof List<?> list ? (List<Map<String, Object>>)list : null,
+                fields, createFixup(fields, hasRequiredVersion)));
+        }
+
+        return data;
+    }
+
+    private static List<Map<String, Object>> readRows(JsonStreamReader reader, List<Map<String, Object>> fields, RowTypeFixup fixup)
+    {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        ColumnIndex index = null;
+
+        reader.beginArray();
+        while (reader.hasNextElement())
+        {
+            Map<String, Object> row;
+            if (null == index)
+            {
+                // The first row supplies any columns that aren't in the meta-data
+                Map<String, Object> first = reader.readObject(new HashMap<>());
+                index = createColumnIndex(fields, first);
+                row = new IndexedRowMap(index, first);
+            }
+            else
+            {
+                row = reader.readObject(new IndexedRowMap(index));
+            }
+            fixup.fixup(row);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> getFields(Map<String, Object> data)
+    {
+        Object metaData = data.get("metaData");
+        return metaData instanceof Map<?, ?> map ? (List<Map<String, Object>>)map.get("fields") : null;
+    }
+
+    private static RowTypeFixup createFixup(List<Map<String, Object>> fields, HasRequiredVersion hasRequiredVersion)
+    {
+        DateParser.ResultType dateResultType = hasRequiredVersion instanceof BaseSelect select ? select.getDateResultType() : DateParser.ResultType.DATE;
+        return new RowTypeFixup(fields, hasRequiredVersion.getRequiredVersion(), dateResultType);
+    }
+
+    private static boolean isLazyConversion(HasRequiredVersion hasRequiredVersion)
+    {
+        return hasRequiredVersion instanceof BaseSelect select && select.isLazyConversion();
     }
 
     /**
@@ -61,132 +177,107 @@ abstract class RowsResponse extends CommandResponse
      *     // use Number.intValue(), doubleValue(), longValue(), etc to get various primitive types
      * }
      * </code></pre>
+     * If the command requested lazy conversion, the first call to this method converts all the rows.
      * @return The list of rows (each row is a Map), or null if the rows list was not included in the response.
      */
     public List<Map<String, Object>> getRows()
     {
+        convertLazyRows();
         return getProperty("rows");
     }
 
     /**
-     * Fixes up the parsed data. Currently, this converts string-based date literals into real Java Date objects.
+     * Returns a rowset that converts values as they're read, or null if the rows have already been converted.
      */
-    private void fixupParsedData(double requiredVersion)
+    synchronized Rowset getLazyRowset()
     {
-        if (null == getParsedData())
-            return;
-        
-        // Because JSON does not have a literal representation for dates we fixup date values in the response rows for
-        // columns of type date. We also convert numeric values to their proper Java types based on the meta-data type
-        // name (int vs float).
-
-        //build up the list of date fields
-        List<String> dateFields = new ArrayList<>();
-        List<String> intFields = new ArrayList<>();
-        List<String> floatFields = new ArrayList<>();
-        List<Map<String, Object>> fields = getProperty("metaData.fields");
-        if (null == fields)
-            return;
+        if (null == _lazyFixup)
+            return null;
 
-        for (Map<String, Object> field : fields)
+        List<Map<String, Object>> rows = getProperty("rows");
+        if (null == _lazyIndex && null != rows && !rows.isEmpty())
+            _lazyIndex = createColumnIndex(getProperty("metaData.fields"), rows.get(0));
+        return new RowsResponseRowset(rows, _lazyFixup, _lazyIndex);
+    }
+
+    private synchronized void convertLazyRows()
+    {
+        if (null != _lazyFixup)
         {
-            String type = (String)field.get("type");
-            if ("date".equalsIgnoreCase(type))
-                dateFields.add((String)field.get("name"));
-            else if ("float".equalsIgnoreCase(type))
-                floatFields.add((String)field.get("name"));
-            else if ("int".equalsIgnoreCase(type))
-                intFields.add((String)field.get("name"));
+            fixupParsedData(_lazyFixup);
+            caseInsensitizeRowMaps();
+            _lazyFixup = null;
+            _lazyIndex = null;
         }
+    }
+
+    /**
+     * Fixes up the parsed data. Currently, this converts string-based date literals into real Java Date objects.
+     */
+    private void fixupParsedData(RowTypeFixup fixup)
+    {
+        if (null == getParsedData())
+            return;
 
         // If no fields to fixup, just return
-        if (dateFields.isEmpty() && floatFields.isEmpty() && intFields.isEmpty())
+        if (fixup.isEmpty())
             return;
 
         // If no rows, just return
-        List<Map<String, Object>> rows = getRows();
+        List<Map<String, Object>> rows = getProperty("rows");
         if (null == rows || rows.isEmpty())
             return;
 
-        // The selectRows.api returns dates in a very particular format so that JavaScript can parse them into actual
-        // date classes. If this format ever changes, we'll need to change the format string used here.
-        // CONSIDER: use a library like ConvertUtils to avoid this dependency?
-        DateParser dateFormat = new DateParser();
-        boolean expandedFormat = requiredVersion == 9.1;
-
         for (Map<String, Object> row : rows)
-        {
-            for (String field : dateFields)
-            {
-                //in expanded format, the value is a Map<String, Object> with several
-                //possible properties, including "value" which is the column's value
-                String valueFieldName = expandedFormat ? "value" : field;
-                Map<String, Object> map = expandedFormat ? (Map<String, Object>)row.get(field) : row;
-                Object dateString = map.get(valueFieldName);
-
-                if (dateString instanceof String ds)
-                {
-                    //parse the string into a Java Date and reset the association
-                    try
-                    {
-                        Date date = dateFormat.parse(ds);
-                        if (null != date)
-                        {
-                            map.put(valueFieldName, date);
-                        }
-                    }
-                    catch(ParseException e)
-                    {
-                        //just log it--if it doesn't parse, we can't fix it up
-                        LogFactory.getLog(SelectRowsResponse.class).warn("Failed to parse date '"
-                                + dateString + "': " + e);
-                    }
-                } //if the value is present and a string
-            } //for each date field
-
-            //floats
-            for (String field : floatFields)
-            {
-                String valueFieldName = expandedFormat ? "value" : field;
-                Map<String, Object> map = expandedFormat ? (Map<String, Object>)row.get(field) : row;
-                Object value = map.get(valueFieldName);
-
-                if (value instanceof Number num)
-                {
-                    map.put(valueFieldName, num.doubleValue());
-                }
-            }
-
-            //ints
-            for (String field : intFields)
-            {
-                String valueFieldName = expandedFormat ? "value" : field;
-                Map<String, Object> map = expandedFormat ? (Map<String, Object>)row.get(field) : row;
-                Object value = map.get(valueFieldName);
-
-                if (value instanceof Number num)
-                {
-                    map.put(valueFieldName, num.intValue());
-                }
-            }
-        } //for each row
+            fixup.fixup(row);
     } //fixupParsedData()
 
     private void caseInsensitizeRowMaps()
     {
-        //copy the row maps into case-insensitive hash maps
-        List<Map<String, Object>> ciRows = new ArrayList<>();
+        //reset the rows array
+        getParsedData().put("rows", convertRows(getProperty("rows"), getProperty("metaData.fields"), null));
+    }
+
+    /**
+     * Copies the row maps into case-insensitive maps that share a single column index, first converting the values
+     * if a fixup is supplied.
+     */
+    private static List<Map<String, Object>> convertRows(List<Map<String, Object>> rows, List<Map<String, Object>> fields, RowTypeFixup fixup)
+    {
+        List<Map<String, Object>> ciRows = new ArrayList<>(null == rows ? 0 : rows.size());
 
-        if (getRows() != null)
+        if (null != rows && !rows.isEmpty())
         {
-            for (Map<String, Object> row : getRows())
+            ColumnIndex index = createColumnIndex(fields, rows.get(0));
+            for (Map<String, Object> row : rows)
             {
-                //copy the row map into a case-insensitive hash map
-                ciRows.add(new CaseInsensitiveHashMap<>(row));
+                if (null != fixup)
+                    fixup.fixup(row);
+                ciRows.add(new IndexedRowMap(index, row));
             }
         }
 
-        //reset the rows array
-        getParsedData().put("rows", ciRows);
+        return ciRows;
+    }
+
+    /**
+     * Creates the column index shared by the rows of a response: the meta-data field names followed by any other
+     * keys in the first row (e.g., the "_labkeyurl_" properties). Keys that only appear in later rows are stored in
+     * those rows' overflow maps.
+     */
+    static ColumnIndex createColumnIndex(List<Map<String, Object>> fields, Map<String, Object> firstRow)
+    {
+        Set<String> names = new LinkedHashSet<>();
+        if (null != fields)
+        {
+            for (Map<String, Object> field : fields)
+            {
+                Object name = field.get("name");
+                if (name instanceof String s)
+                    names.add(s);
+            }
+        }
+        names.addAll(firstRow.keySet());
+        return new ColumnIndex(names);
     }
 }
@@ -15,6 +15,9 @@
  */
 package org.labkey.remoteapi.query;
 
+import org.labkey.remoteapi.collections.ColumnIndex;
+import org.labkey.remoteapi.collections.IndexedRowMap;
+
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -22,10 +25,22 @@
 public class RowsResponseRowset implements Rowset
 {
     private final List<Map<String, Object>> _rows;
+    private final RowTypeFixup _fixup;
+    private ColumnIndex _index;
 
     public RowsResponseRowset(List<Map<String, Object>> rows)
+    {
+        this(rows, null, null);
+    }
+
+    /**
+     * Constructs a rowset over unconverted rows, whose values are converted as they're read.
+     */
+    RowsResponseRowset(List<Map<String, Object>> rows, RowTypeFixup fixup, ColumnIndex index)
     {
         _rows = rows;
+        _fixup = fixup;
+        _index = index;
     }
 
     @Override
@@ -34,6 +49,23 @@ public int getSize()
         return null != _rows ? _rows.size() : 0;
     }
 
+    @Override
+    public int columnIndex(String columnName)
+    {
+        ColumnIndex index = getIndex();
+        return null == index ? -1 : index.indexOf(columnName);
+    }
+
+    private ColumnIndex getIndex()
+    {
+        if (null == _index && null != _rows && !_rows.isEmpty())
+        {
+            Map<String, Object> first = _rows.get(0);
+            _index = first instanceof IndexedRowMap indexed ? indexed.getColumnIndex() : RowsResponse.createColumnIndex(null, first);
+        }
+        return _index;
+    }
+
     @Override
     public Iterator<Row> iterator()
     {
@@ -50,7 +82,7 @@ public boolean hasNext()
             @Override
             public Row next()
             {
-                RowMap row = new RowMap(_rows.get(_idx));
+                RowMap row = new RowMap(_rows.get(_idx), _fixup, getIndex());
                 ++_idx;
                 return row;
             }
@@ -32,4 +32,15 @@ public interface Rowset extends Iterable<Row>
 {
     int getSize();
 
+    /**
+     * Returns the position of a column, for use with the positional accessors on {@link Row} such as
+     * {@link Row#getDouble(int)}. Look up each column once, before iterating.
+     * @param columnName The column name (case-insensitive).
+     * @return The column's position, or -1 if the column is not present or this rowset doesn't support access by
+     * position.
+     */
+    default int columnIndex(String columnName)
+    {
+        return -1;
+    }
 }
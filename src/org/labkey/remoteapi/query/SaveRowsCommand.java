@@ -15,11 +15,19 @@
  */
 package org.labkey.remoteapi.query;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.labkey.remoteapi.PostCommand;
+import org.labkey.remoteapi.ResponseParser;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -83,6 +91,32 @@
  */
 public abstract class SaveRowsCommand extends PostCommand<SaveRowsResponse>
 {
+    // Immutable and thread-safe, unlike SimpleDateFormat, so one instance serves every command
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("d MMM yyyy HH:mm:ss Z");
+    private static final Log LOG = LogFactory.getLog(SaveRowsCommand.class);
+
+    // Whether each subclass overrides getJsonObject(), which a streamed request wouldn't call
+    private static final ClassValue<Boolean> OVERRIDES_GET_JSON_OBJECT = new ClassValue<>()
+    {
+        @Override
+        protected Boolean computeValue(Class<?> type)
+        {
+            try
+            {
+                if (type.getMethod("getJsonObject").getDeclaringClass() == SaveRowsCommand.class)
+                    return false;
+            }
+            catch (NoSuchMethodException e)
+            {
+                return false;
+            }
+
+            LOG.warn(type.getName() + " overrides getJsonObject(), so its requests are built in memory rather than " +
+                "streamed. Override getEnvelopeJsonObject() to add request properties instead.");
+            return true;
+        }
+    };
+
     public enum AuditBehavior
     {
         NONE,
@@ -94,6 +128,7 @@ public abstract class SaveRowsCommand extends PostCommand<SaveRowsResponse>
     private String _queryName;
     private Map<String, Object> _extraContext;
     private List<Map<String, Object>> _rows = new ArrayList<>();
+    private Iterable<? extends Map<String, Object>> _rowSource;
     private AuditBehavior _auditBehavior;
     private String _auditUserComment;
 
@@ -225,12 +260,32 @@ public void setAuditUserComment(String auditUserComment)
     }
 
     /**
-     * Dynamically builds the JSON object to send based on the current
-     * schema name, query name and rows list.
-     * @return The JSON object to send.
+     * Returns the rows that will be sent to the server: the row source, if one has been set, otherwise the list of
+     * rows.
+     * @return The rows to send.
      */
-    @Override
-    public JSONObject getJsonObject()
+    public Iterable<? extends Map<String, Object>> getRowSource()
+    {
+        return null != _rowSource ? _rowSource : getRows();
+    }
+
+    /**
+     * Sets a source of rows to send instead of the row list. Rows are pulled from the source and serialized one at a
+     * time as the request body is written, so the rows needn't be held in memory if the source produces them lazily.
+     * The source may be iterated more than once (for example, if the request must be retried).
+     * @param rowSource The rows to send, or null to send the row list.
+     */
+    public void setRowSource(Iterable<? extends Map<String, Object>> rowSource)
+    {
+        _rowSource = rowSource;
+    }
+
+    /**
+     * Builds the JSON object containing all properties to send except the rows: schema name, query name, extra
+     * context, and audit settings. Override to add properties to the request.
+     * @return The JSON object to send, without rows.
+     */
+    protected JSONObject getEnvelopeJsonObject()
     {
         JSONObject json = new JSONObject();
         json.put("schemaName", getSchemaName());
@@ -241,15 +296,30 @@ public JSONObject getJsonObject()
             json.put("auditBehavior", getAuditBehavior());
         if (getAuditUserComment() != null)
             json.put("auditUserComment", getAuditUserComment());
+        if (getRequiredVersion() > 0)
+            json.put(CommonParameters.apiVersion.name(), getRequiredVersion());
+        return json;
+    }
+
+    /**
+     * Dynamically builds the JSON object to send based on the current
+     * schema name, query name and rows list. Note that the request itself
+     * is streamed (see {@link #createRequest(URI)}) and doesn't use this method
+     * unless a subclass overrides it.
+     * @return The JSON object to send.
+     */
+    @Override
+    public JSONObject getJsonObject()
+    {
+        JSONObject json = getEnvelopeJsonObject();
 
         //unfortunately, JSON simple is so simple that it doesn't
         //encode maps into JSON objects on the fly,
         //nor dates into property JSON format
         JSONArray jsonRows = new JSONArray();
-        if(null != getRows())
+        if(null != getRowSource())
         {
-            SimpleDateFormat fmt = new SimpleDateFormat("d MMM yyyy HH:mm:ss Z");
-            for(Map<String, Object> row : getRows())
+            for(Map<String, Object> row : getRowSource())
             {
                 JSONObject jsonRow;
                 if (row instanceof JSONObject jo) //optimization
@@ -264,8 +334,8 @@ public JSONObject getJsonObject()
                     {
                         Object value = entry.getValue();
 
-                        if(value instanceof Date)
-                            value = fmt.format((Date)value);
+                        if(value instanceof Date date)
+                            value = formatDate(date);
 
                         // JSONObject.wrap allows us to save 'null' values.
                         jsonRow.put(entry.getKey(), JSONObject.wrap(value));
@@ -278,9 +348,67 @@ public JSONObject getJsonObject()
         return json;
     }
 
+    /**
+     * Creates the request with a streaming entity that writes the envelope properties and then serializes each row
+     * directly to the connection, rather than building the full JSON request in memory. If a subclass overrides
+     * {@link #getJsonObject()}, the request is built from that instead, so any properties it adds are still sent.
+     * @param uri The request URI
+     * @return The HttpPost object.
+     */
+    @Override
+    protected HttpPost createRequest(URI uri)
+    {
+        if (OVERRIDES_GET_JSON_OBJECT.get(getClass()))
+            return super.createRequest(uri);
+
+        HttpPost request = new HttpPost(uri);
+        request.setEntity(new SaveRowsEntity(getEnvelopeJsonObject(), getRowSource(), this));
+        return request;
+    }
+
+    /**
+     * Serializes a single row as a JSON object. Dates are formatted the same way as {@link #getJsonObject()}.
+     */
+    void writeRow(Map<String, Object> row, Writer writer) throws IOException
+    {
+        if (row instanceof JSONObject jo)
+        {
+            jo.write(writer);
+            return;
+        }
+
+        writer.write('{');
+        String sep = "";
+        for (Map.Entry<String, Object> entry : row.entrySet())
+        {
+            Object value = entry.getValue();
+            if (value instanceof Date date)
+                value = formatDate(date);
+
+            writer.write(sep);
+            JSONObject.quote(entry.getKey(), writer);
+            writer.write(':');
+            writer.write(JSONObject.valueToString(value));
+            sep = ",";
+        }
+        writer.write('}');
+    }
+
+    static String formatDate(Date date)
+    {
+        return DATE_FORMAT.format(date.toInstant().atZone(ZoneId.systemDefault()));
+    }
+
     @Override
     protected SaveRowsResponse createResponse(String text, int status, String contentType, JSONObject json)
     {
         return new SaveRowsResponse(text, status, contentType, json, this);
     }
+
+    @Override
+    protected ResponseParser<SaveRowsResponse> getResponseParser()
+    {
+        return (text, status, contentType, reader) ->
+            new SaveRowsResponse(text, status, contentType, SaveRowsResponse.readData(reader, this), this);
+    }
 }
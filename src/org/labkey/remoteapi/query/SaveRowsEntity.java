@@ -0,0 +1,98 @@
+package org.labkey.remoteapi.query;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Request entity that writes the save rows JSON (the envelope properties followed by the "rows" array) directly to
+ * the output stream, serializing one row at a time from the command's row source. The body is sent with chunked
+ * transfer encoding, so neither a JSONObject tree nor the serialized String of the full request is ever built.
+ */
+class SaveRowsEntity extends AbstractHttpEntity
+{
+    private final JSONObject _envelope;
+    private final Iterable<? extends Map<String, Object>> _rows;
+    private final SaveRowsCommand _command;
+
+    SaveRowsEntity(JSONObject envelope, Iterable<? extends Map<String, Object>> rows, SaveRowsCommand command)
+    {
+        super(ContentType.APPLICATION_JSON, null, true);
+        _envelope = envelope;
+        _rows = rows;
+        _command = command;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+        writer.write('{');
+        for (String key : _envelope.keySet())
+        {
+            JSONObject.quote(key, writer);
+            writer.write(':');
+            writer.write(JSONObject.valueToString(_envelope.opt(key)));
+            writer.write(',');
+        }
+
+        writer.write("\"rows\":[");
+        if (null != _rows)
+        {
+            String sep = "";
+            for (Map<String, Object> row : _rows)
+            {
+                writer.write(sep);
+                _command.writeRow(row, writer);
+                sep = ",";
+            }
+        }
+        writer.write("]}");
+
+        // Flush but don't close; the caller owns the output stream
+        writer.flush();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public long getContentLength()
+    {
+        return -1;
+    }
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming()
+    {
+        return false;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
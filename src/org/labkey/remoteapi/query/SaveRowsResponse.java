@@ -18,6 +18,8 @@
 import org.json.JSONObject;
 import org.labkey.remoteapi.HasRequiredVersion;
 
+import java.util.Map;
+
 /**
  * Response object used for commands that derive from SaveRowsCommand.
  * This response object provides helper methods for accessing the important
@@ -38,6 +40,11 @@ public SaveRowsResponse(String text, int statusCode, String contentType, JSONObj
         super(text, statusCode, contentType, json, hasRequiredVersion);
     }
 
+    SaveRowsResponse(String text, int statusCode, String contentType, Map<String, Object> data, HasRequiredVersion hasRequiredVersion)
+    {
+        super(text, statusCode, contentType, data, hasRequiredVersion);
+    }
+
     /**
      * Returns the 'rowsAffected' response property.
      * @return The number of rows affected by the command, or null if this property
@@ -17,6 +17,7 @@
 
 import org.json.JSONObject;
 import org.labkey.remoteapi.Command;
+import org.labkey.remoteapi.ResponseParser;
 
 import java.util.List;
 import java.util.Map;
@@ -71,6 +72,21 @@ public SelectRowsResponse(String text, int statusCode, String contentType, JSONO
         super(text, statusCode, contentType, json, sourceCommand);
     }
 
+    SelectRowsResponse(String text, int statusCode, String contentType, Map<String, Object> data, Command<? extends SelectRowsResponse, ?> sourceCommand)
+    {
+        super(text, statusCode, contentType, data, sourceCommand);
+    }
+
+    /**
+     * Creates the parser used by the select commands, which reads the rows straight into their row maps
+     * @param sourceCommand The command that will create the responses
+     */
+    static ResponseParser<SelectRowsResponse> createParser(Command<? extends SelectRowsResponse, ?> sourceCommand)
+    {
+        return (text, status, contentType, reader) ->
+            new SelectRowsResponse(text, status, contentType, readData(reader, sourceCommand), sourceCommand);
+    }
+
     /**
      * Returns the number of rows this query could return. If a maximum row limit was set
      * on the SelectRowsCommand, this value may be higher than the actual number of rows
@@ -86,12 +102,33 @@ public Number getRowCount()
     /**
      * Returns an iterable Rowset. Use this to iterate over the rows,
      * working with the Row interface, which hides the differences between
-     * the normal (&lt;9.1) and extended (&gt;=9.1) response formats.
+     * the normal (&lt;9.1) and extended (&gt;=9.1) response formats. If the command requested lazy conversion
+     * (see {@link BaseSelect#setLazyConversion(boolean)}), and {@link #getRows()} hasn't been called, values are
+     * converted as they're read from the rows.
      * @return An iterable Rowset.
      */
     public Rowset getRowset()
     {
-        return new RowsResponseRowset(getProperty("rows"));
+        Rowset lazy = getLazyRowset();
+        return null != lazy ? lazy : new RowsResponseRowset(getProperty("rows"));
+    }
+
+    /**
+     * Returns the rows copied into a {@link ColumnarRowset}, which stores each column in a primitive array typed from
+     * the meta-data. This is much more compact than the row maps for large results and allows values to be read
+     * without boxing. The response's own rows are not modified; discard this response after conversion to reclaim
+     * their memory.
+     * @return A columnar copy of the rows.
+     * @throws IllegalStateException if the response has no meta-data section.
+     */
+    public ColumnarRowset getColumnarRowset()
+    {
+        List<Map<String, Object>> fields = getProperty("metaData.fields");
+        if (null == fields)
+            throw new IllegalStateException("The response has no metaData section; columns can't be determined.");
+
+        Rowset rowset = getRowset();
+        return ColumnarRowset.load(fields, rowset, rowset.getSize());
     }
 
     /**
@@ -16,10 +16,12 @@
 package org.labkey.remoteapi.query;
 
 import org.json.JSONObject;
-import org.labkey.remoteapi.CommandResponse;
+import org.labkey.remoteapi.CommandException;
+import org.labkey.remoteapi.Connection;
 import org.labkey.remoteapi.PostCommand;
 import org.labkey.remoteapi.internal.EncodeUtils;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -33,14 +35,16 @@
  * https://www.labkey.org/Documentation/wiki-page.view?name=labkeySql</a>
  * <p>
  *
- * Uses stream-lined sql-execute.api instead of query-executesql.api
+ * Uses stream-lined sql-execute.api instead of query-executesql.api. The response is a compact, delimited text
+ * format rather than JSON; use {@link #execute} to get a {@link SqlExecuteResponse} or {@link #stream} to read rows
+ * directly from the server with a {@link SqlExecuteReader}.
  */
-public class SqlExecuteCommand extends PostCommand<CommandResponse>
+public class SqlExecuteCommand extends PostCommand<SqlExecuteResponse>
 {
-    private static final char nul_char = '\u0000';
-    private static final char bs_char  = '\u0008'; // backspace
-    private static final char rs_char  = '\u001E'; // record separator
-    private static final char us_char  = '\u001F';  // unit separator
+    static final char nul_char = '\u0000';
+    static final char bs_char  = '\u0008'; // backspace
+    static final char rs_char  = '\u001E'; // record separator
+    static final char us_char  = '\u001F';  // unit separator
 
     private String _schemaName;
     private String _sql;
@@ -136,6 +140,35 @@ public String getFieldSeparator()
         return _sep;
     }
 
+    /**
+     * Executes the SQL and returns a reader that tokenizes rows from the server as it is iterated, rather than
+     * buffering the entire response. The caller must close the returned reader.
+     * @param connection The connection on which this command should be executed.
+     * @param folderPath The folder path in which to execute the command.
+     * @return A SqlExecuteReader positioned at the first row.
+     * @throws CommandException Thrown if the server returned a non-success status code.
+     * @throws IOException Thrown if there was an IO problem.
+     */
+    public SqlExecuteReader stream(Connection connection, String folderPath) throws IOException, CommandException
+    {
+        Response response = _execute(connection, folderPath);
+        try
+        {
+            return new SqlExecuteReader(response.getReader(), response);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            response.close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected SqlExecuteResponse createResponse(String text, int status, String contentType, JSONObject json)
+    {
+        return new SqlExecuteResponse(text, status, contentType, json);
+    }
+
     @Override
     public JSONObject getJsonObject()
     {
@@ -0,0 +1,311 @@
+package org.labkey.remoteapi.query;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Tokenizes the compact text format returned by sql-execute.api (see {@link SqlExecuteCommand}) directly from a
+ * {@link Reader}, one field at a time, without regular expressions or an intermediate String per line.
+ * <p>
+ * Fields are terminated by the unit separator character followed by a tab and lines by the unit separator followed
+ * by a newline. The first line holds the column names and the second the column JSON types ("int", "float",
+ * "boolean", "date", or "string"). Each subsequent line is a row. Within a row, a field consisting of a single NUL
+ * character is null and, in compact mode, a field consisting of a single backspace character repeats the value from
+ * the same column of the previous row.
+ * <p>
+ * Values are converted based on the column type: int columns to Integer (or Long when out of range), float columns
+ * to Double, boolean columns to Boolean, date columns to Date, and everything else to String. A value that fails to
+ * convert is returned as a String.
+ * <p>
+ * Obtain one from {@link SqlExecuteCommand#stream} and close it when done. Rows are returned as Object arrays,
+ * ordered as {@link #getColumnNames()}. The reader may be iterated only once; iteration methods throw
+ * {@link UncheckedIOException} if reading from the server fails mid-stream or the response ends partway through a row.
+ */
+public class SqlExecuteReader implements Iterable<Object[]>, Closeable
+{
+    private static final int END_FIELD = 0;
+    private static final int END_LINE = 1;
+    private static final int END_INPUT = 2;
+
+    private final Reader _reader;
+    private final Closeable _resource;
+    private final char[] _buffer = new char[8192];
+    private final StringBuilder _field = new StringBuilder();
+
+    private final List<String> _columnNames;
+    private final List<String> _columnTypes;
+    private final SelectRowsResponse.ColumnDataType[] _types;
+
+    private int _pos = 0;
+    private int _limit = 0;
+    private Object[] _previous;
+    private boolean _closed = false;
+    private boolean _iterated = false;
+
+    /**
+     * @param reader The source of the compact format text
+     * @param resource Closed along with this reader (e.g., the HTTP response), may be null
+     */
+    SqlExecuteReader(Reader reader, Closeable resource) throws IOException
+    {
+        _reader = reader;
+        _resource = resource;
+
+        try
+        {
+            _columnNames = Collections.unmodifiableList(readHeaderLine());
+            _columnTypes = Collections.unmodifiableList(readHeaderLine());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            close();
+            throw e;
+        }
+
+        _types = new SelectRowsResponse.ColumnDataType[_columnNames.size()];
+        for (int i = 0; i < _types.length && i < _columnTypes.size(); i++)
+            _types[i] = SelectRowsResponse.ColumnDataType.parseJsonType(_columnTypes.get(i));
+        _previous = new Object[_types.length];
+    }
+
+    /**
+     * @return The column names, in the order values appear in each row.
+     */
+    public List<String> getColumnNames()
+    {
+        return _columnNames;
+    }
+
+    /**
+     * @return The JSON type name of each column, as sent by the server.
+     */
+    public List<String> getColumnTypes()
+    {
+        return _columnTypes;
+    }
+
+    /**
+     * Returns the position of a column in each row.
+     * @param columnName The column name (case-insensitive).
+     * @return The zero-based column index, or -1 if the column is not present.
+     */
+    public int getColumnIndex(String columnName)
+    {
+        for (int i = 0; i < _columnNames.size(); i++)
+        {
+            if (_columnNames.get(i).equalsIgnoreCase(columnName))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public Iterator<Object[]> iterator()
+    {
+        if (_iterated)
+            throw new IllegalStateException("A SqlExecuteReader may be iterated only once.");
+        _iterated = true;
+
+        return new Iterator<>()
+        {
+            private Object[] _next = null;
+
+            @Override
+            public boolean hasNext()
+            {
+                if (null == _next && !_closed)
+                {
+                    try
+                    {
+                        _next = readRow();
+                        if (null == _next)
+                            close();
+                    }
+                    catch (IOException e)
+                    {
+                        closeQuietly();
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return null != _next;
+            }
+
+            @Override
+            public Object[] next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                Object[] row = _next;
+                _next = null;
+                return row;
+            }
+        };
+    }
+
+    private List<String> readHeaderLine() throws IOException
+    {
+        List<String> values = new ArrayList<>();
+        int end;
+        do
+        {
+            end = readField();
+            if (end == END_INPUT && values.isEmpty() && _field.isEmpty())
+                break;
+            if (end == END_INPUT)
+                throw truncated();
+            values.add(_field.toString());
+        }
+        while (end == END_FIELD);
+
+        return values;
+    }
+
+    private Object[] readRow() throws IOException
+    {
+        Object[] row = new Object[_types.length];
+        int col = 0;
+        int end;
+        do
+        {
+            end = readField();
+            if (end == END_INPUT && col == 0 && _field.isEmpty())
+                return null;
+            if (end == END_INPUT)
+                throw truncated();
+            if (col < row.length)
+                row[col] = convert(col);
+            col++;
+        }
+        while (end == END_FIELD);
+
+        _previous = row;
+        return row;
+    }
+
+    // Every line ends with a separator, so running out of input partway through one means the response was cut off
+    private IOException truncated()
+    {
+        return new IOException("The sql-execute response ended partway through a line");
+    }
+
+    private Object convert(int col)
+    {
+        int len = _field.length();
+        if (len == 1)
+        {
+            char c = _field.charAt(0);
+            if (c == SqlExecuteCommand.nul_char)
+                return null;
+            if (c == SqlExecuteCommand.bs_char)
+                return _previous[col];
+        }
+
+        SelectRowsResponse.ColumnDataType type = _types[col];
+        if (null != type && len > 0)
+        {
+            try
+            {
+                switch (type)
+                {
+                    case INT:
+                        long l = Long.parseLong(_field, 0, len, 10);
+                        // Not a conditional expression, which would unbox and widen the Integer to a Long
+                        if (l == (int)l)
+                            return (int)l;
+                        return l;
+                    case FLOAT:
+                        return Double.parseDouble(_field.toString());
+                    case BOOLEAN:
+                        return "true".contentEquals(_field) || "1".contentEquals(_field);
+                    case DATE:
+                        Object date = DateParser.INSTANCE.parseDate(_field.toString());
+                        if (null != date)
+                            return date;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                // Leave the value as a String
+            }
+        }
+
+        return _field.toString();
+    }
+
+    /**
+     * Reads the next field into _field and returns how it was terminated
+     */
+    private int readField() throws IOException
+    {
+        _field.setLength(0);
+        while (true)
+        {
+            int c = read();
+            if (c == -1)
+                return END_INPUT;
+
+            if (c == SqlExecuteCommand.us_char)
+            {
+                int d = read();
+                if (d == '\t')
+                    return END_FIELD;
+                if (d == '\n')
+                    return END_LINE;
+                if (d != -1)
+                    _pos--; // Not a separator, so reprocess the following character
+            }
+
+            _field.append((char)c);
+        }
+    }
+
+    private int read() throws IOException
+    {
+        if (_pos == _limit)
+        {
+            _limit = _reader.read(_buffer, 0, _buffer.length);
+            _pos = 0;
+            if (_limit <= 0)
+            {
+                _limit = 0;
+                return -1;
+            }
+        }
+        return _buffer[_pos++];
+    }
+
+    private void closeQuietly()
+    {
+        try
+        {
+            close();
+        }
+        catch (IOException ignored)
+        {
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!_closed)
+        {
+            _closed = true;
+            if (null != _resource)
+                _resource.close();
+            else
+                _reader.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.labkey.remoteapi.query;
+
+import org.json.JSONObject;
+import org.labkey.remoteapi.CommandResponse;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The command response class returned from {@link SqlExecuteCommand#execute(org.labkey.remoteapi.Connection, String)}.
+ * Parses the compact sql-execute text format on first access. See {@link SqlExecuteReader} for details of the format
+ * and the value conversions. For large results, prefer {@link SqlExecuteCommand#stream}, which avoids holding the
+ * response text in memory.
+ */
+public class SqlExecuteResponse extends CommandResponse
+{
+    private List<String> _columnNames;
+    private List<String> _columnTypes;
+    private List<Object[]> _rows;
+
+    public SqlExecuteResponse(String text, int statusCode, String contentType, JSONObject json)
+    {
+        super(text, statusCode, contentType, json);
+    }
+
+    /**
+     * @return The column names, in the order values appear in each row.
+     */
+    public List<String> getColumnNames()
+    {
+        parse();
+        return _columnNames;
+    }
+
+    /**
+     * @return The JSON type name of each column, as sent by the server.
+     */
+    public List<String> getColumnTypes()
+    {
+        parse();
+        return _columnTypes;
+    }
+
+    /**
+     * @return The rows, each an array of values ordered as {@link #getColumnNames()}.
+     */
+    public List<Object[]> getRows()
+    {
+        parse();
+        return _rows;
+    }
+
+    private void parse()
+    {
+        if (null != _rows)
+            return;
+
+        if (null == getText())
+        {
+            _columnNames = Collections.emptyList();
+            _columnTypes = Collections.emptyList();
+            _rows = Collections.emptyList();
+            return;
+        }
+
+        try (SqlExecuteReader reader = new SqlExecuteReader(new StringReader(getText()), null))
+        {
+            List<Object[]> rows = new ArrayList<>();
+            for (Object[] row : reader)
+                rows.add(row);
+            _columnNames = reader.getColumnNames();
+            _columnTypes = reader.getColumnTypes();
+            _rows = Collections.unmodifiableList(rows);
+        }
+        catch (IOException e)
+        {
+            // Reading from a String only fails if the text was cut off partway through a line
+            throw new UncheckedIOException(e);
+        }
+    }
+}
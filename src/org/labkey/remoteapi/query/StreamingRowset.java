@@ -0,0 +1,263 @@
+package org.labkey.remoteapi.query;
+
+import org.labkey.remoteapi.Command;
+import org.labkey.remoteapi.CommandException;
+import org.labkey.remoteapi.UncheckedCommandException;
+import org.labkey.remoteapi.collections.ColumnIndex;
+import org.labkey.remoteapi.collections.IndexedRowMap;
+import org.labkey.remoteapi.internal.JsonStreamReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A forward-only {@link Rowset} that reads rows one at a time directly from the HTTP response, so memory use stays
+ * flat regardless of the size of the result. Obtain one from {@link SelectRowsCommand#stream} or
+ * {@link ExecuteSqlCommand#stream} and always close it, preferably with try-with-resources:
+ * <pre><code>
+ * SelectRowsCommand cmd = new SelectRowsCommand("lists", "People");
+ * try (StreamingRowset rowset = cmd.stream(cn, "Api Test"))
+ * {
+ *     for (Row row : rowset)
+ *     {
+ *         Object value = row.getValue("MyColumn");
+ *     }
+ * }
+ * </code></pre>
+ * Rows receive the same date and numeric conversions as {@link SelectRowsResponse}, provided the server sends the
+ * "metaData" section ahead of the rows (as LabKey Server does). The rowset may be iterated only once. The underlying
+ * connection is released as soon as the last row has been read, or when the rowset is closed.
+ * <p>
+ * Iteration methods throw {@link UncheckedIOException} if reading from the server fails mid-stream, or
+ * {@link UncheckedCommandException} (whose cause is the {@link CommandException}) if the server reports an error after
+ * the rows.
+ */
+public class StreamingRowset implements Rowset, Closeable
+{
+    private final Command.Response _response;
+    private final JsonStreamReader _reader;
+    private final double _requiredVersion;
+    private final DateParser.ResultType _dateResultType;
+    private final boolean _lazyConversion;
+    private final Map<String, Object> _properties = new HashMap<>();
+
+    private RowTypeFixup _fixup;
+    private ColumnIndex _columnIndex;
+    private boolean _inRows = false;
+    private boolean _closed = false;
+    private boolean _iterated = false;
+    private int _rowsRead = 0;
+
+    StreamingRowset(Command.Response response, BaseSelect command) throws IOException, CommandException
+    {
+        _response = response;
+        _requiredVersion = command.getRequiredVersion();
+        _dateResultType = command.getDateResultType();
+        _lazyConversion = command.isLazyConversion();
+        _reader = new JsonStreamReader(response.getReader());
+
+        try
+        {
+            _reader.beginObject();
+            readProperties();
+        }
+        catch (CommandException | RuntimeException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads top-level properties until the start of the "rows" array or the end of the object, where the response is
+     * checked for an error reported after the rows
+     */
+    private void readProperties() throws IOException, CommandException
+    {
+        String name;
+        while (null != (name = _reader.nextName()))
+        {
+            if ("rows".equals(name))
+            {
+                _fixup = new RowTypeFixup(getFields(), _requiredVersion, _dateResultType);
+                _reader.beginArray();
+                _inRows = true;
+                return;
+            }
+            _properties.put(name, _reader.readValue());
+        }
+
+        // End of the response object; release the connection
+        _response.checkError();
+        close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> getFields()
+    {
+        Map<String, Object> metaData = getMetaData();
+        return null == metaData ? null : (List<Map<String, Object>>)metaData.get("fields");
+    }
+
+    /**
+     * Returns the number of rows read so far. The total isn't known until the stream has been consumed; see
+     * {@link #getRowCount()} for the count reported by the server.
+     * @return The number of rows returned by the iterator so far.
+     */
+    @Override
+    public int getSize()
+    {
+        return _rowsRead;
+    }
+
+    /**
+     * Returns the meta-data section of the response. See {@link SelectRowsResponse#getMetaData()}.
+     * @return The meta-data, or null if the server did not send it ahead of the rows.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getMetaData()
+    {
+        return (Map<String, Object>)_properties.get("metaData");
+    }
+
+    /**
+     * Returns the number of rows the query could return. The server sends this after the rows, so this returns
+     * null until all rows have been read.
+     * @return The total number of rows, or null if not (yet) available.
+     */
+    public Number getRowCount()
+    {
+        return (Number)_properties.get("rowCount");
+    }
+
+    /**
+     * Returns the top-level response properties (other than "rows") that have been read so far.
+     * @return An unmodifiable map of response properties.
+     */
+    public Map<String, Object> getProperties()
+    {
+        return Collections.unmodifiableMap(_properties);
+    }
+
+    /**
+     * Returns the position of a column. Positions of the meta-data fields are available as soon as the rowset is
+     * returned; other columns (e.g., "_labkeyurl_" properties) are available once the first row has been read.
+     * @param columnName The column name (case-insensitive).
+     * @return The column's position, or -1 if the column is not (yet) known.
+     */
+    @Override
+    public int columnIndex(String columnName)
+    {
+        if (null != _columnIndex)
+            return _columnIndex.indexOf(columnName);
+
+        // The row index lists the fields first, so their positions don't depend on the first row
+        List<Map<String, Object>> fields = getFields();
+        return null == fields ? -1 : RowsResponse.createColumnIndex(fields, Map.of()).indexOf(columnName);
+    }
+
+    @Override
+    public Iterator<Row> iterator()
+    {
+        if (_iterated)
+            throw new IllegalStateException("A StreamingRowset may be iterated only once.");
+        _iterated = true;
+
+        return new Iterator<>()
+        {
+            private Map<String, Object> _next = null;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean hasNext()
+            {
+                if (null != _next)
+                    return true;
+                if (!_inRows || _closed)
+                    return false;
+
+                try
+                {
+                    if (_reader.hasNextElement())
+                    {
+                        Map<String, Object> row = (Map<String, Object>)_reader.readValue();
+                        if (null == _columnIndex)
+                            _columnIndex = RowsResponse.createColumnIndex(getFields(), row);
+                        if (_lazyConversion)
+                        {
+                            _next = row;
+                        }
+                        else
+                        {
+                            _fixup.fixup(row);
+                            _next = new IndexedRowMap(_columnIndex, row);
+                        }
+                        return true;
+                    }
+
+                    // End of rows; pick up any trailing properties (e.g., rowCount)
+                    _inRows = false;
+                    readProperties();
+                    return false;
+                }
+                catch (IOException e)
+                {
+                    closeQuietly();
+                    throw new UncheckedIOException(e);
+                }
+                catch (CommandException e)
+                {
+                    // The server reported an error after sending the rows
+                    closeQuietly();
+                    throw new UncheckedCommandException(e);
+                }
+                catch (RuntimeException e)
+                {
+                    closeQuietly();
+                    throw e;
+                }
+            }
+
+            @Override
+            public Row next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                Row row = _lazyConversion ? new RowMap(_next, _fixup, _columnIndex) : new RowMap(_next);
+                _next = null;
+                _rowsRead++;
+                return row;
+            }
+        };
+    }
+
+    private void closeQuietly()
+    {
+        try
+        {
+            close();
+        }
+        catch (IOException ignored)
+        {
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!_closed)
+        {
+            _closed = true;
+            _inRows = false;
+            _response.close();
+        }
+    }
+}
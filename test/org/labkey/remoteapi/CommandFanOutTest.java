@@ -0,0 +1,95 @@
+package org.labkey.remoteapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.query.SelectRowsCommand;
+import org.labkey.remoteapi.query.SelectRowsResponse;
+import org.labkey.remoteapi.test.MockLabKeyServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fans a command out over folders on a {@link MockLabKeyServer}, checking how many run at once.
+ */
+public class CommandFanOutTest
+{
+    private static final int FOLDERS = 12;
+
+    private final AtomicInteger _inFlight = new AtomicInteger();
+    private final AtomicInteger _maxInFlight = new AtomicInteger();
+    private MockLabKeyServer _server;
+    private Connection _connection;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _server = new MockLabKeyServer();
+        _server.setRowCount(1);
+        _server.setLatency(100);
+        _server.start();
+        _connection = _server.createConnection();
+        _connection.addCommandListener(new CommandListener()
+        {
+            @Override
+            public void beforeSend(CommandEvent event)
+            {
+                if (event.getActionName().startsWith("selectRows"))
+                    _maxInFlight.accumulateAndGet(_inFlight.incrementAndGet(), Math::max);
+            }
+
+            @Override
+            public void onResponseComplete(CommandEvent event)
+            {
+                if (event.getActionName().startsWith("selectRows"))
+                    _inFlight.decrementAndGet();
+            }
+        });
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.close();
+    }
+
+    @Test
+    public void testDefaultLimitFollowsPoolConfig() throws Exception
+    {
+        CommandFanOut<SelectRowsResponse> fanOut = new CommandFanOut<>(_connection, folderPath -> new SelectRowsCommand("lists", "Synthetic"));
+        assertEquals(0, fanOut.getMaxConcurrency());
+
+        // Configured after the fan-out was created, but before it runs
+        _connection.setPoolConfig(new ConnectionPoolConfig().setMaxPerRoute(3));
+        List<CommandFanOut.Result<SelectRowsResponse>> results = fanOut.execute(folders());
+
+        assertEquals(FOLDERS, results.size());
+        for (CommandFanOut.Result<SelectRowsResponse> result : results)
+            assertTrue(String.valueOf(result.getException()), result.isSuccess());
+        assertEquals(3, _maxInFlight.get());
+    }
+
+    @Test
+    public void testExplicitLimit() throws Exception
+    {
+        CommandFanOut<SelectRowsResponse> fanOut = new CommandFanOut<>(_connection, folderPath -> new SelectRowsCommand("lists", "Synthetic"));
+        fanOut.setMaxConcurrency(2);
+        _connection.setPoolConfig(new ConnectionPoolConfig().setMaxPerRoute(10));
+
+        assertEquals(FOLDERS, fanOut.execute(folders()).size());
+        assertEquals(2, _maxInFlight.get());
+    }
+
+    private static List<String> folders()
+    {
+        List<String> folders = new ArrayList<>();
+        for (int i = 0; i < FOLDERS; i++)
+            folders.add("/Project/Study" + i);
+        return folders;
+    }
+}
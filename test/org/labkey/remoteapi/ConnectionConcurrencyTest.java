@@ -0,0 +1,172 @@
+package org.labkey.remoteapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.query.SelectRowsCommand;
+import org.labkey.remoteapi.query.SelectRowsResponse;
+import org.labkey.remoteapi.test.MockLabKeyServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Shares one Connection among many threads against a {@link MockLabKeyServer}, which rejects POSTs without the
+ * current CSRF token.
+ */
+public class ConnectionConcurrencyTest
+{
+    private static final int THREADS = 16;
+    private static final String LOGIN = "login-whoami.api";
+    private static final String SELECT_ROWS = "query-selectRows.api";
+
+    private final CountingCredentialsProvider _credentials = new CountingCredentialsProvider();
+    private final List<Exception> _errors = new CopyOnWriteArrayList<>();
+    private final Set<String> _csrfSent = ConcurrentHashMap.newKeySet();
+    private MockLabKeyServer _server;
+    private Connection _connection;
+    private ExecutorService _executor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _server = new MockLabKeyServer();
+        _server.setRowCount(10);
+        // Slow responses make sure the first requests overlap the initialization
+        _server.setLatency(50);
+        _server.start();
+        _connection = new Connection(_server.getBaseUrl(), _credentials);
+        _connection.addCommandListener(new CommandListener()
+        {
+            @Override
+            public void beforeSend(CommandEvent event)
+            {
+                if (event.getActionName().startsWith("selectRows") && null != event.getRequest().getFirstHeader(Connection.X_LABKEY_CSRF))
+                    _csrfSent.add(event.getRequest().getFirstHeader(Connection.X_LABKEY_CSRF).getValue());
+            }
+
+            @Override
+            public void onError(CommandEvent event, Exception e)
+            {
+                _errors.add(e);
+            }
+        });
+        _executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException
+    {
+        _executor.shutdownNow();
+        _executor.awaitTermination(10, TimeUnit.SECONDS);
+        _server.close();
+    }
+
+    @Test
+    public void testConcurrentFirstRequests() throws Exception
+    {
+        List<SelectRowsResponse> responses = all(() -> select());
+
+        assertEquals(THREADS, responses.size());
+        for (SelectRowsResponse response : responses)
+            assertEquals(10, response.getRows().size());
+        assertEquals(1, _credentials.getInitializeCount());
+        assertEquals(1, _server.getRequestCount(LOGIN));
+        assertEquals(THREADS, _server.getRequestCount(SELECT_ROWS));
+        assertEquals("Every request should send the token issued at login", 1, _csrfSent.size());
+        assertEquals(List.of(), _errors);
+    }
+
+    @Test
+    public void testConcurrentFirstAsyncRequests() throws Exception
+    {
+        List<SelectRowsResponse> responses = all(() -> new SelectRowsCommand("lists", "Synthetic").executeAsync(_connection, "Home").get());
+
+        assertEquals(THREADS, responses.size());
+        assertEquals(1, _credentials.getInitializeCount());
+        assertEquals(1, _server.getRequestCount(LOGIN));
+        assertEquals(1, _csrfSent.size());
+        assertEquals(List.of(), _errors);
+    }
+
+    @Test
+    public void testSessionRotation() throws Exception
+    {
+        select();
+        assertEquals(1, _csrfSent.size());
+        String original = _csrfSent.iterator().next();
+
+        // One thread's response starts a new session; the old token is no longer accepted
+        _server.rotateSessionOnNextResponse();
+        _executor.submit(() -> select()).get();
+        assertEquals(Set.of(original), _csrfSent);
+        _csrfSent.clear();
+
+        // Requests on every other thread pick up the new token rather than being rejected with the old one
+        List<SelectRowsResponse> responses = all(() -> select());
+
+        assertEquals(THREADS, responses.size());
+        assertEquals(1, _csrfSent.size());
+        assertNotEquals(original, _csrfSent.iterator().next());
+        assertEquals(1, _credentials.getInitializeCount());
+        assertEquals(1, _server.getRequestCount(LOGIN));
+        assertEquals(List.of(), _errors);
+    }
+
+    private SelectRowsResponse select() throws IOException, CommandException
+    {
+        return new SelectRowsCommand("lists", "Synthetic").execute(_connection, "Home");
+    }
+
+    /**
+     * Runs the task on every thread at the same moment and returns the results
+     */
+    private <T> List<T> all(Callable<T> task) throws Exception
+    {
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++)
+        {
+            futures.add(_executor.submit(() -> {
+                barrier.await(10, TimeUnit.SECONDS);
+                return task.call();
+            }));
+        }
+
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures)
+            results.add(future.get(30, TimeUnit.SECONDS));
+        return results;
+    }
+
+    private static class CountingCredentialsProvider extends GuestCredentialsProvider
+    {
+        private final AtomicInteger _initializeCount = new AtomicInteger();
+
+        @Override
+        public void initializeConnection(Connection connection) throws IOException, CommandException
+        {
+            _initializeCount.incrementAndGet();
+            super.initializeConnection(connection);
+        }
+
+        private int getInitializeCount()
+        {
+            return _initializeCount.get();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.labkey.remoteapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.query.GetQueriesCommand;
+import org.labkey.remoteapi.test.MockLabKeyServer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Caches metadata responses from a {@link MockLabKeyServer}, keeping each Connection's responses separate.
+ */
+public class ResponseCacheTest
+{
+    private static final String GET_QUERIES = "query-getQueries.api";
+
+    private final ResponseCache _cache = new ResponseCache();
+    private MockLabKeyServer _server;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _server = new MockLabKeyServer();
+        _server.setResponse(GET_QUERIES, "application/json", "{\"schemaName\":\"lists\",\"queries\":[{\"name\":\"People\"}]}");
+        _server.start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.close();
+    }
+
+    @Test
+    public void testHits() throws Exception
+    {
+        Connection connection = _server.createConnection().setResponseCache(_cache);
+        for (int i = 0; i < 3; i++)
+            assertEquals("People", new GetQueriesCommand("lists").execute(connection, "Home").getQueryNames().get(0));
+
+        assertEquals(1, _server.getRequestCount(GET_QUERIES));
+        assertEquals(2, _cache.getHitCount());
+
+        // A different folder is a different request
+        new GetQueriesCommand("lists").execute(connection, "Other");
+        assertEquals(2, _server.getRequestCount(GET_QUERIES));
+    }
+
+    @Test
+    public void testConnectionsAreSeparate() throws Exception
+    {
+        // The connections may have different credentials, so they never see each other's responses
+        Connection first = _server.createConnection().setResponseCache(_cache);
+        Connection second = _server.createConnection().setResponseCache(_cache);
+        new GetQueriesCommand("lists").execute(first, "Home");
+        new GetQueriesCommand("lists").execute(second, "Home");
+        new GetQueriesCommand("lists").execute(first, "Home");
+        new GetQueriesCommand("lists").execute(second, "Home");
+
+        assertEquals(2, _server.getRequestCount(GET_QUERIES));
+        assertEquals(2, _cache.size());
+        assertEquals(2, _cache.getHitCount());
+    }
+}
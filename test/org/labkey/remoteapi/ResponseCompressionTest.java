@@ -0,0 +1,117 @@
+package org.labkey.remoteapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.query.Row;
+import org.labkey.remoteapi.query.SelectRowsCommand;
+import org.labkey.remoteapi.query.SelectRowsResponse;
+import org.labkey.remoteapi.query.StreamingRowset;
+import org.labkey.remoteapi.test.MockLabKeyServer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decodes gzip-compressed responses from a {@link MockLabKeyServer}, comparing them with uncompressed ones.
+ */
+public class ResponseCompressionTest
+{
+    private static final int ROW_COUNT = 1000;
+
+    private final List<CommandEvent> _events = new CopyOnWriteArrayList<>();
+    private MockLabKeyServer _server;
+    private Connection _connection;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _server = new MockLabKeyServer();
+        _server.setRowCount(ROW_COUNT);
+        _server.start();
+        _connection = _server.createConnection();
+        _connection.addCommandListener(new CommandListener()
+        {
+            @Override
+            public void onResponseComplete(CommandEvent event)
+            {
+                if (event.getActionName().startsWith("selectRows"))
+                    _events.add(event);
+            }
+        });
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.close();
+    }
+
+    @Test
+    public void testExecute() throws Exception
+    {
+        List<Map<String, Object>> expected = select().getRows();
+
+        _server.setCompressResponses(true);
+        List<Map<String, Object>> actual = select().getRows();
+
+        assertEquals(ROW_COUNT, actual.size());
+        assertEquals(expected, actual);
+        assertCompressed();
+    }
+
+    @Test
+    public void testExecuteAsync() throws Exception
+    {
+        List<Map<String, Object>> expected = select().getRows();
+
+        _server.setCompressResponses(true);
+        List<Map<String, Object>> actual = new SelectRowsCommand("lists", "Synthetic").executeAsync(_connection, "Home").get().getRows();
+
+        assertEquals(ROW_COUNT, actual.size());
+        assertEquals(expected, actual);
+        assertCompressed();
+    }
+
+    @Test
+    public void testStream() throws Exception
+    {
+        List<Map<String, Object>> expected = select().getRows();
+
+        _server.setCompressResponses(true);
+        int count = 0;
+        try (StreamingRowset rowset = new SelectRowsCommand("lists", "Synthetic").stream(_connection, "Home"))
+        {
+            for (Row row : rowset)
+            {
+                assertEquals(expected.get(count).get("Name"), row.getValue("Name"));
+                count++;
+            }
+        }
+
+        assertEquals(ROW_COUNT, count);
+        assertCompressed();
+    }
+
+    private SelectRowsResponse select() throws Exception
+    {
+        return new SelectRowsCommand("lists", "Synthetic").execute(_connection, "Home");
+    }
+
+    // The first select was sent uncompressed for comparison; the last was compressed
+    private void assertCompressed()
+    {
+        assertEquals(2, _events.size());
+        assertNull(_events.get(0).getContentEncoding());
+
+        CommandEvent compressed = _events.get(1);
+        assertEquals("gzip", compressed.getContentEncoding());
+        assertTrue("Expected fewer bytes on the wire (" + compressed.getResponseWireBytes() + ") than decoded (" + compressed.getResponseBytes() + ")",
+            compressed.getResponseWireBytes() < compressed.getResponseBytes());
+    }
+}
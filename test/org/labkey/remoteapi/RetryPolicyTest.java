@@ -0,0 +1,122 @@
+package org.labkey.remoteapi;
+
+import org.apache.hc.core5.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.query.SelectRowsCommand;
+import org.labkey.remoteapi.query.SelectRowsResponse;
+import org.labkey.remoteapi.test.MockLabKeyServer;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Retries against a {@link MockLabKeyServer} that fails requests with a 503 and a Retry-After header.
+ */
+public class RetryPolicyTest
+{
+    private static final String SELECT_ROWS = "query-selectRows.api";
+
+    private MockLabKeyServer _server;
+    private Connection _connection;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _server = new MockLabKeyServer();
+        _server.setRowCount(10);
+        _server.setErrorStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        _server.start();
+        _connection = _server.createConnection();
+
+        // Log in first, so injected failures apply to the commands under test
+        select();
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.close();
+    }
+
+    @Test
+    public void testRetryAfterIsHonored() throws Exception
+    {
+        _connection.setRetryPolicy(new RetryPolicy().setInitialBackoff(10).setMaxBackoff(5000));
+        _server.setRetryAfter("1");
+        _server.failNextRequests(1);
+
+        long start = System.nanoTime();
+        SelectRowsResponse response = select();
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(10, response.getRows().size());
+        assertEquals(3, _server.getRequestCount(SELECT_ROWS));
+        assertTrue("Retried after " + elapsed + "ms, before the Retry-After delay", elapsed >= 900);
+    }
+
+    @Test
+    public void testRetryAfterIsHonoredAsync() throws Exception
+    {
+        _connection.setRetryPolicy(new RetryPolicy().setInitialBackoff(10).setMaxBackoff(5000));
+        _server.setRetryAfter("1");
+        _server.failNextRequests(1);
+
+        long start = System.nanoTime();
+        SelectRowsResponse response = new SelectRowsCommand("lists", "Synthetic").executeAsync(_connection, "Home").get();
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(10, response.getRows().size());
+        assertEquals(3, _server.getRequestCount(SELECT_ROWS));
+        assertTrue("Retried after " + elapsed + "ms, before the Retry-After delay", elapsed >= 900);
+    }
+
+    @Test
+    public void testRetryAfterBeyondMaxBackoffFails() throws Exception
+    {
+        _connection.setRetryPolicy(new RetryPolicy().setInitialBackoff(10).setMaxBackoff(1000));
+        _server.setRetryAfter("60");
+        _server.failNextRequests(1);
+
+        try
+        {
+            select();
+            fail("Expected the 503 to be reported rather than retried");
+        }
+        catch (CommandException e)
+        {
+            assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, e.getStatusCode());
+        }
+        assertEquals(2, _server.getRequestCount(SELECT_ROWS));
+    }
+
+    @Test
+    public void testRetriesAreLimited() throws Exception
+    {
+        _connection.setRetryPolicy(new RetryPolicy().setMaxAttempts(3).setInitialBackoff(10).setHonorRetryAfter(false));
+        _server.setRetryAfter("60");
+        _server.failNextRequests(5);
+
+        try
+        {
+            new SelectRowsCommand("lists", "Synthetic").executeAsync(_connection, "Home").get();
+            fail("Expected the 503 to be reported after the last attempt");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof CommandException);
+            assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, ((CommandException)e.getCause()).getStatusCode());
+        }
+        assertEquals(4, _server.getRequestCount(SELECT_ROWS));
+    }
+
+    private SelectRowsResponse select() throws IOException, CommandException
+    {
+        return new SelectRowsCommand("lists", "Synthetic").execute(_connection, "Home");
+    }
+}
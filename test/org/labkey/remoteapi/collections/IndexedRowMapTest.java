@@ -0,0 +1,238 @@
+package org.labkey.remoteapi.collections;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link IndexedRowMap} keeps the Map contract, and the case-insensitivity of the
+ * {@link CaseInsensitiveHashMap} it replaces for response rows.
+ */
+public class IndexedRowMapTest
+{
+    private static final ColumnIndex INDEX = new ColumnIndex(List.of("RowId", "Name", "Created"));
+
+    @Test
+    public void testColumnIndex()
+    {
+        ColumnIndex index = new ColumnIndex(List.of("RowId", "Name", "NAME", "Value"));
+        assertEquals(List.of("RowId", "Name", "Value"), index.getNames());
+        assertEquals(3, index.size());
+        assertEquals(1, index.indexOf("Name"));
+        assertEquals(1, index.indexOf("name"));
+        assertEquals(2, index.indexOf("VALUE"));
+        assertEquals(-1, index.indexOf("Other"));
+        assertEquals(-1, index.indexOf(null));
+        assertEquals(-1, index.indexOf(1));
+    }
+
+    @Test
+    public void testCaseInsensitiveGet()
+    {
+        IndexedRowMap row = row();
+        assertEquals(1, row.get("RowId"));
+        assertEquals(1, row.get("rowid"));
+        assertEquals("Ann", row.get("NAME"));
+        assertTrue(row.containsKey("name"));
+        assertNull(row.get("Other"));
+        assertNull(row.get(null));
+        assertFalse(row.containsKey(null));
+        assertEquals(Set.of("RowId", "Name", "Created"), row.keySet());
+
+        // Keys are reported with the index's casing, whatever casing they were put with
+        IndexedRowMap upper = new IndexedRowMap(INDEX, Map.of("ROWID", 1));
+        assertEquals(Set.of("RowId"), upper.keySet());
+    }
+
+    @Test
+    public void testAbsentAndNullValues()
+    {
+        IndexedRowMap row = new IndexedRowMap(INDEX, Map.of("RowId", 1));
+        assertEquals(1, row.size());
+        assertFalse(row.containsKey("Name"));
+        assertNull(row.get("Name"));
+
+        assertNull(row.put("Name", null));
+        assertEquals(2, row.size());
+        assertTrue(row.containsKey("Name"));
+        assertNull(row.get("Name"));
+        assertTrue(row.containsValue(null));
+    }
+
+    @Test
+    public void testOverflow()
+    {
+        IndexedRowMap row = row();
+        assertNull(row.put("Extra", "x"));
+        assertEquals(4, row.size());
+        assertEquals("x", row.get("EXTRA"));
+        assertTrue(row.containsKey("extra"));
+        assertTrue(row.keySet().contains("Extra"));
+
+        assertEquals("x", row.put("extra", "y"));
+        assertEquals(4, row.size());
+        assertEquals("y", row.get("Extra"));
+
+        assertEquals("y", row.remove("EXTRA"));
+        assertEquals(3, row.size());
+        assertFalse(row.containsKey("Extra"));
+        assertNull(row.remove("Extra"));
+    }
+
+    @Test
+    public void testRemoveAndReAddIndexedColumn()
+    {
+        IndexedRowMap row = row();
+        assertEquals("Ann", row.remove("name"));
+        assertEquals(2, row.size());
+        assertFalse(row.containsKey("Name"));
+        assertFalse(row.keySet().contains("Name"));
+        assertNull(row.remove("Name"));
+        assertEquals(2, row.size());
+
+        assertNull(row.put("NAME", "Bob"));
+        assertEquals(3, row.size());
+        assertEquals("Bob", row.get("Name"));
+        assertEquals(Set.of("RowId", "Name", "Created"), row.keySet());
+        assertEquals(expected("Name", "Bob"), row);
+    }
+
+    @Test
+    public void testEntrySet()
+    {
+        IndexedRowMap row = row();
+        row.put("Extra", "x");
+
+        Map<String, Object> seen = new HashMap<>();
+        for (Map.Entry<String, Object> entry : row.entrySet())
+            seen.put(entry.getKey(), entry.getValue());
+        assertEquals(4, row.entrySet().size());
+        assertEquals(expected("Extra", "x"), seen);
+        assertTrue(row.entrySet().contains(Map.entry("Name", "Ann")));
+
+        // Changes through entries and the iterator are reflected in the map
+        for (Map.Entry<String, Object> entry : row.entrySet())
+        {
+            if (entry.getKey().equals("Name"))
+                assertEquals("Ann", entry.setValue("Bob"));
+        }
+        assertEquals("Bob", row.get("name"));
+
+        for (Iterator<Map.Entry<String, Object>> it = row.entrySet().iterator(); it.hasNext(); )
+        {
+            String key = it.next().getKey();
+            if (key.equals("RowId") || key.equals("Extra"))
+                it.remove();
+        }
+        assertEquals(2, row.size());
+        assertFalse(row.containsKey("RowId"));
+        assertFalse(row.containsKey("Extra"));
+
+        row.entrySet().clear();
+        assertTrue(row.isEmpty());
+        assertFalse(row.entrySet().iterator().hasNext());
+    }
+
+    @Test
+    public void testEqualsAndHashCode()
+    {
+        IndexedRowMap row = row();
+        Map<String, Object> expected = expected(null, null);
+        assertEquals(expected, row);
+        assertEquals(row, expected);
+        assertEquals(expected.hashCode(), row.hashCode());
+        assertEquals(expected.toString().length(), row.toString().length());
+
+        row.put("Extra", null);
+        expected.put("Extra", null);
+        assertEquals(expected, row);
+        assertEquals(row, expected);
+        assertEquals(expected.hashCode(), row.hashCode());
+
+        row.remove("Created");
+        assertNotEquals(expected, row);
+        assertNotEquals(row, expected);
+        expected.remove("Created");
+        assertEquals(expected, row);
+        assertEquals(expected.hashCode(), row.hashCode());
+
+        assertEquals(new IndexedRowMap(INDEX, expected), row);
+    }
+
+    @Test
+    public void testClear()
+    {
+        IndexedRowMap row = row();
+        row.put("Extra", "x");
+        row.clear();
+        assertEquals(0, row.size());
+        assertTrue(row.isEmpty());
+        assertNull(row.get("Name"));
+        assertNull(row.get("Extra"));
+        assertEquals(Map.of(), row);
+    }
+
+    @Test
+    public void testRandomOperations()
+    {
+        // Compare with a case-insensitive TreeMap over random puts and removes of indexed and overflow keys
+        String[] keys = {"RowId", "ROWID", "name", "Name", "Created", "Extra", "EXTRA", "Other"};
+        Random random = new Random(7);
+        IndexedRowMap row = new IndexedRowMap(INDEX);
+        Map<String, Object> reference = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < 10_000; i++)
+        {
+            String key = keys[random.nextInt(keys.length)];
+            if (random.nextInt(3) == 0)
+            {
+                assertEquals(reference.remove(key), row.remove(key));
+            }
+            else
+            {
+                Integer value = random.nextInt(5) == 0 ? null : i;
+                assertEquals(reference.put(key, value), row.put(key, value));
+            }
+
+            assertEquals(reference.size(), row.size());
+            assertEquals(reference.size(), row.entrySet().size());
+            for (String k : keys)
+            {
+                assertEquals(reference.containsKey(k), row.containsKey(k));
+                assertEquals(reference.get(k), row.get(k));
+            }
+        }
+    }
+
+    private static IndexedRowMap row()
+    {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("RowId", 1);
+        values.put("Name", "Ann");
+        values.put("Created", null);
+        return new IndexedRowMap(INDEX, values);
+    }
+
+    private static Map<String, Object> expected(String key, Object value)
+    {
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("RowId", 1);
+        expected.put("Name", "Ann");
+        expected.put("Created", null);
+        if (null != key)
+            expected.put(key, value);
+        return expected;
+    }
+}
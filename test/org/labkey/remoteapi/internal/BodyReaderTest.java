@@ -0,0 +1,67 @@
+package org.labkey.remoteapi.internal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads bodies as text, whether or not the Content-Length is known or right.
+ */
+public class BodyReaderTest
+{
+    private static final String TEXT = "{\"name\":\"Caf\u00e9 \u65e5\u672c\"}";
+
+    @Test
+    public void testContentLengths() throws IOException
+    {
+        int length = TEXT.getBytes(StandardCharsets.UTF_8).length;
+        for (Long contentLength : new Long[]{null, (long)length, 0L, 5L, length + 1L, (long)Integer.MAX_VALUE, Long.MAX_VALUE})
+            assertEquals(String.valueOf(contentLength), TEXT, BodyReader.readString(stream(TEXT), contentLength));
+        assertEquals("", BodyReader.readString(stream(""), 0L));
+    }
+
+    @Test
+    public void testLargeBody() throws IOException
+    {
+        String large = "x".repeat(3 * BodyReader.MAX_RETAINED_BUFFER + 17);
+        assertEquals(large, BodyReader.readString(stream(large), null));
+        assertEquals(large, BodyReader.readString(stream(large), (long)large.length()));
+        assertEquals(TEXT, BodyReader.readString(stream(TEXT), null));
+    }
+
+    @Test
+    public void testFailedRead() throws IOException
+    {
+        // A large partial body followed by an error
+        InputStream failing = new SequenceInputStream(stream("x".repeat(2 * BodyReader.MAX_RETAINED_BUFFER)), new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                throw new IOException("Connection reset");
+            }
+        });
+        try
+        {
+            BodyReader.readString(failing, null);
+            fail("Expected an IOException");
+        }
+        catch (IOException e)
+        {
+            assertEquals("Connection reset", e.getMessage());
+        }
+        assertEquals(TEXT, BodyReader.readString(stream(TEXT), null));
+    }
+
+    private static InputStream stream(String text)
+    {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,147 @@
+package org.labkey.remoteapi.internal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Detects top-level "exception" properties in JSON bodies, however the body is read.
+ */
+public class JsonErrorSnifferTest
+{
+    @Test
+    public void testException()
+    {
+        for (JsonErrorSniffer sniffer : sniff("{\"rows\":[],\"exception\":\"Query failed\",\"exceptionClass\":\"org.labkey.api.query.QueryParseException\"}"))
+        {
+            assertTrue(sniffer.isExceptionFound());
+            assertEquals("Query failed", sniffer.getException());
+            assertEquals("org.labkey.api.query.QueryParseException", sniffer.getExceptionClass());
+        }
+    }
+
+    @Test
+    public void testNoException()
+    {
+        for (JsonErrorSniffer sniffer : sniff("{\"rows\":[{\"a\":1,\"b\":true,\"c\":null}],\"rowCount\":1}"))
+        {
+            assertFalse(sniffer.isExceptionFound());
+            assertNull(sniffer.getException());
+        }
+    }
+
+    @Test
+    public void testEscapedQuotes()
+    {
+        // Escaped quotes and backslashes in the value are unescaped
+        for (JsonErrorSniffer sniffer : sniff("{\"exception\":\"Column \\\"Name\\\" not found in C:\\\\data\\\\\"}"))
+        {
+            assertTrue(sniffer.isExceptionFound());
+            assertEquals("Column \"Name\" not found in C:\\data\\", sniffer.getException());
+        }
+
+        // An "exception" property quoted inside another value doesn't count
+        for (JsonErrorSniffer sniffer : sniff("{\"comment\":\"\\\"exception\\\":\\\"fake\\\"\",\"rowCount\":0}"))
+            assertFalse(sniffer.isExceptionFound());
+    }
+
+    @Test
+    public void testNestedException()
+    {
+        // Only the top-level property is an error; rows and nested objects may have their own "exception" values
+        for (JsonErrorSniffer sniffer : sniff("{\"rows\":[{\"exception\":\"row value\"}],\"metaData\":{\"exception\":{\"exception\":\"x\"}},\"rowCount\":1}"))
+        {
+            assertFalse(sniffer.isExceptionFound());
+            assertNull(sniffer.getException());
+        }
+
+        for (JsonErrorSniffer sniffer : sniff("{\"rows\":[{\"exception\":\"row value\",\"exceptionClass\":\"Row\"}],\"exception\":\"Top level\"}"))
+        {
+            assertTrue(sniffer.isExceptionFound());
+            assertEquals("Top level", sniffer.getException());
+            assertNull(sniffer.getExceptionClass());
+        }
+    }
+
+    @Test
+    public void testNullException()
+    {
+        // The property is present, but has no message
+        for (JsonErrorSniffer sniffer : sniff("{\"exception\":null,\"exceptionClass\":\"org.labkey.api.action.ApiUsageException\"}"))
+        {
+            assertTrue(sniffer.isExceptionFound());
+            assertNull(sniffer.getException());
+            assertEquals("org.labkey.api.action.ApiUsageException", sniffer.getExceptionClass());
+        }
+    }
+
+    @Test
+    public void testMultiByteValues()
+    {
+        // Multi-byte characters are split across reads when reading a byte at a time or with a small buffer
+        for (JsonErrorSniffer sniffer : sniff("{\"Gr\u00f6\u00dfe\":\"\u65e5\u672c\u8a9e\",\"exception\":\"\u00c9chec : donn\u00e9es invalides \ud83d\ude00\",\"exceptionClass\":\"\u03a9mega\"}"))
+        {
+            assertTrue(sniffer.isExceptionFound());
+            assertEquals("\u00c9chec : donn\u00e9es invalides \ud83d\ude00", sniffer.getException());
+            assertEquals("\u03a9mega", sniffer.getExceptionClass());
+        }
+
+        for (JsonErrorSniffer sniffer : sniff("{\"exception\":\"\\u00c9chec \\ud83d\\ude00\"}"))
+            assertEquals("\u00c9chec \ud83d\ude00", sniffer.getException());
+    }
+
+    @Test
+    public void testNotAnObject()
+    {
+        for (JsonErrorSniffer sniffer : sniff("[{\"exception\":\"in an array\"}]"))
+            assertFalse(sniffer.isExceptionFound());
+    }
+
+    @Test
+    public void testBytesPassThrough() throws IOException
+    {
+        byte[] body = "{\"exception\":\"\u00c9chec\"}".getBytes(StandardCharsets.UTF_8);
+        try (JsonErrorSniffer sniffer = new JsonErrorSniffer(new ByteArrayInputStream(body)))
+        {
+            assertArrayEquals(body, sniffer.readAllBytes());
+            assertTrue(sniffer.isExceptionFound());
+        }
+    }
+
+    /**
+     * Reads the JSON through a sniffer a byte at a time, with a 3-byte buffer, and with skip()
+     */
+    private static JsonErrorSniffer[] sniff(String json)
+    {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        JsonErrorSniffer single = new JsonErrorSniffer(new ByteArrayInputStream(bytes));
+        JsonErrorSniffer buffered = new JsonErrorSniffer(new ByteArrayInputStream(bytes));
+        JsonErrorSniffer skipped = new JsonErrorSniffer(new ByteArrayInputStream(bytes));
+        try
+        {
+            while (single.read() >= 0)
+            {
+                // Scanned as it's read
+            }
+            byte[] buffer = new byte[3];
+            while (buffered.read(buffer, 0, buffer.length) >= 0)
+            {
+                // Scanned as it's read
+            }
+            assertEquals(bytes.length, skipped.skip(Long.MAX_VALUE));
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+        return new JsonErrorSniffer[]{single, buffered, skipped};
+    }
+}
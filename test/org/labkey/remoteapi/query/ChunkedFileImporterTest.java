@@ -0,0 +1,162 @@
+package org.labkey.remoteapi.query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.labkey.remoteapi.CommandException;
+import org.labkey.remoteapi.test.MockLabKeyServer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Imports files in chunks to a {@link MockLabKeyServer}, checking row boundaries and resuming from the checkpoint
+ * after a chunk fails.
+ */
+public class ChunkedFileImporterTest
+{
+    private static final String IMPORT = "query-import.api";
+    private static final int ROW_COUNT = 50;
+    private static final int CHUNK_ROWS = 10;
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    private MockLabKeyServer _server;
+    private Path _file;
+    private Path _checkpoint;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _server = new MockLabKeyServer();
+        _server.start();
+
+        StringBuilder data = new StringBuilder("RowId\tName\n");
+        for (int i = 0; i < ROW_COUNT; i++)
+            data.append(i).append("\tName").append(i).append('\n');
+        _file = _folder.newFile("data.tsv").toPath();
+        Files.writeString(_file, data);
+        _checkpoint = _folder.getRoot().toPath().resolve("data.tsv.checkpoint");
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.close();
+    }
+
+    @Test
+    public void testResume() throws Exception
+    {
+        // Fail the chunk after the second one
+        ChunkedFileImporter importer = createImporter();
+        importer.setChunkListener(result -> {
+            if (1 == result.getChunkIndex())
+                _server.failNextRequests(1);
+        });
+        List<ChunkedFileImporter.ChunkResult> results = importer.importFile(_file);
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(results.get(1).isSuccess());
+        assertFalse(results.get(2).isSuccess());
+        assertEquals(2, results.get(2).getChunkIndex());
+        assertTrue(results.get(2).getException() instanceof CommandException);
+        assertEquals(2 * CHUNK_ROWS, _server.getImportedRowCount());
+        assertTrue(Files.exists(_checkpoint));
+
+        // A new importer with the same checkpoint sends only the chunks that weren't confirmed
+        results = createImporter().importFile(_file);
+
+        assertEquals(3, results.size());
+        for (int i = 0; i < results.size(); i++)
+        {
+            ChunkedFileImporter.ChunkResult result = results.get(i);
+            assertTrue(result.isSuccess());
+            assertEquals(2 + i, result.getChunkIndex());
+            assertEquals((2 + i) * CHUNK_ROWS, result.getFirstRowIndex());
+            assertEquals(CHUNK_ROWS, result.getResponse().getRowCount());
+        }
+        assertEquals(ROW_COUNT, _server.getImportedRowCount());
+        assertEquals(6, _server.getRequestCount(IMPORT));
+
+        // Nothing is left to send
+        assertTrue(createImporter().importFile(_file).isEmpty());
+        assertEquals(6, _server.getRequestCount(IMPORT));
+    }
+
+    @Test
+    public void testQuotedLineBreaks() throws Exception
+    {
+        // Line breaks and escaped quotes within quoted values don't end the row
+        StringBuilder data = new StringBuilder("RowId\tComment\n");
+        for (int i = 0; i < 25; i++)
+            data.append(i).append("\t\"Said \"\"hi\"\"\nthen left\"\n");
+        assertChunks(write("quoted.tsv", data), 25);
+    }
+
+    @Test
+    public void testStrayQuotes() throws Exception
+    {
+        // A quote that doesn't start a field is an ordinary character
+        StringBuilder data = new StringBuilder("RowId\tHeight\tNote\n");
+        for (int i = 0; i < 25; i++)
+            data.append(i).append("\t5\" tall\t").append(i % 2 == 0 ? "\"quoted\"" : "a \"b").append('\n');
+        assertChunks(write("stray.tsv", data), 25);
+    }
+
+    @Test
+    public void testCsv() throws Exception
+    {
+        // In a CSV file a quoted value starts after a comma, not a tab
+        StringBuilder data = new StringBuilder("RowId,Height,Comment\n");
+        for (int i = 0; i < 25; i++)
+            data.append(i).append(",5\" tall,\"one\ntwo, \"\"three\"\"\"\n");
+        assertChunks(write("quoted.csv", data), 25);
+
+        data = new StringBuilder("RowId,Comment\n");
+        for (int i = 0; i < 25; i++)
+            data.append(i).append(",a\t\"b\n");
+        assertChunks(write("stray.csv", data), 25);
+    }
+
+    private void assertChunks(Path file, int rowCount) throws Exception
+    {
+        ChunkedFileImporter importer = new ChunkedFileImporter(_server.createConnection(), "Home", () -> new ImportDataCommand("lists", "Synthetic"));
+        importer.setChunkRows(CHUNK_ROWS);
+        List<ChunkedFileImporter.ChunkResult> results = importer.importFile(file);
+
+        assertEquals((rowCount + CHUNK_ROWS - 1) / CHUNK_ROWS, results.size());
+        for (int i = 0; i < results.size(); i++)
+        {
+            ChunkedFileImporter.ChunkResult result = results.get(i);
+            assertTrue(String.valueOf(result.getException()), result.isSuccess());
+            assertEquals((long)i * CHUNK_ROWS, result.getFirstRowIndex());
+            assertEquals(Math.min(CHUNK_ROWS, rowCount - i * CHUNK_ROWS), result.getRowCount());
+        }
+    }
+
+    private Path write(String name, CharSequence data) throws Exception
+    {
+        Path file = _folder.newFile(name).toPath();
+        Files.writeString(file, data);
+        return file;
+    }
+
+    private ChunkedFileImporter createImporter()
+    {
+        ChunkedFileImporter importer = new ChunkedFileImporter(_server.createConnection(), "Home", () -> new ImportDataCommand("lists", "Synthetic"));
+        importer.setChunkRows(CHUNK_ROWS);
+        importer.setMaxInFlight(1);
+        importer.setCheckpointFile(_checkpoint);
+        return importer;
+    }
+}
@@ -0,0 +1,136 @@
+package org.labkey.remoteapi.query;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares {@link DateParser} with the lenient SimpleDateFormats it replaced.
+ */
+public class DateParserTest
+{
+    private static final String[] LAYOUTS = {"yyyy/MM/d HH:mm:ss", "yyyy-MM-d HH:mm:ss", "d MMM yyyy HH:mm:ss"};
+
+    @Test
+    public void testLayouts() throws Exception
+    {
+        assertSame("2024/03/05 14:07:09");
+        assertSame("2024-03-05 14:07:09");
+        assertSame("05 Mar 2024 14:07:09");
+        assertSame("5 MAR 2024 14:07:09");
+        assertSame("31 December 1999 23:59:59");
+        assertEquals(LocalDateTime.of(2024, 3, 5, 14, 7, 9), DateParser.INSTANCE.parseLocalDateTime("2024-03-05 14:07:09"));
+    }
+
+    @Test
+    public void testSingleDigitFields() throws Exception
+    {
+        assertSame("2024/3/5 4:7:9");
+        assertSame("2024-3-5 4:07:09");
+        assertSame("5 Mar 2024 4:7:9");
+        assertSame("2024/12/1 0:0:0");
+    }
+
+    @Test
+    public void testRollover() throws Exception
+    {
+        assertSame("2023/02/30 10:00:00");
+        assertSame("2024-02-30 10:00:00");
+        assertSame("30 Feb 2023 10:00:00");
+        assertSame("2024/13/01 10:00:00");
+        assertSame("2024/01/00 10:00:00");
+        assertSame("2024/12/31 24:60:60");
+        assertEquals(LocalDateTime.of(2023, 3, 2, 10, 0), DateParser.INSTANCE.parseLocalDateTime("2023/02/30 10:00:00"));
+        assertEquals(LocalDateTime.of(2024, 3, 1, 10, 0), DateParser.INSTANCE.parseLocalDateTime("2024-02-30 10:00:00"));
+    }
+
+    @Test
+    public void testTrailingText() throws Exception
+    {
+        assertSame("2024/03/05 14:07:09 PST");
+        assertSame("2024-03-05 14:07:09 -0800");
+        assertSame("5 Mar 2024 14:07:09 GMT");
+        assertSame("2024-03-05 14:07:09Z");
+    }
+
+    @Test
+    public void testFractions() throws Exception
+    {
+        // The old formats ignored fractional seconds along with any other trailing text
+        assertEquals(old("2024/03/05 14:07:09").getTime() + 123, DateParser.INSTANCE.parse("2024/03/05 14:07:09.123").getTime());
+        assertEquals(old("2024-03-05 14:07:09").getTime() + 500, DateParser.INSTANCE.parse("2024-03-05 14:07:09.5").getTime());
+        assertEquals(old("5 Mar 2024 14:07:09").getTime() + 123, DateParser.INSTANCE.parse("5 Mar 2024 14:07:09.123456789").getTime());
+        assertEquals(LocalDateTime.of(2024, 3, 5, 14, 7, 9, 123_456_789),
+            DateParser.INSTANCE.parseLocalDateTime("2024-03-05 14:07:09.1234567891"));
+    }
+
+    @Test
+    public void testNewLayouts()
+    {
+        // Accepted now, though the old formats required the time
+        assertEquals(LocalDateTime.of(2024, 3, 5, 14, 7, 9), DateParser.INSTANCE.parseLocalDateTime("2024-03-05T14:07:09"));
+        assertEquals(LocalDateTime.of(2024, 3, 5, 0, 0), DateParser.INSTANCE.parseLocalDateTime("2024/03/05"));
+        assertEquals(LocalDateTime.of(2024, 3, 5, 14, 7), DateParser.INSTANCE.parseLocalDateTime("5 Mar 2024 14:07"));
+    }
+
+    @Test
+    public void testNonDates()
+    {
+        String[] values = {"", " ", "abc", "12345", "2024", "2024/03", "2024/03-05 10:00:00", "Mar 5 2024 10:00:00",
+            "5 Foo 2024 10:00:00", "5 Ma 2024 10:00:00", "2024/03/05 x", "2024/03/05 10", "2024/03/05 10:x", "true"};
+        for (String value : values)
+        {
+            assertNull(value, DateParser.INSTANCE.parseDate(value));
+            assertNull(value, DateParser.INSTANCE.parse(value, DateParser.ResultType.INSTANT));
+            assertNull(value, old(value));
+            try
+            {
+                DateParser.INSTANCE.parse(value);
+                fail("Expected a ParseException for \"" + value + "\"");
+            }
+            catch (ParseException e)
+            {
+                // expected
+            }
+        }
+        assertNull(DateParser.INSTANCE.parseDate(null));
+    }
+
+    private static void assertSame(String value) throws ParseException
+    {
+        Date expected = old(value);
+        assertNotNull(value, expected);
+        assertEquals(value, expected, DateParser.INSTANCE.parse(value));
+    }
+
+    /**
+     * Parses the string as the old DateParser did
+     * @return the date, or null if none of the formats accept it
+     */
+    private static Date old(String value)
+    {
+        for (String layout : LAYOUTS)
+        {
+            SimpleDateFormat format = new SimpleDateFormat(layout, Locale.ENGLISH);
+            format.setLenient(true);
+            try
+            {
+                return format.parse(value);
+            }
+            catch (ParseException e)
+            {
+                // Try the next layout
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,98 @@
+package org.labkey.remoteapi.query;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds import request bodies, checking that each data setter replaces whatever an earlier one set.
+ */
+public class ImportDataCommandTest
+{
+    private static final URI URI = java.net.URI.create("http://localhost/labkey/home/query-import.api");
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void testRowSource() throws Exception
+    {
+        ImportDataCommand cmd = new ImportDataCommand("lists", "People");
+        cmd.setRowSource(List.of("Name"), List.of(List.of("Ann")).iterator());
+        String body = body(cmd);
+        assertTrue(body, body.contains("filename=\"rows.tsv\""));
+        assertTrue(body, body.contains("name=\"format\""));
+        assertTrue(body, body.contains("Name\r\nAnn\r\n") || body.contains("Name\nAnn\n"));
+    }
+
+    @Test
+    public void testSettersReplaceRowSource() throws Exception
+    {
+        Path file = _folder.newFile("people.csv").toPath();
+        Files.writeString(file, "Name\nAnn\n");
+
+        ImportDataCommand cmd = new ImportDataCommand("lists", "People");
+        cmd.setRowSource(List.of("Name"), List.of(List.of("Ann")).iterator());
+        cmd.setText("Name\nAnn\n");
+        assertNoRowSource(body(cmd));
+
+        cmd.setRowSource(List.of("Name"), List.of(List.of("Ann")).iterator());
+        cmd.setFile(file.toFile());
+        assertNoRowSource(body(cmd));
+
+        cmd.setRowSource(List.of("Name"), List.of(List.of("Ann")).iterator());
+        cmd.setFile(file);
+        String body = body(cmd);
+        assertNoRowSource(body);
+        assertTrue(body, body.contains("filename=\"people.csv\""));
+
+        cmd.setRowSource(List.of("Name"), List.of(List.of("Ann")).iterator());
+        cmd.setInputStream(new ByteArrayInputStream("Name\nAnn\n".getBytes(StandardCharsets.UTF_8)), "people.csv");
+        body = body(cmd);
+        assertNoRowSource(body);
+        assertTrue(body, body.contains("filename=\"people.csv\""));
+
+        cmd.setRowSource(List.of("Name"), List.of(List.of("Ann")).iterator());
+        cmd.setStreamSource(() -> Files.newInputStream(file), "people.csv");
+        body = body(cmd);
+        assertNoRowSource(body);
+        assertTrue(body, body.contains("filename=\"people.csv\""));
+    }
+
+    @Test
+    public void testSettersReplaceModule() throws Exception
+    {
+        ImportDataCommand cmd = new ImportDataCommand("lists", "People");
+        cmd.setModuleResource("simpletest", "data/people.tsv");
+        assertTrue(body(cmd).contains("name=\"module\""));
+
+        cmd.setPath("people.tsv");
+        assertFalse(body(cmd).contains("name=\"module\""));
+    }
+
+    private static void assertNoRowSource(String body)
+    {
+        assertFalse(body, body.contains("name=\"format\""));
+        assertFalse(body, body.contains("rows.tsv"));
+    }
+
+    private static String body(ImportDataCommand cmd) throws Exception
+    {
+        HttpPost request = cmd.createRequest(URI);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.getEntity().writeTo(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
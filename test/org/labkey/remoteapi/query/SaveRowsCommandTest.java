@@ -0,0 +1,83 @@
+package org.labkey.remoteapi.query;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds save-rows request bodies, streamed or, for subclasses that override getJsonObject(), in memory.
+ */
+public class SaveRowsCommandTest
+{
+    private static final URI URI = java.net.URI.create("http://localhost/labkey/home/query-insertRows.api");
+
+    @Test
+    public void testStreamed() throws Exception
+    {
+        InsertRowsCommand cmd = new InsertRowsCommand("lists", "People");
+        cmd.addRow(Map.of("Name", "Ann"));
+        cmd.addRow(Map.of("Name", "Bob"));
+
+        HttpPost request = cmd.createRequest(URI);
+        assertTrue(request.getEntity() instanceof SaveRowsEntity);
+        JSONObject json = body(request);
+        assertEquals("People", json.getString("queryName"));
+        assertEquals(2, json.getJSONArray("rows").length());
+    }
+
+    @Test
+    public void testEnvelopeOverride() throws Exception
+    {
+        InsertRowsCommand cmd = new InsertRowsCommand("lists", "People")
+        {
+            @Override
+            protected JSONObject getEnvelopeJsonObject()
+            {
+                return super.getEnvelopeJsonObject().put("extra", "envelope");
+            }
+        };
+        cmd.addRow(Map.of("Name", "Ann"));
+
+        HttpPost request = cmd.createRequest(URI);
+        assertTrue(request.getEntity() instanceof SaveRowsEntity);
+        JSONObject json = body(request);
+        assertEquals("envelope", json.getString("extra"));
+        assertEquals(1, json.getJSONArray("rows").length());
+    }
+
+    @Test
+    public void testGetJsonObjectOverride() throws Exception
+    {
+        InsertRowsCommand cmd = new InsertRowsCommand("lists", "People")
+        {
+            @Override
+            public JSONObject getJsonObject()
+            {
+                return super.getJsonObject().put("extra", "legacy");
+            }
+        };
+        cmd.addRow(Map.of("Name", "Ann"));
+
+        HttpPost request = cmd.createRequest(URI);
+        assertFalse(request.getEntity() instanceof SaveRowsEntity);
+        JSONObject json = body(request);
+        assertEquals("legacy", json.getString("extra"));
+        assertEquals("Ann", json.getJSONArray("rows").getJSONObject(0).getString("Name"));
+    }
+
+    private static JSONObject body(HttpPost request) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.getEntity().writeTo(out);
+        return new JSONObject(out.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,191 @@
+package org.labkey.remoteapi.query;
+
+import org.junit.Test;
+import org.labkey.remoteapi.test.MockLabKeyServer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tokenizes the sql-execute.api text format, from strings and from {@link MockLabKeyServer}.
+ */
+public class SqlExecuteReaderTest
+{
+    private static final String SEP = SqlExecuteCommand.us_char + "\t";
+    private static final String EOL = SqlExecuteCommand.us_char + "\n";
+    private static final String NUL = String.valueOf(SqlExecuteCommand.nul_char);
+    private static final String BS = String.valueOf(SqlExecuteCommand.bs_char);
+    private static final String HEADER = "Id" + SEP + "Name" + SEP + "Score" + SEP + "Flag" + EOL +
+        "int" + SEP + "string" + SEP + "float" + SEP + "boolean" + EOL;
+
+    @Test
+    public void testRows() throws IOException
+    {
+        String text = HEADER +
+            "1" + SEP + "one" + SEP + "1.5" + SEP + "true" + EOL +
+            "3000000000" + SEP + "a\tb" + SEP + "x" + SEP + "false" + EOL;
+        for (Reader reader : readers(text))
+        {
+            try (SqlExecuteReader rows = new SqlExecuteReader(reader, null))
+            {
+                assertEquals(List.of("Id", "Name", "Score", "Flag"), rows.getColumnNames());
+                assertEquals(List.of("int", "string", "float", "boolean"), rows.getColumnTypes());
+                assertEquals(2, rows.getColumnIndex("score"));
+
+                List<Object[]> list = toList(rows);
+                assertEquals(2, list.size());
+                assertArrayEquals(new Object[]{1, "one", 1.5, true}, list.get(0));
+                // Out-of-range ints become Longs, a tab without a separator is data, and unparseable values stay Strings
+                assertArrayEquals(new Object[]{3000000000L, "a\tb", "x", false}, list.get(1));
+            }
+        }
+    }
+
+    @Test
+    public void testNullAndRepeatedValues() throws IOException
+    {
+        String text = HEADER +
+            "1" + SEP + "one" + SEP + NUL + SEP + "true" + EOL +
+            "2" + SEP + BS + SEP + BS + SEP + NUL + EOL +
+            "3" + SEP + BS + SEP + "2.5" + SEP + BS + EOL;
+        for (Reader reader : readers(text))
+        {
+            try (SqlExecuteReader rows = new SqlExecuteReader(reader, null))
+            {
+                List<Object[]> list = toList(rows);
+                assertArrayEquals(new Object[]{1, "one", null, true}, list.get(0));
+                assertArrayEquals(new Object[]{2, "one", null, null}, list.get(1));
+                assertArrayEquals(new Object[]{3, "one", 2.5, null}, list.get(2));
+            }
+        }
+    }
+
+    @Test
+    public void testSeparatorAcrossBufferBoundary() throws IOException
+    {
+        // Pad the first value so that each row's separators fall at or around the reader's 8K buffer boundary
+        for (int shift = -2; shift <= 2; shift++)
+        {
+            String padding = "x".repeat(8192 - HEADER.length() - 1 + shift);
+            String text = HEADER + "1" + SEP + padding + SEP + "1.5" + SEP + "true" + EOL + "2" + SEP + BS + SEP + NUL + SEP + "false" + EOL;
+            try (SqlExecuteReader rows = new SqlExecuteReader(new StringReader(text), null))
+            {
+                List<Object[]> list = toList(rows);
+                assertEquals(2, list.size());
+                assertArrayEquals(new Object[]{1, padding, 1.5, true}, list.get(0));
+                assertArrayEquals(new Object[]{2, padding, null, false}, list.get(1));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyResult() throws IOException
+    {
+        for (Reader reader : readers(HEADER))
+        {
+            try (SqlExecuteReader rows = new SqlExecuteReader(reader, null))
+            {
+                assertEquals(4, rows.getColumnNames().size());
+                assertTrue(toList(rows).isEmpty());
+            }
+        }
+
+        try (SqlExecuteReader rows = new SqlExecuteReader(new StringReader(""), null))
+        {
+            assertTrue(rows.getColumnNames().isEmpty());
+            assertTrue(toList(rows).isEmpty());
+        }
+    }
+
+    @Test
+    public void testTruncatedRow() throws IOException
+    {
+        for (String end : List.of("2", "2" + SEP, "2" + SEP + "two" + SEP + "2.5" + SEP + "false", "2" + SEP + "two" + SEP + "2.5" + SEP + "false" + SqlExecuteCommand.us_char))
+        {
+            String text = HEADER + "1" + SEP + "one" + SEP + "1.5" + SEP + "true" + EOL + end;
+            for (Reader reader : readers(text))
+            {
+                List<Object[]> list = new ArrayList<>();
+                try (SqlExecuteReader rows = new SqlExecuteReader(reader, null))
+                {
+                    for (Object[] row : rows)
+                        list.add(row);
+                    fail("Expected the truncated row to be reported");
+                }
+                catch (UncheckedIOException e)
+                {
+                    assertEquals(1, list.size());
+                }
+            }
+        }
+
+        try
+        {
+            new SqlExecuteReader(new StringReader("Id" + SEP + "Name"), null);
+            fail("Expected the truncated header to be reported");
+        }
+        catch (IOException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception
+    {
+        try (MockLabKeyServer server = new MockLabKeyServer())
+        {
+            server.setRowCount(5000);
+            server.start();
+            int count = 0;
+            try (SqlExecuteReader rows = new SqlExecuteCommand("lists", "SELECT * FROM Synthetic").stream(server.createConnection(), "Home"))
+            {
+                assertEquals(List.of("RowId", "Name", "Value", "Created", "Flag"), rows.getColumnNames());
+                for (Object[] row : rows)
+                {
+                    assertEquals(count, row[0]);
+                    assertEquals(count % 10 == 0 ? null : count * 0.25, row[2]);
+                    assertTrue(row[3] instanceof Date);
+                    assertEquals(count % 2 == 0, row[4]);
+                    count++;
+                }
+            }
+            assertEquals(5000, count);
+        }
+    }
+
+    /**
+     * Readers for the text that return it all at once and one character per read, which splits every separator
+     * across reads
+     */
+    private static Reader[] readers(String text)
+    {
+        Reader trickle = new StringReader(text)
+        {
+            @Override
+            public int read(char[] buffer, int off, int len) throws IOException
+            {
+                return super.read(buffer, off, Math.min(len, 1));
+            }
+        };
+        return new Reader[]{new StringReader(text), trickle};
+    }
+
+    private static List<Object[]> toList(SqlExecuteReader reader)
+    {
+        List<Object[]> rows = new ArrayList<>();
+        for (Object[] row : reader)
+            rows.add(row);
+        return rows;
+    }
+}
@@ -0,0 +1,71 @@
+package org.labkey.remoteapi.query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.remoteapi.UncheckedCommandException;
+import org.labkey.remoteapi.test.MockLabKeyServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Streams rows from a {@link MockLabKeyServer}, including a response that reports an error after the rows.
+ */
+public class StreamingRowsetTest
+{
+    private MockLabKeyServer _server;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _server = new MockLabKeyServer();
+        _server.setRowCount(25);
+        _server.start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        _server.close();
+    }
+
+    @Test
+    public void testStream() throws Exception
+    {
+        int count = 0;
+        try (StreamingRowset rowset = new SelectRowsCommand("lists", "Synthetic").stream(_server.createConnection(), "Home"))
+        {
+            for (Row row : rowset)
+                assertEquals(count++, row.getValue("RowId"));
+            assertEquals(25, rowset.getRowCount());
+        }
+        assertEquals(25, count);
+    }
+
+    @Test
+    public void testErrorAfterRows() throws Exception
+    {
+        // Enough rows that the error comes after the start of the body, which is checked before streaming
+        StringBuilder body = new StringBuilder("{\"rows\":[");
+        for (int i = 0; i < 1000; i++)
+            body.append(i > 0 ? "," : "").append("{\"RowId\":").append(i).append('}');
+        body.append("],\"exception\":\"Query timed out\",\"exceptionClass\":\"org.labkey.api.query.QueryException\"}");
+        _server.setResponse("query-selectRows.api", "application/json", body.toString());
+
+        int count = 0;
+        try (StreamingRowset rowset = new SelectRowsCommand("lists", "Synthetic").stream(_server.createConnection(), "Home"))
+        {
+            for (Row ignored : rowset)
+                count++;
+            fail("Expected the error after the rows to be thrown");
+        }
+        catch (UncheckedCommandException e)
+        {
+            assertEquals("Query timed out", e.getCause().getMessage());
+            assertEquals(200, e.getCause().getStatusCode());
+            assertEquals("org.labkey.api.query.QueryException", e.getCause().getProperties().get("exceptionClass"));
+        }
+        assertEquals(1000, count);
+    }
+}